@@ -0,0 +1,140 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.apps;
+import hhreco.classification.*;
+import hhreco.recognition.*;
+import hhreco.toolbox.*;
+import java.util.*;
+import java.io.*;
+
+/**
+ * Tune a CascadeClassifier of an MMDClassifier and a
+ * DenseSVMClassifier.  The classifiers are trained on every other
+ * example of each type of a training file and tested on the rest.
+ * The accuracy and time of the DenseSVMClassifier alone are printed
+ * first, then, for several numbers of candidates and margin
+ * thresholds, the accuracy of the cascade, the fraction of examples
+ * decided by the first stage, the number of times the second stage
+ * overrode it, and the time per example.
+ */
+public class CascadeBenchmark {
+    /**
+     * Usage: java hhreco.apps.CascadeBenchmark training.sml
+     */
+    public static void main(String argv[]){
+        if(argv.length < 1){
+            System.out.println("Usage: java hhreco.apps.CascadeBenchmark training.sml");
+            System.exit(0);
+        }
+        try{
+            BufferedReader reader = new BufferedReader(new FileReader(argv[0]));
+            MSTrainingModel model = (MSTrainingModel)new MSTrainingParser().parse(reader);
+            reader.close();
+            ApproximateStrokeFilter approx = new ApproximateStrokeFilter(1.0);
+            InterpolateStrokeFilter interp = new InterpolateStrokeFilter(10.0);
+            FeatureExtractor[] extractors = HHRecognizer.defaultFeatureExtractors();
+            TrainingSet tset = new TrainingSet();
+            ArrayList tests = new ArrayList();
+            ArrayList testTypes = new ArrayList();
+            int numFeatures = 0;
+            for(Iterator iter = model.types(); iter.hasNext();){
+                String type = (String)iter.next();
+                int k = 0;
+                for(Iterator iter2 = model.positiveExamples(type); iter2.hasNext(); k++){
+                    TimedStroke[] strokes = (TimedStroke[])iter2.next();
+                    strokes = HHRecognizer.preprocess(strokes,approx,interp,null);
+                    FeatureSet fs = HHRecognizer.extractFeatures(extractors,strokes);
+                    numFeatures = fs.getFeatureCount();
+                    if(k%2 == 0){
+                        tset.addPositiveExample(type,fs);
+                    }
+                    else{
+                        tests.add(fs);
+                        testTypes.add(type);
+                    }
+                }
+            }
+            System.out.println(tset.getTypeCount()+" types, "+tests.size()+" test examples");
+
+            DenseSVMClassifier svm = new DenseSVMClassifier(true);
+            svm.train(tset, numFeatures);
+            int correct = accuracy(svm, tests, testTypes);
+            System.out.println("SVM alone: "+correct+"/"+tests.size()+", "+time(svm, tests)+" us/example");
+            System.out.println();
+
+            System.out.println("candidates  margin  accuracy  first stage  overrides  us/example");
+            int[] candidates = {2, 3, 5};
+            double[] margins = {0.2, 0.35, 0.5, 0.65, 2};
+            for(int c=0; c<candidates.length; c++){
+                for(int m=0; m<margins.length; m++){
+                    CascadeClassifier cascade = new CascadeClassifier();
+                    cascade.setCandidateCount(candidates[c]);
+                    cascade.setMarginThreshold(margins[m]);
+                    cascade.train(tset, numFeatures);
+                    double time = time(cascade, tests);
+                    cascade.resetStatistics();
+                    correct = accuracy(cascade, tests, testTypes);
+                    System.out.println(pad(String.valueOf(candidates[c]), 12)+
+                            pad(String.valueOf(margins[m]), 8)+
+                            pad(correct+"/"+tests.size(), 10)+
+                            pad(Math.round(100*cascade.getSkipRate())+"%", 13)+
+                            pad(String.valueOf(cascade.getOverrideCount()), 11)+
+                            time);
+                }
+            }
+        }
+        catch(Exception e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Return the number of test examples classified correctly.
+     */
+    private static int accuracy(Classifier classifier, ArrayList tests, ArrayList testTypes) throws ClassifierException {
+        int correct = 0;
+        for(int i=0; i<tests.size(); i++){
+            String type = classifier.classify((FeatureSet)tests.get(i)).getHighestConfidenceType();
+            if(type.equals(testTypes.get(i))){
+                correct++;
+            }
+        }
+        return correct;
+    }
+
+    /**
+     * Return the time to classify a test example in microseconds,
+     * rounded to 0.1, measured after a first pass that warms up the
+     * JIT.
+     */
+    private static double time(Classifier classifier, ArrayList tests) throws ClassifierException {
+        int repeat = 50;
+        long time = 0;
+        for(int pass=0; pass<2; pass++){
+            long t0 = System.nanoTime();
+            for(int r=0; r<repeat; r++){
+                for(int i=0; i<tests.size(); i++){
+                    classifier.classify((FeatureSet)tests.get(i));
+                }
+            }
+            time = System.nanoTime()-t0;
+        }
+        return Math.round(time/100.0/(repeat*tests.size()))/10.0;
+    }
+
+    /**
+     * Return the string padded with spaces to the given width.
+     */
+    private static String pad(String s, int width){
+        StringBuffer buf = new StringBuffer(s);
+        while(buf.length() < width){
+            buf.append(' ');
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.apps;
+import hhreco.classification.*;
+import hhreco.recognition.ZernikeFE;
+import java.util.Random;
+
+/**
+ * Compare the storage modes of KNNClassifier: the memory taken by the
+ * trained classifier and the number of queries per second, with the
+ * examples stored as one double[] each or as one float block per
+ * category, returning all distances or the 5 nearest.  The examples
+ * are random clusters, one per category, with as many features as the
+ * default Zernike feature extractor.  The memory is measured after the
+ * training set is released, so it counts only what the classifier
+ * keeps.
+ */
+public class KNNBenchmark {
+    /**
+     * Usage: java hhreco.apps.KNNBenchmark [numCategories] [examplesPerCategory]
+     * <p>
+     *
+     * The defaults are 20 categories of 2000 examples.
+     */
+    public static void main(String argv[]){
+        int numCategories = (argv.length > 0) ? Integer.parseInt(argv[0]) : 20;
+        int perCategory = (argv.length > 1) ? Integer.parseInt(argv[1]) : 2000;
+        int numFeatures = ZernikeFE.getFeatureCount(ZernikeFE.DEFAULT_ORDER);
+        System.out.println("categories: "+numCategories+", examples: "+(numCategories*perCategory)+", features: "+numFeatures);
+
+        Random rand = new Random(1);
+        int numQueries = 200;
+        FeatureSet[] queries = new FeatureSet[numQueries];
+        for(int q=0; q<numQueries; q++){
+            double[] vals = new double[numFeatures];
+            for(int j=0; j<numFeatures; j++){
+                vals[j] = rand.nextDouble();
+            }
+            queries[q] = new FeatureSet(vals);
+        }
+
+        System.out.println();
+        System.out.println("mode                 memory(KB)  queries/s");
+        String[] names = {"double, all", "float block, all", "double, k=5", "float block, k=5"};
+        boolean[] compact = {false, true, false, true};
+        int[] ks = {0, 0, 5, 5};
+        try{
+            for(int m=0; m<names.length; m++){
+                long before = usedMemory();
+                KNNClassifier knn = new KNNClassifier(ks[m]);
+                knn.setCompactStorage(compact[m]);
+                knn.train(createTrainingSet(numCategories, perCategory, numFeatures), numFeatures);
+                long memory = usedMemory()-before;
+                double rate = 0;
+                for(int pass=0; pass<2; pass++){//the first pass warms up the JIT
+                    long t0 = System.nanoTime();
+                    for(int q=0; q<numQueries; q++){
+                        knn.classify(queries[q]);
+                    }
+                    rate = numQueries/((System.nanoTime()-t0)/1e9);
+                }
+                StringBuffer buf = new StringBuffer(names[m]);
+                while(buf.length() < 21){
+                    buf.append(' ');
+                }
+                buf.append(memory/1024);
+                while(buf.length() < 33){
+                    buf.append(' ');
+                }
+                buf.append(Math.round(rate));
+                System.out.println(buf.toString());
+                knn.clear();
+            }
+        }
+        catch(ClassifierException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Return a training set of random clusters, the same one on every
+     * call.
+     */
+    private static TrainingSet createTrainingSet(int numCategories, int perCategory, int numFeatures){
+        Random rand = new Random(0);
+        TrainingSet tset = new TrainingSet();
+        for(int c=0; c<numCategories; c++){
+            double[] center = new double[numFeatures];
+            for(int j=0; j<numFeatures; j++){
+                center[j] = rand.nextDouble();
+            }
+            for(int i=0; i<perCategory; i++){
+                double[] vals = new double[numFeatures];
+                for(int j=0; j<numFeatures; j++){
+                    vals[j] = center[j]+0.1*rand.nextGaussian();
+                }
+                tset.addPositiveExample("c"+c, new FeatureSet(vals));
+            }
+        }
+        return tset;
+    }
+
+    /**
+     * Return the memory in use after garbage collection.
+     */
+    private static long usedMemory(){
+        Runtime rt = Runtime.getRuntime();
+        for(int i=0; i<3; i++){
+            System.gc();
+        }
+        return rt.totalMemory()-rt.freeMemory();
+    }
+}
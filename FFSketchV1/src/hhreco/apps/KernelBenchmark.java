@@ -0,0 +1,245 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.apps;
+import hhreco.recognition.ZernikeBasis;
+import hhreco.recognition.ZernikeFE;
+import hhreco.recognition.ZernikeMoments;
+import hhreco.util.Kernels;
+import java.util.Random;
+
+/**
+ * Time the scalar kernels in hhreco.util.Kernels against the kernels
+ * returned by Kernels.getInstance() on inputs of the sizes seen in
+ * recognition: feature vectors of the default Zernike order and
+ * shapes of a few hundred points.  To time the SIMD kernels, run
+ * <pre>
+ * java --add-modules jdk.incubator.vector hhreco.apps.KernelBenchmark
+ * </pre>
+ * Without that option both columns use the scalar kernels.
+ */
+public class KernelBenchmark {
+    /**
+     * The number of times every kernel is timed.  The first pass
+     * warms up the JIT, and the shortest time of the others is
+     * printed, which is less sensitive to other load on the machine.
+     */
+    private static final int PASSES = 6;
+
+    /**
+     * Usage: java hhreco.apps.KernelBenchmark [numPoints] [numExamples]
+     * <p>
+     *
+     * numPoints is the number of points per shape (default 200), and
+     * numExamples is the number of feature vectors (default 400).
+     */
+    public static void main(String argv[]){
+        int numPoints = (argv.length > 0) ? Integer.parseInt(argv[0]) : 200;
+        int numExamples = (argv.length > 1) ? Integer.parseInt(argv[1]) : 400;
+        int order = ZernikeFE.DEFAULT_ORDER;
+        int numFeatures = ZernikeFE.getFeatureCount(order);
+
+        Kernels scalar = new Kernels();
+        Kernels best = Kernels.getInstance();
+        System.out.println("kernels: " + best.getName());
+        System.out.println("points: " + numPoints + ", examples: " + numExamples + ", features: " + numFeatures);
+
+        Random rand = new Random(0);
+        double[] xvals = new double[numPoints];
+        double[] yvals = new double[numPoints];
+        for(int i=0; i<numPoints; i++){
+            double t = 2*Math.PI*i/numPoints;
+            xvals[i] = Math.cos(t)+0.1*rand.nextGaussian();
+            yvals[i] = Math.sin(2*t)+0.1*rand.nextGaussian();
+        }
+        double[][] fvals = new double[numExamples][numFeatures];
+        for(int i=0; i<numExamples; i++){
+            for(int j=0; j<numFeatures; j++){
+                fvals[i][j] = rand.nextDouble();
+            }
+        }
+        double[] vars = new double[numFeatures];
+        for(int j=0; j<numFeatures; j++){
+            vars[j] = 0.5+rand.nextDouble();
+        }
+        float[] block = new float[numExamples*numFeatures];
+        for(int i=0; i<numExamples; i++){
+            for(int j=0; j<numFeatures; j++){
+                block[i*numFeatures+j] = (float)fvals[i][j];
+            }
+        }
+        double[] dists = new double[numExamples];
+
+        int ct = ZernikeBasis.getMomentCount(order);
+        double[] re = new double[ct];
+        double[] im = new double[ct];
+        double[] re2 = new double[ct];
+        double[] im2 = new double[ct];
+        ZernikeMoments.Workspace ws = new ZernikeMoments.Workspace();
+        ZernikeMoments.zer_mmts_fused(order, xvals, yvals, numPoints, 2, 2, 0, 0, re, im);
+        ZernikeMoments.zer_mmts_kernels(order, xvals, yvals, numPoints, 2, 2, 0, 0, re2, im2, best, ws);
+        double maxDiff = 0;
+        for(int i=0; i<ct; i++){
+            maxDiff = Math.max(maxDiff, Math.abs(re[i]-re2[i]));
+            maxDiff = Math.max(maxDiff, Math.abs(im[i]-im2[i]));
+        }
+        System.out.println("max moment difference: " + maxDiff);
+        double[] dists2 = new double[numExamples];
+        scalar.squaredDistances(block, 0, numExamples, numFeatures, fvals[0], dists, 0);
+        best.squaredDistances(block, 0, numExamples, numFeatures, fvals[0], dists2, 0);
+        maxDiff = maxDifference(dists, dists2);
+        scalar.weightedSquaredDistances(block, 0, numExamples, numFeatures, fvals[0], vars, dists, 0);
+        best.weightedSquaredDistances(block, 0, numExamples, numFeatures, fvals[0], vars, dists2, 0);
+        maxDiff = Math.max(maxDiff, maxDifference(dists, dists2));
+        for(int i=0; i<numExamples; i++){
+            dists[i] = scalar.weightedSquaredDistance(fvals[i], fvals[0], vars, numFeatures);
+            dists2[i] = best.weightedSquaredDistance(fvals[i], fvals[0], vars, numFeatures);
+        }
+        maxDiff = Math.max(maxDiff, maxDifference(dists, dists2));
+        System.out.println("max distance difference: " + maxDiff);
+        System.out.println();
+        System.out.println("kernel                     scalar(us)  " + best.getName() + "(us)");
+
+        int reps = 2000;
+        String[] names = {"zer_mmts_fused", "zer_mmts_kernels", "squaredDistance",
+                          "normalizedSquaredDistance", "squaredDistances(float)",
+                          "weightedSquaredDistance", "weightedSquaredDistances",
+                          "add+addSquaredDifference"};
+        long[][] times = new long[names.length][];
+        for(int pass=0; pass<PASSES; pass++){
+            long t0 = System.nanoTime();
+            for(int r=0; r<reps; r++){
+                ZernikeMoments.zer_mmts_fused(order, xvals, yvals, numPoints, 2, 2, 0, 0, re, im);
+            }
+            long fused = System.nanoTime()-t0;
+            long[] t = new long[2];
+            Kernels[] ks = {scalar, best};
+            for(int k=0; k<2; k++){
+                t0 = System.nanoTime();
+                for(int r=0; r<reps; r++){
+                    ZernikeMoments.zer_mmts_kernels(order, xvals, yvals, numPoints, 2, 2, 0, 0, re, im, ks[k], ws);
+                }
+                t[k] = System.nanoTime()-t0;
+            }
+            keepBest(times, 0, pass, fused, fused);
+            keepBest(times, 1, pass, t[0], t[1]);
+
+            double sink = 0;
+            for(int k=0; k<2; k++){
+                t0 = System.nanoTime();
+                for(int r=0; r<reps; r++){
+                    for(int i=0; i<numExamples; i++){
+                        sink += ks[k].squaredDistance(fvals[i], fvals[0], numFeatures);
+                    }
+                }
+                t[k] = System.nanoTime()-t0;
+            }
+            keepBest(times, 2, pass, t[0], t[1]);
+            for(int k=0; k<2; k++){
+                t0 = System.nanoTime();
+                for(int r=0; r<reps; r++){
+                    for(int i=0; i<numExamples; i++){
+                        sink += ks[k].normalizedSquaredDistance(fvals[i], fvals[0], vars, numFeatures);
+                    }
+                }
+                t[k] = System.nanoTime()-t0;
+            }
+            keepBest(times, 3, pass, t[0], t[1]);
+            for(int k=0; k<2; k++){
+                t0 = System.nanoTime();
+                for(int r=0; r<reps; r++){
+                    ks[k].squaredDistances(block, 0, numExamples, numFeatures, fvals[0], dists, 0);
+                    sink += dists[r%numExamples];
+                }
+                t[k] = System.nanoTime()-t0;
+            }
+            keepBest(times, 4, pass, t[0], t[1]);
+            for(int k=0; k<2; k++){
+                t0 = System.nanoTime();
+                for(int r=0; r<reps; r++){
+                    for(int i=0; i<numExamples; i++){
+                        sink += ks[k].weightedSquaredDistance(fvals[i], fvals[0], vars, numFeatures);
+                    }
+                }
+                t[k] = System.nanoTime()-t0;
+            }
+            keepBest(times, 5, pass, t[0], t[1]);
+            for(int k=0; k<2; k++){
+                t0 = System.nanoTime();
+                for(int r=0; r<reps; r++){
+                    ks[k].weightedSquaredDistances(block, 0, numExamples, numFeatures, fvals[0], vars, dists, 0);
+                    sink += dists[r%numExamples];
+                }
+                t[k] = System.nanoTime()-t0;
+            }
+            keepBest(times, 6, pass, t[0], t[1]);
+            double[] acc = new double[numFeatures];
+            for(int k=0; k<2; k++){
+                t0 = System.nanoTime();
+                for(int r=0; r<reps; r++){
+                    for(int i=0; i<numExamples; i++){
+                        ks[k].add(acc, fvals[i], numFeatures);
+                        ks[k].addSquaredDifference(acc, fvals[i], vars, numFeatures);
+                    }
+                }
+                t[k] = System.nanoTime()-t0;
+            }
+            keepBest(times, 7, pass, t[0], t[1]);
+            if(sink+acc[0] == 42){//keep the results live
+                System.out.println();
+            }
+        }
+        for(int i=0; i<names.length; i++){
+            report(names[i], times[i][0], times[i][1], reps);
+        }
+    }
+
+    /**
+     * Return the largest absolute difference between the elements of
+     * a and b.
+     */
+    private static double maxDifference(double[] a, double[] b){
+        double max = 0;
+        for(int i=0; i<a.length; i++){
+            max = Math.max(max, Math.abs(a[i]-b[i]));
+        }
+        return max;
+    }
+
+    /**
+     * Keep in times[row] the shortest scalar and selected times seen
+     * so far, ignoring the first pass, which warms up the JIT.
+     */
+    private static void keepBest(long[][] times, int row, int pass, long scalar, long best){
+        if(pass == 0){
+            return;
+        }
+        if(times[row] == null){
+            times[row] = new long[] {scalar, best};
+        }
+        else{
+            times[row][0] = Math.min(times[row][0], scalar);
+            times[row][1] = Math.min(times[row][1], best);
+        }
+    }
+
+    /**
+     * Print the time per repetition, in microseconds, of the scalar
+     * and the selected kernels.
+     */
+    private static void report(String name, long scalar, long best, int reps){
+        StringBuffer buf = new StringBuffer(name);
+        while(buf.length() < 27){
+            buf.append(' ');
+        }
+        buf.append(Math.round(scalar/100.0/reps)/10.0);
+        while(buf.length() < 39){
+            buf.append(' ');
+        }
+        buf.append(Math.round(best/100.0/reps)/10.0);
+        System.out.println(buf.toString());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.apps;
+import hhreco.classification.*;
+import hhreco.recognition.*;
+import hhreco.toolbox.*;
+import java.util.*;
+import java.io.*;
+
+/**
+ * Compare the two decision modes of DenseSVMModel, one-vs-one voting
+ * and the decision DAG.  A DenseSVMClassifier is trained on every
+ * other example of each type of a training file and tested on the
+ * rest; the accuracy of both modes, the number of test examples on
+ * which they disagree, and the predictions per second are printed.
+ * The time is then measured on random clusters with a growing number
+ * of categories, to show how it grows with the vocabulary.
+ */
+public class SVMDecisionBenchmark {
+    /**
+     * Usage: java hhreco.apps.SVMDecisionBenchmark training.sml
+     */
+    public static void main(String argv[]){
+        if(argv.length < 1){
+            System.out.println("Usage: java hhreco.apps.SVMDecisionBenchmark training.sml");
+            System.exit(0);
+        }
+        try{
+            BufferedReader reader = new BufferedReader(new FileReader(argv[0]));
+            MSTrainingModel model = (MSTrainingModel)new MSTrainingParser().parse(reader);
+            reader.close();
+            ApproximateStrokeFilter approx = new ApproximateStrokeFilter(1.0);
+            InterpolateStrokeFilter interp = new InterpolateStrokeFilter(10.0);
+            FeatureExtractor[] extractors = HHRecognizer.defaultFeatureExtractors();
+            TrainingSet tset = new TrainingSet();
+            ArrayList tests = new ArrayList();
+            ArrayList testTypes = new ArrayList();
+            int numFeatures = 0;
+            for(Iterator iter = model.types(); iter.hasNext();){
+                String type = (String)iter.next();
+                int k = 0;
+                for(Iterator iter2 = model.positiveExamples(type); iter2.hasNext(); k++){
+                    TimedStroke[] strokes = (TimedStroke[])iter2.next();
+                    strokes = HHRecognizer.preprocess(strokes,approx,interp,null);
+                    FeatureSet fs = HHRecognizer.extractFeatures(extractors,strokes);
+                    numFeatures = fs.getFeatureCount();
+                    if(k%2 == 0){
+                        tset.addPositiveExample(type,fs);
+                    }
+                    else{
+                        tests.add(fs.getFeatures());
+                        testTypes.add(type);
+                    }
+                }
+            }
+            DenseSVMClassifier classifier = new DenseSVMClassifier(true);
+            classifier.train(tset,numFeatures);
+            int numClasses = classifier.getModel().getClassCount();
+            System.out.println(numClasses+" classes, "+tset.getTypeCount()+" types, "+tests.size()+" test examples");
+
+            double[][] x = new double[tests.size()][];
+            tests.toArray(x);
+            String[][] predicted = new String[2][];
+            String[] names = {"voting", "DAG"};
+            int[] modes = {DenseSVMModel.VOTING, DenseSVMModel.DAG};
+            int[] evaluations = {numClasses*(numClasses-1)/2, numClasses-1};
+            System.out.println("mode     evaluations  accuracy  predictions/s");
+            for(int m=0; m<2; m++){
+                classifier.setDecisionMode(modes[m]);
+                predicted[m] = new String[x.length];
+                int correct = 0;
+                for(int i=0; i<x.length; i++){
+                    predicted[m][i] = classifier.classify(new FeatureSet(x[i])).getHighestConfidenceType();
+                    if(predicted[m][i].equals(testTypes.get(i))){
+                        correct++;
+                    }
+                }
+                double rate = rate(classifier.getModel(), x);
+                System.out.println(pad(names[m], 9)+pad(String.valueOf(evaluations[m]), 13)+
+                        pad(correct+"/"+x.length, 10)+Math.round(rate));
+            }
+            int disagree = 0;
+            for(int i=0; i<x.length; i++){
+                if(!predicted[0][i].equals(predicted[1][i])){
+                    disagree++;
+                }
+            }
+            System.out.println("the modes disagree on "+disagree+" of "+x.length+" test examples");
+
+            System.out.println();
+            System.out.println("random clusters, 20 examples per category");
+            System.out.println("categories  voting/s  DAG/s");
+            int[] sizes = {10, 20, 40};
+            for(int s=0; s<sizes.length; s++){
+                Random rand = new Random(s);
+                TrainingSet clusters = new TrainingSet();
+                for(int c=0; c<sizes[s]; c++){
+                    double[] center = new double[numFeatures];
+                    for(int j=0; j<numFeatures; j++){
+                        center[j] = rand.nextDouble();
+                    }
+                    for(int i=0; i<20; i++){
+                        double[] vals = new double[numFeatures];
+                        for(int j=0; j<numFeatures; j++){
+                            vals[j] = center[j]+0.1*rand.nextGaussian();
+                        }
+                        clusters.addPositiveExample("c"+c, new FeatureSet(vals));
+                    }
+                }
+                double[][] queries = new double[200][numFeatures];
+                for(int q=0; q<queries.length; q++){
+                    for(int j=0; j<numFeatures; j++){
+                        queries[q][j] = rand.nextDouble();
+                    }
+                }
+                DenseSVMClassifier c = new DenseSVMClassifier(true);
+                c.train(clusters, numFeatures);
+                DenseSVMModel dense = c.getModel();
+                dense.setDecisionMode(DenseSVMModel.VOTING);
+                double voting = rate(dense, queries);
+                dense.setDecisionMode(DenseSVMModel.DAG);
+                double dag = rate(dense, queries);
+                System.out.println(pad(String.valueOf(sizes[s]), 12)+pad(String.valueOf(Math.round(voting)), 10)+Math.round(dag));
+            }
+        }
+        catch(Exception e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Return the number of predictions per second of the model on the
+     * given examples, after a first pass that warms up the JIT.
+     */
+    private static double rate(DenseSVMModel model, double[][] x){
+        int repeat = Math.max(1, 2000/x.length);
+        double rate = 0;
+        for(int pass=0; pass<2; pass++){
+            long t0 = System.nanoTime();
+            for(int r=0; r<repeat; r++){
+                for(int i=0; i<x.length; i++){
+                    model.predict(x[i]);
+                }
+            }
+            rate = repeat*x.length/((System.nanoTime()-t0)/1e9);
+        }
+        return rate;
+    }
+
+    /**
+     * Return the string padded with spaces to the given width.
+     */
+    private static String pad(String s, int width){
+        StringBuffer buf = new StringBuffer(s);
+        while(buf.length() < width){
+            buf.append(' ');
+        }
+        return buf.toString();
+    }
+}
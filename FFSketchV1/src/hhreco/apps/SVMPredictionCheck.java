@@ -0,0 +1,140 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.apps;
+import hhreco.classification.*;
+import hhreco.recognition.*;
+import hhreco.toolbox.*;
+import libsvm.*;
+import java.util.*;
+import java.io.*;
+
+/**
+ * Check that the dense prediction of SVMClassifier (DenseSVMModel)
+ * returns exactly the labels of svm.svm_predict, and time the two.
+ * The classifier is trained on the examples of a training file, and
+ * then both predict the label of every example and of randomly
+ * perturbed copies of them.  A second classifier is trained with
+ * ParallelSVMTrainer, and its labels are checked against the same
+ * svm.svm_predict labels.
+ */
+public class SVMPredictionCheck {
+    /**
+     * Usage: java hhreco.apps.SVMPredictionCheck training.sml [numCopies]
+     * <p>
+     *
+     * numCopies is the number of perturbed copies of each example
+     * (default 10).  The exit status is 1 if any label differs.
+     */
+    public static void main(String argv[]){
+        if(argv.length < 1){
+            System.out.println("Usage: java hhreco.apps.SVMPredictionCheck training.sml [numCopies]");
+            System.exit(0);
+        }
+        int numCopies = (argv.length > 1) ? Integer.parseInt(argv[1]) : 10;
+        try{
+            BufferedReader reader = new BufferedReader(new FileReader(argv[0]));
+            MSTrainingModel model = (MSTrainingModel)new MSTrainingParser().parse(reader);
+            reader.close();
+            ApproximateStrokeFilter approx = new ApproximateStrokeFilter(1.0);
+            InterpolateStrokeFilter interp = new InterpolateStrokeFilter(10.0);
+            FeatureExtractor[] extractors = HHRecognizer.defaultFeatureExtractors();
+            TrainingSet tset = new TrainingSet();
+            ArrayList features = new ArrayList();
+            int numFeatures = 0;
+            for(Iterator iter = model.types(); iter.hasNext();){
+                String type = (String)iter.next();
+                for(Iterator iter2 = model.positiveExamples(type); iter2.hasNext();){
+                    TimedStroke[] strokes = (TimedStroke[])iter2.next();
+                    strokes = HHRecognizer.preprocess(strokes,approx,interp,null);
+                    FeatureSet fs = HHRecognizer.extractFeatures(extractors,strokes);
+                    numFeatures = fs.getFeatureCount();
+                    tset.addPositiveExample(type,fs);
+                    features.add(fs);
+                }
+            }
+            SVMClassifier classifier = new SVMClassifier(true);
+            long tt0 = System.currentTimeMillis();
+            classifier.train(tset,numFeatures);
+            long tt1 = System.currentTimeMillis();
+            SVMClassifier parallel = new SVMClassifier(true);
+            parallel.setTrainingParallelism(Runtime.getRuntime().availableProcessors()+1);
+            parallel.train(tset,numFeatures);
+            long tt2 = System.currentTimeMillis();
+            DenseSVMModel parallelDense = parallel.getDenseModel();
+            svm_model svmModel = classifier.getModel();
+            DenseSVMModel dense = classifier.getDenseModel();
+            if(dense == null){
+                System.out.println("No dense model was exported");
+                System.exit(1);
+            }
+            System.out.println(dense.getClassCount()+" classes, "+dense.getSupportVectorCount()+" support vectors, "+numFeatures+" features");
+            System.out.println("svm_train: "+(tt1-tt0)+" ms, parallel ("+parallel.getTrainingParallelism()+"): "+(tt2-tt1)+" ms, "+
+                    parallelDense.getSupportVectorCount()+" support vectors");
+
+            //the examples and perturbed copies of them
+            Random rand = new Random(0);
+            ArrayList queries = new ArrayList();
+            for(Iterator iter = features.iterator(); iter.hasNext();){
+                double[] vals = ((FeatureSet)iter.next()).getFeatures();
+                queries.add(vals);
+                for(int c=0; c<numCopies; c++){
+                    double[] copy = new double[vals.length];
+                    for(int i=0; i<vals.length; i++){
+                        copy[i] = vals[i]*(1+0.2*rand.nextGaussian());
+                    }
+                    queries.add(copy);
+                }
+            }
+            int num = queries.size();
+            int[] libsvmLabels = new int[num];
+            int[] denseLabels = new int[num];
+            int[] parallelLabels = new int[num];
+
+            long t0 = 0, t1 = 0, t2 = 0;
+            for(int pass=0; pass<2; pass++){//the first pass warms up the JIT
+                t0 = System.currentTimeMillis();
+                for(int i=0; i<num; i++){
+                    FeatureSet fs = classifier.scale(new FeatureSet((double[])queries.get(i)));
+                    svm_node[] ex = new svm_node[fs.getFeatureCount()];
+                    for(int j=0; j<fs.getFeatureCount(); j++){
+                        ex[j]=new svm_node();
+                        ex[j].index=j;
+                        ex[j].value=fs.getFeature(j);
+                    }
+                    libsvmLabels[i] = (int)svm.svm_predict(svmModel, ex);
+                }
+                t1 = System.currentTimeMillis();
+                for(int i=0; i<num; i++){
+                    denseLabels[i] = dense.predict((double[])queries.get(i));
+                }
+                t2 = System.currentTimeMillis();
+            }
+
+            for(int i=0; i<num; i++){
+                parallelLabels[i] = parallelDense.predict((double[])queries.get(i));
+            }
+
+            int mismatches = 0;
+            int parallelMismatches = 0;
+            for(int i=0; i<num; i++){
+                if(libsvmLabels[i] != denseLabels[i]){
+                    mismatches++;
+                }
+                if(libsvmLabels[i] != parallelLabels[i]){
+                    parallelMismatches++;
+                }
+            }
+            System.out.println(num+" predictions, "+mismatches+" mismatches, "+parallelMismatches+" with parallel training");
+            System.out.println("svm_predict: "+(t1-t0)+" ms, dense: "+(t2-t1)+" ms");
+            System.exit(((mismatches == 0) && (parallelMismatches == 0)) ? 0 : 1);
+        }
+        catch(Exception e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -38,9 +38,11 @@ import java.io.*;
  */
 public class TestApp extends JFrame {
     public final static String REJECT = "reject";
+    public final static String CACHE_SUFFIX = ".features";
+    public final static String SNAPSHOT_SUFFIX = ".snapshot";
     private SketchController _controller;
     private JTextField _result;
-    private HHRecognizer _recognizer;
+    private BackgroundRecognizer _recognizer;
     private Choice _choice;
     private MSTrainingModel _model = new MSTrainingModel();
     private Writer _out;
@@ -62,7 +64,10 @@ public class TestApp extends JFrame {
 
     /**
      * Create a test application that trains the recognition system
-     * with the specified training file.
+     * with the specified training file.  The trained recognizer is
+     * saved next to the file with the suffix SNAPSHOT_SUFFIX, and
+     * later runs load it instead of training again, as long as the
+     * training file has not been modified since.
      */
     public TestApp(String trainingFile) {
         super(trainingFile);
@@ -73,18 +78,30 @@ public class TestApp extends JFrame {
             _out.write("<"+MSTrainingParser.MODEL_TAG+">\n");
             BufferedReader br = new BufferedReader(new FileReader(trainingFile));
             MSTrainingParser parser = new MSTrainingParser();
-            MSTrainingModel trainModel = (MSTrainingModel)parser.parse(br);
-            _model = new MSTrainingModel();
-            for(Iterator iter = trainModel.types(); iter.hasNext();){
-                String type = (String)iter.next();
-                for(Iterator iter2 = trainModel.positiveExamples(type); iter2.hasNext();){
-                    TimedStroke[] strokes = (TimedStroke[])iter2.next();
-                    strokes = HHRecognizer.preprocess(strokes,_approx,_interp,null);
-                    _model.addPositiveExample(type, strokes);
+            _model = (MSTrainingModel)parser.parse(br);
+            _recognizer = new BackgroundRecognizer();
+            File snapshot = new File(trainingFile+SNAPSHOT_SUFFIX);
+            if(!loadSnapshot(snapshot, new File(trainingFile))){
+                FeatureCache cache = openFeatureCache(trainingFile);
+                _recognizer.setFeatureCache(cache);
+                //the examples are preprocessed by the recognizer, unless
+                //their features are cached; wait for the first snapshot
+                _recognizer.train(_model,_approx,_interp).get();
+                if((cache != null) && cache.isModified()){
+                    try{
+                        cache.save();
+                    }
+                    catch(IOException ex){
+                        ex.printStackTrace();
+                    }
+                }
+                try{
+                    _recognizer.save(snapshot);
+                }
+                catch(IOException ex){
+                    ex.printStackTrace();
                 }
             }
-            _recognizer = new HHRecognizer();
-            _recognizer.train(_model);
             initUI(_model);
         }
         catch(Exception e) {
@@ -93,6 +110,40 @@ public class TestApp extends JFrame {
         }
     }
 
+    /**
+     * Load the recognizer from the given snapshot if it exists, is
+     * not older than the training file, and was trained with the
+     * preprocessing filters of this application.  Return false if it
+     * has to be trained instead.
+     */
+    private boolean loadSnapshot(File snapshot, File trainingFile){
+        if(!snapshot.exists() || (snapshot.lastModified() < trainingFile.lastModified())){
+            return false;
+        }
+        try{
+            _recognizer.load(snapshot, _approx, _interp);
+            return true;
+        }
+        catch(IOException ex){
+            System.out.println("Cannot load "+snapshot+": "+ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Open the feature cache of the given training file, which is
+     * stored next to it with the suffix CACHE_SUFFIX.  Return null if
+     * it cannot be read.
+     */
+    private static FeatureCache openFeatureCache(String trainingFile){
+        try{
+            return new FeatureCache(new File(trainingFile+CACHE_SUFFIX));
+        }
+        catch(IOException ex){
+            ex.printStackTrace();
+            return null;
+        }
+    }
   
     /**
      * Initialize the user interface of the application.  Display the
@@ -182,7 +233,9 @@ public class TestApp extends JFrame {
      * In addition to writing out the strokes of the corrected shape
      * to a file called "corrections.sml", the recognizer is also
      * retrained with this shape added to the correct training class
-     * on the fly.
+     * on the fly.  The retraining runs in the background, so the user
+     * interface does not freeze, and recognition uses the previous
+     * training until it is done.
      *
      * The corrected shapes are not automatically appended to the
      * initial training file so as to keep the file intact.  They can
@@ -212,7 +265,7 @@ public class TestApp extends JFrame {
                 //m.addPositiveExample(type,strokes);
                 //_recognizer.addAndRetrain(m);
                 _recognizer.addAndRetrain(type,strokes);
-                System.out.println("Recognizer retrained");
+                System.out.println("Recognizer retraining in the background");
             }
             catch(Exception ex){
                 ex.printStackTrace();
@@ -0,0 +1,22 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+/**
+ * A classifier that can classify an example among a subset of the
+ * types it was trained on, doing less work than classifying it among
+ * all of them.  CascadeClassifier uses it to consult an expensive
+ * classifier only about the candidates left by a cheap one.
+ */
+public interface CandidateClassifier extends Classifier {
+    /**
+     * Classify the given example, considering only the given types.
+     * Types the classifier has not been trained on are ignored; a
+     * ClassifierException is thrown if none of them is known.
+     */
+    public Classification classify(FeatureSet s, String[] types) throws ClassifierException;
+}
@@ -0,0 +1,330 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A two-stage classifier.  A cheap first stage, by default an
+ * MMDClassifier, measures the distance of the example to every type
+ * and keeps the N nearest as candidates.  If the nearest type is
+ * clearly nearer than the second one, i.e. the margin
+ * 1-d1/d2 between the two smallest distances d1 &lt;= d2 reaches the
+ * margin threshold, it is the result and the second stage is skipped.
+ * Otherwise the second stage, by default a DenseSVMClassifier, decides
+ * among the candidates only.  The result has one type with a
+ * confidence of 1, as SVMClassifier's. <p>
+ *
+ * The first stage must return distances, smaller meaning nearer, as
+ * MMDClassifier and KNNClassifier do.  If the second stage is a
+ * CandidateClassifier it is asked about the candidates only;
+ * otherwise it classifies the example among all types and the
+ * candidate with the highest confidence is chosen, which saves no
+ * time. <p>
+ *
+ * The classifier counts the examples it classifies, those for which
+ * the second stage was skipped, those for which the second stage
+ * chose another type than the nearest one, and the time spent in
+ * each stage, so that the number of candidates and the threshold can
+ * be tuned.  The counters can be read and reset while the classifier
+ * is used from several threads.
+ */
+public class CascadeClassifier implements TrainableClassifier {
+    /** The default number of candidates passed to the second stage. */
+    public static final int DEFAULT_CANDIDATES = 5;
+
+    /** The default margin threshold. */
+    public static final double DEFAULT_MARGIN = 0.35;
+
+    private TrainableClassifier _first;
+    private TrainableClassifier _second;
+    private int _numCandidates = DEFAULT_CANDIDATES;
+    private double _margin = DEFAULT_MARGIN;
+
+    private AtomicLong _classified = new AtomicLong();
+    private AtomicLong _skipped = new AtomicLong();
+    private AtomicLong _overridden = new AtomicLong();
+    private AtomicLong _firstTime = new AtomicLong();
+    private AtomicLong _secondTime = new AtomicLong();
+
+    /**
+     * Create a cascade of an MMDClassifier and a DenseSVMClassifier
+     * that scales the data.
+     */
+    public CascadeClassifier(){
+        this(new MMDClassifier(), new DenseSVMClassifier(true));
+    }
+
+    /**
+     * Create a cascade of the given classifiers.  The first one must
+     * return distances.
+     */
+    public CascadeClassifier(TrainableClassifier first, TrainableClassifier second){
+        _first = first;
+        _second = second;
+    }
+
+    /**
+     * Classify the given example.
+     */
+    public Classification classify(FeatureSet s) throws ClassifierException {
+        long t0 = System.nanoTime();
+        Classification cl = _first.classify(s);
+        long t1 = System.nanoTime();
+        _firstTime.addAndGet(t1-t0);
+        return decide(s, cl, t1);
+    }
+
+    /**
+     * Classify the given examples.
+     */
+    public Classification[] classify(FeatureSet[] examples) throws ClassifierException {
+        return classify(FeatureSet.toMatrix(examples));
+    }
+
+    /**
+     * Classify the examples in the rows of the matrix.  The first
+     * stage classifies them all at once.
+     */
+    public Classification[] classify(double[][] matrix) throws ClassifierException {
+        long t0 = System.nanoTime();
+        Classification[] first = _first.classify(matrix);
+        long t1 = System.nanoTime();
+        _firstTime.addAndGet(t1-t0);
+        Classification[] result = new Classification[matrix.length];
+        for(int r=0; r<matrix.length; r++){
+            result[r] = decide(new FeatureSet(matrix[r]), first[r], System.nanoTime());
+        }
+        return result;
+    }
+
+    /**
+     * Decide the type of the example from the distances of the first
+     * stage, consulting the second stage unless the margin is large
+     * enough.  't0' is the time the first stage finished.
+     */
+    private Classification decide(FeatureSet s, Classification cl, long t0) throws ClassifierException {
+        _classified.incrementAndGet();
+        int n = Math.min(_numCandidates, cl.getTypeCount());
+        if(n == 0){
+            throw new ClassifierException("CascadeClassifier has not been trained");
+        }
+        //the n nearest types, by insertion
+        String[] candidates = new String[n];
+        double[] dist = new double[n];
+        int found = 0;
+        for(int i=0; i<cl.getTypeCount(); i++){
+            double d = cl.getConfidence(i);
+            if(Double.isNaN(d)){
+                continue;
+            }
+            if((found == n) && (d >= dist[n-1])){
+                continue;
+            }
+            int k = (found < n) ? found++ : n-1;
+            while((k > 0) && (dist[k-1] > d)){
+                dist[k] = dist[k-1];
+                candidates[k] = candidates[k-1];
+                k--;
+            }
+            dist[k] = d;
+            candidates[k] = cl.getType(i);
+        }
+        if(found == 0){
+            throw new ClassifierException("CascadeClassifier: the first stage returned no distance");
+        }
+        String type;
+        if((found == 1) || (margin(dist[0], dist[1]) >= _margin)){
+            _skipped.incrementAndGet();
+            type = candidates[0];
+        }
+        else{
+            if(found < n){
+                String[] c = new String[found];
+                System.arraycopy(candidates, 0, c, 0, found);
+                candidates = c;
+            }
+            type = consult(s, candidates);
+            if(!type.equals(candidates[0])){
+                _overridden.incrementAndGet();
+            }
+            _secondTime.addAndGet(System.nanoTime()-t0);
+        }
+        String[] types = {type};
+        double[] values = {1.0};
+        return new Classification(types, values);
+    }
+
+    /**
+     * Return 1-d1/d2 for the two smallest distances d1 &lt;= d2: 0 if
+     * they are equal, 1 if d1 is 0 and d2 is not.
+     */
+    private static double margin(double d1, double d2){
+        return (d2 > 0) ? 1-d1/d2 : 0;
+    }
+
+    /**
+     * Return the type the second stage chooses among the candidates.
+     */
+    private String consult(FeatureSet s, String[] candidates) throws ClassifierException {
+        if(_second instanceof CandidateClassifier){
+            return ((CandidateClassifier)_second).classify(s, candidates).getHighestConfidenceType();
+        }
+        Classification cl = _second.classify(s);
+        String best = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for(int i=0; i<cl.getTypeCount(); i++){
+            for(int k=0; k<candidates.length; k++){
+                if(candidates[k].equals(cl.getType(i)) && (cl.getConfidence(i) > bestValue)){
+                    best = candidates[k];
+                    bestValue = cl.getConfidence(i);
+                }
+            }
+        }
+        //the second stage may return only its best type
+        return (best == null) ? candidates[0] : best;
+    }
+
+    /**
+     * Train both stages with the given training set.
+     */
+    public void train(TrainingSet s, int numFeatures) throws ClassifierException {
+        _first.train(s, numFeatures);
+        _second.train(s, numFeatures);
+    }
+
+    /**
+     * Train both stages with the examples of the given matrix.
+     */
+    public void train(FeatureMatrix m) throws ClassifierException {
+        _first.train(m);
+        _second.train(m);
+    }
+
+    /**
+     * Return whether both stages are incremental.
+     */
+    public boolean isIncremental(){
+        return _first.isIncremental() && _second.isIncremental();
+    }
+
+    /**
+     * Clear both stages.  The counters are not reset.
+     */
+    public void clear(){
+        _first.clear();
+        _second.clear();
+    }
+
+    /**
+     * Return the first stage.
+     */
+    public TrainableClassifier getFirstStage(){
+        return _first;
+    }
+
+    /**
+     * Return the second stage.
+     */
+    public TrainableClassifier getSecondStage(){
+        return _second;
+    }
+
+    /**
+     * Set the number of nearest types among which the second stage
+     * decides (default DEFAULT_CANDIDATES).
+     */
+    public void setCandidateCount(int n){
+        if(n < 1){
+            throw new IllegalArgumentException("CascadeClassifier: candidate count="+n+", must be at least 1");
+        }
+        _numCandidates = n;
+    }
+
+    /**
+     * Return the number of nearest types among which the second stage
+     * decides.
+     */
+    public int getCandidateCount(){
+        return _numCandidates;
+    }
+
+    /**
+     * Set the margin 1-d1/d2 from which the second stage is skipped
+     * (default DEFAULT_MARGIN).  A threshold above 1 never skips it,
+     * and 0 always does.
+     */
+    public void setMarginThreshold(double margin){
+        _margin = margin;
+    }
+
+    /**
+     * Return the margin from which the second stage is skipped.
+     */
+    public double getMarginThreshold(){
+        return _margin;
+    }
+
+    /**
+     * Return the number of examples classified since the counters were
+     * last reset.
+     */
+    public long getClassifyCount(){
+        return _classified.get();
+    }
+
+    /**
+     * Return the number of examples decided by the first stage alone.
+     */
+    public long getSkipCount(){
+        return _skipped.get();
+    }
+
+    /**
+     * Return the number of examples for which the second stage chose
+     * another type than the one nearest in the first stage.
+     */
+    public long getOverrideCount(){
+        return _overridden.get();
+    }
+
+    /**
+     * Return the fraction of the examples decided by the first stage
+     * alone, or 0 if none has been classified.
+     */
+    public double getSkipRate(){
+        long n = _classified.get();
+        return (n == 0) ? 0 : (double)_skipped.get()/n;
+    }
+
+    /**
+     * Return the time spent in the first stage, in nanoseconds.
+     */
+    public long getFirstStageTime(){
+        return _firstTime.get();
+    }
+
+    /**
+     * Return the time spent choosing the candidates and in the
+     * second stage for the examples that were not skipped, in
+     * nanoseconds.
+     */
+    public long getSecondStageTime(){
+        return _secondTime.get();
+    }
+
+    /**
+     * Reset all the counters to 0.
+     */
+    public void resetStatistics(){
+        _classified.set(0);
+        _skipped.set(0);
+        _overridden.set(0);
+        _firstTime.set(0);
+        _secondTime.set(0);
+    }
+}
@@ -11,6 +11,13 @@ package hhreco.classification;
  * semantics of which it knows nothing about.  It assumes that the
  * feature set it is given is consistent with the feature sets that it
  * was trained on, i.e. the same features are at the same indices.
+ * <p>
+ *
+ * Several examples can be classified in one call, which lets an
+ * implementation share its buffers, scaling, and kernel work across
+ * them.  The i'th classification returned is the one classify would
+ * return for the i'th example.  An implementation with nothing to
+ * share can simply loop over the examples.
  *
  * @author Heloise Hse (hwawen@eecs.berkeley.edu)
  */
@@ -21,6 +28,19 @@ public interface Classifier {
      * same number of features as the training examples.
      */
     public Classification classify(FeatureSet s) throws ClassifierException;
+
+    /**
+     * Return a classification for each of the given feature sets, or
+     * throw a ClassifierException if one of them does not have the
+     * same number of features as the training examples.
+     */
+    public Classification[] classify(FeatureSet[] examples) throws ClassifierException;
+
+    /**
+     * Same as classify(FeatureSet[]), with the feature values of each
+     * example in a row of the matrix.
+     */
+    public Classification[] classify(double[][] matrix) throws ClassifierException;
 }
 
 
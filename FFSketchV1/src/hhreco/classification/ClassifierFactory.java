@@ -0,0 +1,19 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+/**
+ * Creates new, untrained classifiers.  It is used where a classifier
+ * must be trained from scratch without disturbing one that is in use,
+ * e.g. by hhreco.recognition.BackgroundRecognizer.
+ */
+public interface ClassifierFactory {
+    /**
+     * Return a new, untrained classifier.
+     */
+    public TrainableClassifier createClassifier();
+}
@@ -6,9 +6,17 @@
  */
 package hhreco.classification;
 
+import hhreco.util.Kernels;
+
 /**
  * Representing a collection of data with the means, standard
- * deviations, and variances of the feature components.
+ * deviations, and variances of the feature components.  <p>
+ *
+ * Examples can be added and removed one at a time with add() and
+ * remove(), which update the statistics in O(d) with Welford's
+ * running mean and sum of squared deviations instead of going over
+ * the whole collection again.  The arrays returned by getMeans(),
+ * getStds() and getVariances() are updated in place.
  *
  * @author Heloise Hse (hwawen@eecs.berkeley.edu)
  */
@@ -21,6 +29,21 @@ public class DataRep{
     private double[] _vars;
     /** The number of examples */
     int _n;
+    /** The sum of squared deviations from the mean, per feature */
+    private double[] _m2;
+
+    /**
+     * Create the representation of an empty collection of examples
+     * with the given number of features.  Its means and variances are
+     * 0 until examples are added.
+     */
+    public DataRep(int numFeatures){
+        _n = 0;
+        _means = new double[numFeatures];
+        _vars = new double[numFeatures];
+        _stds = new double[numFeatures];
+        _m2 = new double[numFeatures];
+    }
     
     /**
      * Compute the means, standard deviations, variances from the
@@ -35,10 +58,118 @@ public class DataRep{
         _means = computeMeans(fvectors, numFeatures);
         _vars = computeVariances(_means,fvectors,numFeatures);
         _stds = new double[numFeatures];
+        _m2 = new double[numFeatures];
         for(int i=0; i<numFeatures; i++){
             _stds[i] = Math.sqrt(_vars[i]);
+            _m2[i] = _vars[i]*_n;
         }
     }
+
+    /**
+     * Compute the means, standard deviations, variances of the given
+     * rows of the matrix, reading the values in place.
+     */
+    public DataRep(FeatureMatrix m, int[] rows){
+        int numFeatures = m.getFeatureCount();
+        double[] data = m.getData();
+        _n = rows.length;
+        _means = new double[numFeatures];
+        _vars = new double[numFeatures];
+        _stds = new double[numFeatures];
+        _m2 = new double[numFeatures];
+        for(int k=0; k<rows.length; k++){
+            int base = rows[k]*numFeatures;
+            for(int i=0; i<numFeatures; i++){
+                _means[i] += data[base+i];
+            }
+        }
+        for(int i=0; i<numFeatures; i++){
+            _means[i] /= _n;
+        }
+        for(int k=0; k<rows.length; k++){
+            int base = rows[k]*numFeatures;
+            for(int i=0; i<numFeatures; i++){
+                double diff = data[base+i]-_means[i];
+                _m2[i] += diff*diff;
+            }
+        }
+        for(int i=0; i<numFeatures; i++){
+            _vars[i] = _m2[i]/_n;
+            _stds[i] = Math.sqrt(_vars[i]);
+        }
+    }
+
+    /**
+     * Add the given example to the collection and update the
+     * statistics.
+     */
+    public void add(FeatureSet example){
+        add(example.getFeatures());
+    }
+
+    /**
+     * Add the example with the given feature values to the collection
+     * and update the statistics.
+     */
+    public void add(double[] vals){
+        _n++;
+        for(int i=0; i<_means.length; i++){
+            double delta = vals[i]-_means[i];
+            _means[i] += delta/_n;
+            _m2[i] += delta*(vals[i]-_means[i]);
+        }
+        updateVariances();
+    }
+
+    /**
+     * Remove the given example, which must have been part of the
+     * collection, and update the statistics.
+     */
+    public void remove(FeatureSet example){
+        remove(example.getFeatures());
+    }
+
+    /**
+     * Remove the example with the given feature values, which must
+     * have been part of the collection, and update the statistics.
+     */
+    public void remove(double[] vals){
+        if(_n <= 0){
+            throw new IllegalStateException("DataRep: cannot remove from an empty collection");
+        }
+        _n--;
+        for(int i=0; i<_means.length; i++){
+            if(_n == 0){
+                _means[i] = 0;
+                _m2[i] = 0;
+            }
+            else{
+                double delta = vals[i]-_means[i];
+                _means[i] -= delta/_n;
+                //rounding can make a vanishing sum slightly negative
+                _m2[i] = Math.max(0, _m2[i]-delta*(vals[i]-_means[i]));
+            }
+        }
+        updateVariances();
+    }
+
+    /**
+     * Recompute the variances and standard deviations from the sums
+     * of squared deviations.
+     */
+    private void updateVariances(){
+        for(int i=0; i<_means.length; i++){
+            _vars[i] = (_n > 0) ? _m2[i]/_n : 0;
+            _stds[i] = Math.sqrt(_vars[i]);
+        }
+    }
+
+    /**
+     * Return the number of examples in the collection.
+     */
+    public int getCount(){
+        return _n;
+    }
     
     /**
      * Return the mean vector.
@@ -71,11 +202,9 @@ public class DataRep{
         for(int i=0; i<numFeatures; i++){//initialization
             means[i]=0;
         }
+        Kernels kernels = Kernels.getInstance();
         for(int i=0; i<numEx; i++){
-            double[] vals = fvals[i];
-            for(int j=0; j<numFeatures; j++){
-                means[j]+=vals[j];
-            }
+            kernels.add(means, fvals[i], numFeatures);
         }
         for(int i=0; i<numFeatures; i++){
             means[i]/=numEx;
@@ -105,12 +234,9 @@ public class DataRep{
         for(int i=0; i<numFeatures; i++){//initialization
             var[i]=0;
         }
+        Kernels kernels = Kernels.getInstance();
         for(int i=0; i<numEx; i++){
-            double[] vals = fvals[i];
-            for(int j=0; j<numFeatures; j++){
-                double diff = vals[j]-means[j];
-                var[j] += diff*diff;
-            }
+            kernels.addSquaredDifference(var, fvals[i], means, numFeatures);
         }
         for(int i=0; i<numFeatures; i++){
             var[i]/=numEx;
@@ -0,0 +1,813 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A multi-class SVM classifier with an RBF kernel that does not depend
+ * on libsvm.  It is meant for the short, dense feature vectors of this
+ * package (e.g. the 23 Zernike moment magnitudes of order 8). <p>
+ *
+ * The training examples are scaled to [0,1] as in SVMClassifier and
+ * packed row by row into one array.  A one-vs-one C-SVC problem is
+ * solved for each pair of classes by SMOSolver, which shares one float
+ * kernel cache between all the pairs and shrinks the working set, and
+ * the solutions are assembled into a DenseSVMModel that classify()
+ * uses.  The default parameters are those of
+ * SVMClassifier.defaultSVMParam (C=100, gamma=0.5, tolerance 1e-3,
+ * 40 MB of cache, shrinking), and the solver follows the same
+ * algorithm as libsvm, so the two classifiers reach the same accuracy.
+ * <p>
+ *
+ * The classifier is incremental.  When examples are added by another
+ * call to train, as for a correction, the pairwise problems of the
+ * classes that received them are solved again starting from their
+ * previous solution (warm start), and the other pairs are kept.  The
+ * packed array and the solver with its kernel cache are kept between
+ * calls: only the new examples are scaled and appended, and only the
+ * kernel values of the re-solved pairs that are not cached yet are
+ * computed, so the work grows with the affected classes rather than
+ * with the whole training set.  The examples, the scaling and the pairwise
+ * solutions are saved by writeState, so a classifier read back with
+ * readState can keep learning in the same way.  copyState does the
+ * same without a stream, and also hands over the kernel cache. <p>
+ *
+ * Changing C, gamma or the tolerance after training discards the
+ * pairwise solutions and the model, but keeps the examples and the
+ * scaling: the next call to train, even with no new examples, solves
+ * every pair again from zero with the new parameters.
+ */
+public class DenseSVMClassifier implements PersistentClassifier, CandidateClassifier {
+    private boolean _normalizeScale = true;
+    private int _numFeatures;
+    private HashMap _labelToType = new HashMap();
+    private double _C = 100;
+    private double _gamma = 0.5;
+    private double _eps = 1e-3;
+    private int _cacheSize = 40;
+    private boolean _shrinking = true;
+    private FeatureScaler _scaler = null;
+    private DenseSVMModel _model = null;
+    private int _decisionMode = DenseSVMModel.VOTING;
+
+    /**
+     * The unscaled examples learned so far, or null.  The index of a
+     * type in the matrix is its label minus 1.
+     */
+    private FeatureMatrix _examples = null;
+
+    /**
+     * The solution of the problem of classes i &lt; j: the alphas of
+     * the examples of class i followed by those of class j, and the
+     * bias.  Empty when the examples have not been solved with the
+     * current parameters.
+     */
+    private double[][][] _pairAlpha = new double[0][0][];
+    private double[][] _pairRho = new double[0][0];
+
+    /**
+     * The scaled examples in the order of the rows of _examples, of
+     * which the first _numPacked are filled in, or null.
+     */
+    private double[] _packed = null;
+    private int _numPacked = 0;
+
+    /**
+     * The solver of the pairwise problems, which keeps its kernel
+     * cache between calls to train, or null.
+     */
+    private SMOSolver _solver = null;
+
+    /**
+     * Create a classifier with the default parameters and specify
+     * whether the data needs to be scaled.
+     */
+    public DenseSVMClassifier(boolean normalizeScale){
+        _normalizeScale = normalizeScale;
+    }
+
+    /**
+     * Create a classifier with the given penalty C and RBF kernel
+     * parameter gamma, and specify whether the data needs to be
+     * scaled.
+     */
+    public DenseSVMClassifier(boolean normalizeScale, double C, double gamma){
+        _normalizeScale = normalizeScale;
+        _C = C;
+        _gamma = gamma;
+    }
+
+    /**
+     * Classify the given example.
+     */
+    public Classification classify(FeatureSet fs) throws ClassifierException {
+        if(_model == null){
+            throw new ClassifierException("DenseSVMClassifier has not been trained");
+        }
+        int label = _model.predict(fs.getFeatures());
+        String type = (String)_labelToType.get(Integer.valueOf(label));
+        String[] types = {type};
+        double[] values = {1.0};
+        return new Classification(types,values);
+    }
+
+    /**
+     * Classify the given example among the given types only (see
+     * DenseSVMModel.predict(double[], int[], int)).
+     */
+    public Classification classify(FeatureSet fs, String[] types) throws ClassifierException {
+        if(_model == null){
+            throw new ClassifierException("DenseSVMClassifier has not been trained");
+        }
+        //the index of a type in the examples is its class in the model
+        int[] classes = new int[types.length];
+        int count = 0;
+        for(int t=0; t<types.length; t++){
+            int c = _examples.getLabel(types[t]);
+            if(c >= 0){
+                classes[count++] = c;
+            }
+        }
+        if(count == 0){
+            throw new ClassifierException("DenseSVMClassifier has not been trained on any of the candidate types");
+        }
+        Arrays.sort(classes, 0, count);
+        int unique = 1;
+        for(int k=1; k<count; k++){
+            if(classes[k] != classes[unique-1]){
+                classes[unique++] = classes[k];
+            }
+        }
+        count = unique;
+        String type;
+        if(count == 1){
+            type = _examples.getType(classes[0]);
+        }
+        else{
+            int label = _model.predict(fs.getFeatures(), classes, count);
+            type = (String)_labelToType.get(Integer.valueOf(label));
+        }
+        String[] result = {type};
+        double[] values = {1.0};
+        return new Classification(result,values);
+    }
+
+    /**
+     * Classify the given examples.
+     */
+    public Classification[] classify(FeatureSet[] examples) throws ClassifierException {
+        return classify(FeatureSet.toMatrix(examples));
+    }
+
+    /**
+     * Classify the examples in the rows of the matrix, which are
+     * predicted four at a time by the model.  The examples predicted
+     * to be of the same type share their classification.
+     */
+    public Classification[] classify(double[][] matrix) throws ClassifierException {
+        if(_model == null){
+            throw new ClassifierException("DenseSVMClassifier has not been trained");
+        }
+        for(int r=0; r<matrix.length; r++){
+            if(matrix[r].length != _model.getFeatureCount()){
+                throw new ClassifierException("Incorrect number of features: "+matrix[r].length+", should be "+ _model.getFeatureCount());
+            }
+        }
+        int[] labels = new int[matrix.length];
+        _model.predict(matrix, labels);
+        HashMap byLabel = new HashMap();
+        Classification[] result = new Classification[matrix.length];
+        for(int r=0; r<matrix.length; r++){
+            Integer label = Integer.valueOf(labels[r]);
+            Classification cl = (Classification)byLabel.get(label);
+            if(cl == null){
+                String[] types = {(String)_labelToType.get(label)};
+                double[] values = {1.0};
+                cl = new Classification(types,values);
+                byLabel.put(label, cl);
+            }
+            result[r] = cl;
+        }
+        return result;
+    }
+
+    /**
+     * Add the positive examples of the training set to those the
+     * classifier already has, and train the one-vs-one model on all
+     * of them.  The first time (or after clear()), the scaling to
+     * [0,1] is computed from the training set if scaling is
+     * indicated; later calls keep it, so the examples already learned
+     * are not rescaled.  Only the pairwise problems of the classes
+     * that received examples are solved again, starting from their
+     * previous solution, with 0 for the new examples; the other
+     * pairs keep their solution.  If there are no examples the
+     * classifier is left as it is, unless a parameter changed since it
+     * was trained, in which case all the pairs are solved again.
+     */
+    public void train(TrainingSet tset, int numFeatures) throws ClassifierException {
+        if((_examples != null) && (numFeatures != _numFeatures)){
+            throw new ClassifierException("Training set has "+numFeatures+" features, expected "+_numFeatures);
+        }
+        //check the new examples before adding any of them
+        int numNew = 0;
+        for(Iterator types = tset.types(); types.hasNext();){
+            String type = (String)types.next();
+            for(Iterator examples = tset.positiveExamples(type); examples.hasNext();){
+                FeatureSet fs = (FeatureSet)examples.next();
+                if(fs.getFeatureCount() != numFeatures){
+                    throw new ClassifierException("Example of type "+type+" has "+fs.getFeatureCount()+" features, expected "+numFeatures);
+                }
+                numNew++;
+            }
+        }
+        if((numNew == 0) || (numFeatures == 0)){
+            resolve();
+            return;//nothing new to learn
+        }
+        int[] oldCount = startAdding(numFeatures, numNew);
+        for(Iterator types = tset.types(); types.hasNext();){
+            String type = (String)types.next();
+            for(Iterator examples = tset.positiveExamples(type); examples.hasNext();){
+                addExample(type, ((FeatureSet)examples.next()).getFeatures());
+            }
+        }
+        if(_normalizeScale && (_scaler == null)){
+            _scaler = new FeatureScaler(FeatureScaler.MIN_MAX, _numFeatures);
+            _scaler.fit(tset);
+        }
+        solve(oldCount);
+    }
+
+    /**
+     * Same as train(TrainingSet, int), with the examples in a matrix.
+     */
+    public void train(FeatureMatrix m) throws ClassifierException {
+        int numFeatures = m.getFeatureCount();
+        if((_examples != null) && (numFeatures != _numFeatures)){
+            throw new ClassifierException("Training set has "+numFeatures+" features, expected "+_numFeatures);
+        }
+        int numNew = 0;
+        for(int t=0; t<m.getTypeCount(); t++){
+            numNew += m.getRows(t, true).length;
+        }
+        if((numNew == 0) || (numFeatures == 0)){
+            resolve();
+            return;//nothing new to learn
+        }
+        int[] oldCount = startAdding(numFeatures, numNew);
+        double[] vals = new double[numFeatures];
+        for(int t=0; t<m.getTypeCount(); t++){
+            int[] rows = m.getRows(t, true);
+            for(int k=0; k<rows.length; k++){
+                m.getRow(rows[k], vals);
+                addExample(m.getType(t), vals);
+            }
+        }
+        if(_normalizeScale && (_scaler == null)){
+            _scaler = new FeatureScaler(FeatureScaler.MIN_MAX, _numFeatures);
+            _scaler.fit(m);
+        }
+        solve(oldCount);
+    }
+
+    /**
+     * Prepare to add numNew examples with the given number of
+     * features, and return the number of examples of each class
+     * before they are added.
+     */
+    private int[] startAdding(int numFeatures, int numNew){
+        _numFeatures = numFeatures;
+        if(_examples == null){
+            _examples = new FeatureMatrix(numFeatures, numNew);
+        }
+        else if(_examples.getRowCount()+numNew > _examples.getRowCount()*2){
+            _examples.ensureCapacity(_examples.getRowCount()+numNew);
+        }
+        int[] oldCount = new int[_examples.getTypeCount()];
+        for(int c=0; c<oldCount.length; c++){
+            oldCount[c] = _examples.getRows(c, true).length;
+        }
+        return oldCount;
+    }
+
+    /**
+     * Add an unscaled example of the given type, which gets the next
+     * label if it is new.
+     */
+    private void addExample(String type, double[] vals) throws ClassifierException {
+        if(_examples.getLabel(type) < 0){
+            _labelToType.put(Integer.valueOf(_examples.getTypeCount()+1), type);
+        }
+        _examples.addExample(type, vals, true);
+    }
+
+    /**
+     * Solve all the pairs again if the examples have not been solved
+     * with the current parameters.
+     */
+    private void resolve(){
+        if((_examples != null) && (_model == null)){
+            solve(new int[0]);
+        }
+    }
+
+    /**
+     * Train the one-vs-one model on all the examples, solving again
+     * the pairs of the classes whose number of examples is no longer
+     * the one in oldCount, and all of them if the previous solutions
+     * were discarded.
+     */
+    private void solve(int[] oldCount){
+        int numOld = Math.min(oldCount.length, _pairAlpha.length);
+        int numClasses = _examples.getTypeCount();
+        int[][] rows = pack();
+        if(_solver == null){
+            long cacheBytes = ((long)_cacheSize) << 20;
+            _solver = new SMOSolver(_packed, _numPacked, _numFeatures, _gamma, _C, _eps, cacheBytes, _shrinking);
+        }
+        else{
+            _solver.setExamples(_packed, _numPacked);
+        }
+
+        //solve the pairs of the classes that changed
+        double[][][] pairAlpha = new double[numClasses][numClasses][];
+        double[][] pairRho = new double[numClasses][numClasses];
+        for(int i=0; i<numClasses; i++){
+            for(int j=i+1; j<numClasses; j++){
+                int ni = rows[i].length;
+                int nj = rows[j].length;
+                double[] old = (j < numOld) ? _pairAlpha[i][j] : null;
+                if((old != null) && (ni == oldCount[i]) && (nj == oldCount[j])){
+                    pairAlpha[i][j] = old;
+                    pairRho[i][j] = _pairRho[i][j];
+                    continue;
+                }
+                int[] pair = new int[ni+nj];
+                double[] y = new double[ni+nj];
+                double[] a = new double[ni+nj];
+                for(int k=0; k<ni; k++){
+                    pair[k] = rows[i][k];
+                    y[k] = +1;
+                }
+                for(int k=0; k<nj; k++){
+                    pair[ni+k] = rows[j][k];
+                    y[ni+k] = -1;
+                }
+                if(old != null){
+                    System.arraycopy(old, 0, a, 0, oldCount[i]);
+                    System.arraycopy(old, oldCount[i], a, ni, oldCount[j]);
+                }
+                pairRho[i][j] = _solver.solve(pair, y, a);
+                pairAlpha[i][j] = a;
+            }
+        }
+        _pairAlpha = pairAlpha;
+        _pairRho = pairRho;
+        assemble(rows);
+    }
+
+    /**
+     * Scale and append to the packed array the examples added since
+     * the last call, and return the rows of the examples of each
+     * class, in the order they were added.
+     */
+    private int[][] pack(){
+        int numFeatures = _numFeatures;
+        int num = _examples.getRowCount();
+        if((_packed == null) || (_packed.length < num*numFeatures)){
+            double[] packed = new double[Math.max(num, 2*_numPacked)*numFeatures];
+            if(_packed != null){
+                System.arraycopy(_packed, 0, packed, 0, _numPacked*numFeatures);
+            }
+            _packed = packed;
+        }
+        double[] data = _examples.getData();
+        for(int r=_numPacked; r<num; r++){
+            if(_normalizeScale){
+                _scaler.transform(data, r*numFeatures, _packed, r*numFeatures);
+            }
+            else{
+                System.arraycopy(data, r*numFeatures, _packed, r*numFeatures, numFeatures);
+            }
+        }
+        _numPacked = num;
+        int[][] rows = new int[_examples.getTypeCount()][];
+        for(int c=0; c<rows.length; c++){
+            rows[c] = _examples.getRows(c, true);
+        }
+        return rows;
+    }
+
+    /**
+     * Assemble the model from the packed examples and the solutions
+     * of the pairs of classes.
+     */
+    private void assemble(int[][] rows){
+        int[] labels = new int[rows.length];
+        for(int c=0; c<labels.length; c++){
+            labels[c] = c+1;
+        }
+        _model = DenseSVMModel.fromPairs(_numFeatures, _gamma, _packed, rows, labels, _pairAlpha, _pairRho);
+        if(_normalizeScale){
+            _model.setScaler(_scaler);
+        }
+        _model.setDecisionMode(_decisionMode);
+    }
+
+    /**
+     * Write the parameters, the examples learned so far, the scaling
+     * and the pairwise solutions to the stream.  The solutions are
+     * left out if a parameter changed since the classifier was
+     * trained.
+     */
+    public void writeState(DataOutput out) throws IOException {
+        writeState(out, null);
+    }
+
+    /**
+     * Same as writeState(DataOutput), but the values of the examples
+     * are left out if they are the positive examples of 'set', in the
+     * same order for each type.
+     */
+    public void writeState(DataOutput out, TrainingSet set) throws IOException {
+        out.writeBoolean(_normalizeScale);
+        out.writeDouble(_C);
+        out.writeDouble(_gamma);
+        out.writeDouble(_eps);
+        int numClasses = (_examples == null) ? 0 : _examples.getTypeCount();
+        boolean inSet = (numClasses > 0) && isInSet(set);
+        out.writeInt(_numFeatures);
+        out.writeInt(numClasses);
+        out.writeBoolean(inSet);
+        int[] count = new int[numClasses];
+        for(int c=0; c<numClasses; c++){
+            int[] rows = _examples.getRows(c, true);
+            count[c] = rows.length;
+            out.writeUTF(_examples.getType(c));
+            out.writeInt(rows.length);
+            for(int r=0; !inSet && (r<rows.length); r++){
+                for(int i=0; i<_numFeatures; i++){
+                    out.writeDouble(_examples.get(rows[r], i));
+                }
+            }
+        }
+        if(numClasses == 0){
+            return;
+        }
+        if(_normalizeScale){
+            _scaler.writeTo(out);
+        }
+        out.writeBoolean(_model != null);
+        if(_model == null){
+            return;
+        }
+        for(int i=0; i<numClasses; i++){
+            for(int j=i+1; j<numClasses; j++){
+                double[] a = _pairAlpha[i][j];
+                for(int k=0; k<count[i]+count[j]; k++){
+                    out.writeDouble(a[k]);
+                }
+                out.writeDouble(_pairRho[i][j]);
+            }
+        }
+    }
+
+    /**
+     * Return whether the examples are the positive examples of the
+     * training set, in the same order for each type.
+     */
+    private boolean isInSet(TrainingSet set){
+        if(set == null){
+            return false;
+        }
+        for(int c=0; c<_examples.getTypeCount(); c++){
+            String type = _examples.getType(c);
+            int[] rows = _examples.getRows(c, true);
+            if(set.positiveExampleCount(type) != rows.length){
+                return false;
+            }
+            int r = 0;
+            for(Iterator iter = set.positiveExamples(type); iter.hasNext(); r++){
+                FeatureSet fs = (FeatureSet)iter.next();
+                if(fs.getFeatureCount() != _numFeatures){
+                    return false;
+                }
+                for(int i=0; i<_numFeatures; i++){
+                    if(fs.getFeature(i) != _examples.get(rows[r], i)){
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the state of the classifier with one written by
+     * writeState, and assemble its model without solving anything.
+     * If the state has no solutions, the examples are kept and solved
+     * by the next call to train.
+     */
+    public void readState(DataInput in) throws IOException {
+        readState(in, null);
+    }
+
+    /**
+     * Same as readState(DataInput), but the values of the examples
+     * left out by writeState(DataOutput, TrainingSet) are taken from
+     * 'set', which must be the same training set.
+     */
+    public void readState(DataInput in, TrainingSet set) throws IOException {
+        boolean normalizeScale = in.readBoolean();
+        double C = in.readDouble();
+        double gamma = in.readDouble();
+        double eps = in.readDouble();
+        int numFeatures = in.readInt();
+        int numClasses = in.readInt();
+        if((numFeatures < 0) || (numClasses < 0) || ((numClasses > 0) && (numFeatures == 0))){
+            throw new IOException("DenseSVMClassifier: bad state, "+numFeatures+" features, "+numClasses+" classes");
+        }
+        boolean inSet = in.readBoolean();
+        if(inSet && (set == null)){
+            throw new IOException("DenseSVMClassifier: the examples of the state are in a training set that was not given");
+        }
+        FeatureMatrix examples = new FeatureMatrix(numFeatures);
+        HashMap labelToType = new HashMap();
+        int[] count = new int[numClasses];
+        double[] vals = new double[numFeatures];
+        try{
+            for(int c=0; c<numClasses; c++){
+                String type = in.readUTF();
+                count[c] = in.readInt();
+                if((count[c] <= 0) || (examples.getLabel(type) >= 0)){
+                    throw new IOException("DenseSVMClassifier: bad state for class "+type);
+                }
+                labelToType.put(Integer.valueOf(c+1), type);
+                if(inSet){
+                    if(set.positiveExampleCount(type) != count[c]){
+                        throw new IOException("DenseSVMClassifier: the training set does not have the "+count[c]+" examples of class "+type);
+                    }
+                    for(Iterator iter = set.positiveExamples(type); iter.hasNext();){
+                        FeatureSet fs = (FeatureSet)iter.next();
+                        if(fs.getFeatureCount() != numFeatures){
+                            throw new IOException("DenseSVMClassifier: an example of class "+type+" has "+fs.getFeatureCount()+" features, expected "+numFeatures);
+                        }
+                        examples.addExample(type, fs.getFeatures(), true);
+                    }
+                    continue;
+                }
+                for(int r=0; r<count[c]; r++){
+                    for(int i=0; i<numFeatures; i++){
+                        vals[i] = in.readDouble();
+                    }
+                    examples.addExample(type, vals, true);
+                }
+            }
+        }
+        catch(ClassifierException ex){
+            throw new IOException(ex.getMessage());
+        }
+        FeatureScaler scaler = null;
+        if(normalizeScale && (numClasses > 0)){
+            scaler = FeatureScaler.readFrom(in);
+            if(scaler.getFeatureCount() != numFeatures){
+                throw new IOException("DenseSVMClassifier: the scaling has "+scaler.getFeatureCount()+" features, expected "+numFeatures);
+            }
+        }
+        boolean solved = (numClasses > 0) && in.readBoolean();
+        double[][][] pairAlpha = new double[solved ? numClasses : 0][numClasses][];
+        double[][] pairRho = new double[solved ? numClasses : 0][numClasses];
+        for(int i=0; i<pairAlpha.length; i++){
+            for(int j=i+1; j<numClasses; j++){
+                double[] a = new double[count[i]+count[j]];
+                for(int k=0; k<a.length; k++){
+                    a[k] = in.readDouble();
+                }
+                pairAlpha[i][j] = a;
+                pairRho[i][j] = in.readDouble();
+            }
+        }
+
+        clear();
+        _normalizeScale = normalizeScale;
+        _C = C;
+        _gamma = gamma;
+        _eps = eps;
+        _numFeatures = numFeatures;
+        if(numClasses == 0){
+            return;
+        }
+        _examples = examples;
+        _labelToType = labelToType;
+        _scaler = scaler;
+        if(solved){
+            _pairAlpha = pairAlpha;
+            _pairRho = pairRho;
+            assemble(pack());
+        }
+    }
+
+    /**
+     * Replace the state of the classifier with a copy of the state of
+     * 'c', which must be a DenseSVMClassifier, and assemble its model
+     * without solving anything.  The examples and the packed array are
+     * copied, and the pairwise solutions and the scaling, which
+     * training replaces rather than modifies, are shared.  The solver
+     * of 'c' and its kernel cache are handed over to this classifier
+     * if the two have the same cache size and shrinking, so that the
+     * next call to train starts with the kernel values already
+     * computed; 'c' classifies as before, and starts with an empty
+     * cache if it is trained again.
+     */
+    public void copyState(PersistentClassifier c){
+        if(!(c instanceof DenseSVMClassifier)){
+            throw new IllegalArgumentException("DenseSVMClassifier: cannot copy the state of a "+c.getClass().getName());
+        }
+        DenseSVMClassifier from = (DenseSVMClassifier)c;
+        clear();
+        _normalizeScale = from._normalizeScale;
+        _C = from._C;
+        _gamma = from._gamma;
+        _eps = from._eps;
+        _numFeatures = from._numFeatures;
+        if(from._examples == null){
+            return;
+        }
+        _examples = new FeatureMatrix(from._examples);
+        _labelToType = new HashMap(from._labelToType);
+        _scaler = from._scaler;
+        _pairAlpha = from._pairAlpha;
+        _pairRho = from._pairRho;
+        if(from._packed != null){
+            _packed = from._packed.clone();
+            _numPacked = from._numPacked;
+        }
+        if((from._solver != null) && (from._cacheSize == _cacheSize) && (from._shrinking == _shrinking)){
+            _solver = from._solver;
+            from._solver = null;
+            _solver.setExamples(_packed, _numPacked);
+        }
+        if(from._model != null){
+            assemble(pack());
+        }
+    }
+
+    /**
+     * Return the trained model, or null if the classifier has not been
+     * trained.
+     */
+    public DenseSVMModel getModel(){
+        return _model;
+    }
+
+    /**
+     * Set how the model decides the label from the one-vs-one
+     * decision functions: DenseSVMModel.VOTING (the default) or
+     * DenseSVMModel.DAG, which evaluates k-1 of them for k classes
+     * (see DenseSVMModel).  This takes effect at once.
+     */
+    public void setDecisionMode(int mode){
+        if((mode != DenseSVMModel.VOTING) && (mode != DenseSVMModel.DAG)){
+            throw new IllegalArgumentException("DenseSVMClassifier: unknown decision mode "+mode);
+        }
+        _decisionMode = mode;
+        if(_model != null){
+            _model.setDecisionMode(mode);
+        }
+    }
+
+    /**
+     * Return DenseSVMModel.VOTING or DenseSVMModel.DAG.
+     */
+    public int getDecisionMode(){
+        return _decisionMode;
+    }
+
+    /**
+     * Set the penalty of the misclassified examples (default 100).
+     * A new value discards the trained model until the next call to
+     * train.
+     */
+    public void setC(double C){
+        if(C != _C){
+            _C = C;
+            discardSolutions();
+        }
+    }
+
+    /**
+     * Return the penalty of the misclassified examples.
+     */
+    public double getC(){
+        return _C;
+    }
+
+    /**
+     * Set the RBF kernel parameter (default 0.5).
+     * A new value discards the trained model until the next call to
+     * train.
+     */
+    public void setGamma(double gamma){
+        if(gamma != _gamma){
+            _gamma = gamma;
+            discardSolutions();
+        }
+    }
+
+    /**
+     * Return the RBF kernel parameter.
+     */
+    public double getGamma(){
+        return _gamma;
+    }
+
+    /**
+     * Set the tolerance of the stopping criterion (default 1e-3).
+     * A new value discards the trained model until the next call to
+     * train.
+     */
+    public void setTolerance(double eps){
+        if(eps != _eps){
+            _eps = eps;
+            discardSolutions();
+        }
+    }
+
+    /**
+     * Return the tolerance of the stopping criterion.
+     */
+    public double getTolerance(){
+        return _eps;
+    }
+
+    /**
+     * Set the size of the kernel cache in megabytes (default 40).
+     */
+    public void setCacheSize(int megabytes){
+        _cacheSize = megabytes;
+        _solver = null;
+    }
+
+    /**
+     * Return the size of the kernel cache in megabytes.
+     */
+    public int getCacheSize(){
+        return _cacheSize;
+    }
+
+    /**
+     * Set whether the solver shrinks the working set (default true).
+     */
+    public void setShrinking(boolean val){
+        _shrinking = val;
+        _solver = null;
+    }
+
+    /**
+     * Return whether the solver shrinks the working set.
+     */
+    public boolean isShrinking(){
+        return _shrinking;
+    }
+
+    /**
+     * An incremental classifier: calls to train add to the examples
+     * already learned, and only the affected pairs of classes are
+     * trained again.
+     */
+    public boolean isIncremental(){
+        return true;
+    }
+
+    /**
+     * Forget the pairwise solutions and the model, which no longer
+     * match the parameters, and keep the examples and the scaling.
+     */
+    private void discardSolutions(){
+        _model = null;
+        _pairAlpha = new double[0][0][];
+        _pairRho = new double[0][0];
+        _solver = null;
+    }
+
+    /**
+     * Forget all the examples, the scaling, and the trained model.
+     */
+    public void clear(){
+        _model = null;
+        _labelToType.clear();
+        _examples = null;
+        _pairAlpha = new double[0][0][];
+        _pairRho = new double[0][0];
+        _scaler = null;
+        _packed = null;
+        _numPacked = 0;
+        _solver = null;
+    }
+}
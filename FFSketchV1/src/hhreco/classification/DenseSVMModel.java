@@ -0,0 +1,716 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import libsvm.*;
+import java.io.*;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * A dense copy of a trained multi-class RBF svm_model, used to
+ * predict labels without going through libsvm.  The support vectors
+ * are stored row by row in one contiguous array, and the one-vs-one
+ * decision functions are evaluated directly on it.  <p>
+ *
+ * predict() returns exactly the label svm.svm_predict returns for the
+ * same model and example: every kernel value is computed as
+ * exp(-gamma*Sum (x[i]-sv[i])^2) in the same order as libsvm's
+ * Kernel.k_function, the decision values are summed in the same order
+ * as svm_predict, and ties in the vote go to the first class.  (The
+ * kernel is not expanded into |x|^2+|sv|^2-2x.sv with precomputed
+ * norms, because that would change the rounding.)  <p>
+ *
+ * With setDecisionMode(DAG), the label is instead found by a
+ * decision DAG: starting from the first and last classes, each
+ * decision function eliminates the loser, so only k-1 of the
+ * k(k-1)/2 functions are evaluated for k classes.  The kernel values
+ * of a class's support vectors are computed only when a pair that
+ * involves the class is evaluated, and are shared by all the pairs it
+ * takes part in.  DAG labels usually, but not always, agree with the
+ * vote. <p>
+ *
+ * The model can also hold the FeatureScaler of SVMClassifier, which is
+ * then applied to the example in place of SVMClassifier.scale.  No
+ * objects are allocated per prediction; the scaled example, kernel
+ * values and votes are kept in per-thread buffers, so a model can be
+ * shared by several threads.
+ */
+public class DenseSVMModel {
+    /** The number of features of an example. */
+    private int _numFeatures;
+
+    /** The number of classes. */
+    private int _numClasses;
+
+    /** The number of support vectors. */
+    private int _numSV;
+
+    /** The RBF kernel parameter. */
+    private double _gamma;
+
+    /** The support vectors, _numFeatures values per row. */
+    private double[] _sv;
+
+    /** The coefficients, as in svm_model.sv_coef. */
+    private double[][] _coef;
+
+    /** The bias of each pair of classes, as in svm_model.rho. */
+    private double[] _rho;
+
+    /** The label of each class. */
+    private int[] _label;
+
+    /** The number of support vectors of each class. */
+    private int[] _nSV;
+
+    /** The first support vector of each class. */
+    private int[] _start;
+
+    /** The factor of each feature for scaling, or null. */
+    private double[] _scale;
+
+    /** The term added to each feature for scaling, or null. */
+    private double[] _offset;
+
+    /** Predict the class with the most one-vs-one votes. */
+    public static final int VOTING = 0;
+
+    /** Predict by eliminating one class per pair in a decision DAG. */
+    public static final int DAG = 1;
+
+    /** VOTING or DAG. */
+    private int _decisionMode = VOTING;
+
+    /**
+     * Per-thread buffers for the scaled example, the kernel values
+     * and the votes.
+     */
+    private ThreadLocal _scratch = new ThreadLocal() {
+            protected Object initialValue() {
+                return new Scratch(_numFeatures, _numSV, _numClasses);
+            }
+        };
+
+    /**
+     * Create a dense model with the given arrays.  The arrays are used
+     * as they are, not copied.  'sv' holds numFeatures values for each
+     * support vector, grouped by class.
+     */
+    public DenseSVMModel(int numFeatures, double gamma, double[] sv, double[][] coef, double[] rho, int[] label, int[] nSV){
+        _numFeatures = numFeatures;
+        _gamma = gamma;
+        _sv = sv;
+        _coef = coef;
+        _rho = rho;
+        _label = label;
+        _nSV = nSV;
+        _numClasses = label.length;
+        _numSV = sv.length/numFeatures;
+        _start = new int[_numClasses];
+        for(int i=1; i<_numClasses; i++){
+            _start[i] = _start[i-1]+nSV[i-1];
+        }
+    }
+
+    /**
+     * Export the given libsvm model into a dense model.  Only C_SVC
+     * and NU_SVC models with an RBF kernel are supported.  The model is
+     * read back through svm.svm_save_model, which writes every value
+     * with full precision, so the copy is exact.  Features with an
+     * index outside [0, numFeatures) are not allowed.
+     */
+    public static DenseSVMModel fromModel(svm_model model, int numFeatures) throws IOException {
+        File tmp = File.createTempFile("hhreco-svm", ".model");
+        try {
+            svm.svm_save_model(tmp.getPath(), model);
+            BufferedReader in = new BufferedReader(new FileReader(tmp));
+            try {
+                return read(in, numFeatures);
+            }
+            finally {
+                in.close();
+            }
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Parse a model in the format written by svm.svm_save_model.
+     */
+    private static DenseSVMModel read(BufferedReader in, int numFeatures) throws IOException {
+        double gamma = 0;
+        int numClasses = 0;
+        int total = 0;
+        double[] rho = null;
+        int[] label = null;
+        int[] nSV = null;
+        String line;
+        while(true){
+            line = in.readLine();
+            if(line == null){
+                throw new IOException("DenseSVMModel: missing support vectors");
+            }
+            StringTokenizer tok = new StringTokenizer(line);
+            if(!tok.hasMoreTokens()){
+                continue;
+            }
+            String key = tok.nextToken();
+            if(key.equals("SV")){
+                break;
+            }
+            else if(key.equals("svm_type")){
+                String type = tok.nextToken();
+                if(!type.equals("c_svc") && !type.equals("nu_svc")){
+                    throw new IllegalArgumentException("DenseSVMModel: unsupported svm_type "+type);
+                }
+            }
+            else if(key.equals("kernel_type")){
+                String type = tok.nextToken();
+                if(!type.equals("rbf")){
+                    throw new IllegalArgumentException("DenseSVMModel: unsupported kernel_type "+type);
+                }
+            }
+            else if(key.equals("gamma")){
+                gamma = Double.parseDouble(tok.nextToken());
+            }
+            else if(key.equals("nr_class")){
+                numClasses = Integer.parseInt(tok.nextToken());
+            }
+            else if(key.equals("total_sv")){
+                total = Integer.parseInt(tok.nextToken());
+            }
+            else if(key.equals("rho")){
+                rho = new double[numClasses*(numClasses-1)/2];
+                for(int i=0; i<rho.length; i++){
+                    rho[i] = Double.parseDouble(tok.nextToken());
+                }
+            }
+            else if(key.equals("label")){
+                label = new int[numClasses];
+                for(int i=0; i<numClasses; i++){
+                    label[i] = Integer.parseInt(tok.nextToken());
+                }
+            }
+            else if(key.equals("nr_sv")){
+                nSV = new int[numClasses];
+                for(int i=0; i<numClasses; i++){
+                    nSV[i] = Integer.parseInt(tok.nextToken());
+                }
+            }
+        }
+        if((rho == null) || (label == null) || (nSV == null)){
+            throw new IOException("DenseSVMModel: incomplete model header");
+        }
+        double[] sv = new double[total*numFeatures];
+        double[][] coef = new double[numClasses-1][total];
+        for(int i=0; i<total; i++){
+            line = in.readLine();
+            if(line == null){
+                throw new IOException("DenseSVMModel: expected "+total+" support vectors, found "+i);
+            }
+            StringTokenizer tok = new StringTokenizer(line, " \t:");
+            for(int k=0; k<numClasses-1; k++){
+                coef[k][i] = Double.parseDouble(tok.nextToken());
+            }
+            while(tok.hasMoreTokens()){
+                int index = Integer.parseInt(tok.nextToken());
+                double value = Double.parseDouble(tok.nextToken());
+                if((index < 0) || (index >= numFeatures)){
+                    throw new IOException("DenseSVMModel: feature index "+index+" out of range");
+                }
+                sv[i*numFeatures+index] = value;
+            }
+        }
+        return new DenseSVMModel(numFeatures, gamma, sv, coef, rho, label, nSV);
+    }
+
+    /**
+     * Assemble a dense model from the solutions of the one-vs-one
+     * problems of a multi-class model, as svm.svm_train does.  The
+     * examples in 'x', numFeatures values each, are grouped by class:
+     * count[c] examples of class c follow each other, and class c gets
+     * label[c].  For the p-th pair of classes i &lt; j, in the order
+     * (0,1), (0,2)...(1,2)..., alpha[p][k] is the coefficient (alpha
+     * times the +1/-1 target, +1 for class i) of example k and rho[p]
+     * the bias.  The support vectors of a class are its examples with
+     * a nonzero coefficient in any pair, in example order.
+     */
+    static DenseSVMModel fromPairs(int numFeatures, double gamma, double[] x, int[] count, int[] label, double[][] alpha, double[] rho){
+        int numClasses = count.length;
+        int num = x.length/numFeatures;
+        int[] start = new int[numClasses];
+        for(int c=1; c<numClasses; c++){
+            start[c] = start[c-1]+count[c-1];
+        }
+        boolean[] nonzero = new boolean[num];
+        for(int p=0; p<alpha.length; p++){
+            for(int k=0; k<num; k++){
+                if(alpha[p][k] != 0){
+                    nonzero[k] = true;
+                }
+            }
+        }
+        int[] nSV = new int[numClasses];
+        int total = 0;
+        for(int c=0; c<numClasses; c++){
+            for(int k=start[c]; k<start[c]+count[c]; k++){
+                if(nonzero[k]){
+                    nSV[c]++;
+                    total++;
+                }
+            }
+        }
+        double[] sv = new double[total*numFeatures];
+        double[][] coef = new double[Math.max(numClasses-1,0)][total];
+        int[] row = new int[num];
+        int r = 0;
+        for(int k=0; k<num; k++){
+            if(nonzero[k]){
+                System.arraycopy(x, k*numFeatures, sv, r*numFeatures, numFeatures);
+                row[k] = r++;
+            }
+        }
+        int p = 0;
+        for(int i=0; i<numClasses; i++){
+            for(int j=i+1; j<numClasses; j++){
+                for(int k=start[i]; k<start[i]+count[i]; k++){
+                    if(nonzero[k]){
+                        coef[j-1][row[k]] = alpha[p][k];
+                    }
+                }
+                for(int k=start[j]; k<start[j]+count[j]; k++){
+                    if(nonzero[k]){
+                        coef[i][row[k]] = alpha[p][k];
+                    }
+                }
+                p++;
+            }
+        }
+        return new DenseSVMModel(numFeatures, gamma, sv, coef, rho, label, nSV);
+    }
+
+    /**
+     * Assemble a dense model from the solutions of the one-vs-one
+     * problems kept by DenseSVMClassifier.  The examples of class c
+     * are the rows rows[c] of 'x', numFeatures values each, and class
+     * c gets label[c].  For classes i &lt; j, pairAlpha[i][j] holds
+     * the alphas of the examples of class i followed by those of
+     * class j, whose targets are +1 and -1, and pairRho[i][j] the
+     * bias.  The support vectors are the same, in the same order, as
+     * with fromPairs(int, double, double[], int[], int[], double[][], double[])
+     * on the examples packed class by class, but only they are
+     * copied.
+     */
+    static DenseSVMModel fromPairs(int numFeatures, double gamma, double[] x, int[][] rows, int[] label, double[][][] pairAlpha, double[][] pairRho){
+        int numClasses = rows.length;
+        boolean[][] nonzero = new boolean[numClasses][];
+        for(int c=0; c<numClasses; c++){
+            nonzero[c] = new boolean[rows[c].length];
+        }
+        for(int i=0; i<numClasses; i++){
+            for(int j=i+1; j<numClasses; j++){
+                double[] a = pairAlpha[i][j];
+                int ni = rows[i].length;
+                for(int k=0; k<ni; k++){
+                    nonzero[i][k] |= (a[k] != 0);
+                }
+                for(int k=0; k<rows[j].length; k++){
+                    nonzero[j][k] |= (a[ni+k] != 0);
+                }
+            }
+        }
+        //the row of each example among the support vectors, or -1
+        int[][] sv = new int[numClasses][];
+        int[] nSV = new int[numClasses];
+        int total = 0;
+        for(int c=0; c<numClasses; c++){
+            sv[c] = new int[rows[c].length];
+            Arrays.fill(sv[c], -1);
+            for(int k=0; k<sv[c].length; k++){
+                if(nonzero[c][k]){
+                    sv[c][k] = total++;
+                    nSV[c]++;
+                }
+            }
+        }
+        double[] vectors = new double[total*numFeatures];
+        for(int c=0; c<numClasses; c++){
+            for(int k=0; k<sv[c].length; k++){
+                if(sv[c][k] >= 0){
+                    System.arraycopy(x, rows[c][k]*numFeatures, vectors, sv[c][k]*numFeatures, numFeatures);
+                }
+            }
+        }
+        double[][] coef = new double[Math.max(numClasses-1,0)][total];
+        double[] rho = new double[numClasses*(numClasses-1)/2];
+        int p = 0;
+        for(int i=0; i<numClasses; i++){
+            for(int j=i+1; j<numClasses; j++){
+                double[] a = pairAlpha[i][j];
+                int ni = rows[i].length;
+                for(int k=0; k<ni; k++){
+                    if(a[k] != 0){
+                        coef[j-1][sv[i][k]] = a[k];
+                    }
+                }
+                for(int k=0; k<rows[j].length; k++){
+                    if(a[ni+k] != 0){
+                        coef[i][sv[j][k]] = -a[ni+k];
+                    }
+                }
+                rho[p++] = pairRho[i][j];
+            }
+        }
+        return new DenseSVMModel(numFeatures, gamma, vectors, coef, rho, label, nSV);
+    }
+
+    /**
+     * Scale each example to [0,1] with the given minimum and maximum
+     * of each feature before predicting.  Pass null to turn scaling
+     * off.
+     */
+    public void setScaling(double[] min, double[] max){
+        setScaler((min == null) ? null : FeatureScaler.fromRange(min, max));
+    }
+
+    /**
+     * Scale each example with the given scaler before predicting, or
+     * not at all if it is null.  The coefficients of the scaler are
+     * copied, so adding examples to it afterwards has no effect on
+     * the model.
+     */
+    public void setScaler(FeatureScaler scaler){
+        if(scaler == null){
+            _scale = null;
+            _offset = null;
+        }
+        else{
+            _scale = scaler.getScale().clone();
+            _offset = scaler.getOffset().clone();
+        }
+    }
+
+    /**
+     * Set how the label is decided from the one-vs-one decision
+     * functions: VOTING (the default), which is what svm_predict does,
+     * or DAG.
+     */
+    public void setDecisionMode(int mode){
+        if((mode != VOTING) && (mode != DAG)){
+            throw new IllegalArgumentException("DenseSVMModel: unknown decision mode "+mode);
+        }
+        _decisionMode = mode;
+    }
+
+    /**
+     * Return VOTING or DAG.
+     */
+    public int getDecisionMode(){
+        return _decisionMode;
+    }
+
+    /**
+     * Return the number of features of an example.
+     */
+    public int getFeatureCount(){
+        return _numFeatures;
+    }
+
+    /**
+     * Return the number of support vectors.
+     */
+    public int getSupportVectorCount(){
+        return _numSV;
+    }
+
+    /**
+     * Return the number of classes.
+     */
+    public int getClassCount(){
+        return _numClasses;
+    }
+
+    /**
+     * Return the label predicted for the given example, which must
+     * hold getFeatureCount() values.
+     */
+    public int predict(double[] x){
+        Scratch scratch = (Scratch)_scratch.get();
+        double[] q = scale(x, scratch);
+        double[] kvalue = scratch.kvalue;
+        if(_decisionMode == DAG){
+            return dag(q, kvalue, scratch.done, null, _numClasses);
+        }
+        computeKernels(q, 0, _numSV, kvalue);
+        return vote(kvalue, 0, scratch.vote);
+    }
+
+    /**
+     * Return the label predicted for the given example among the
+     * classes classes[0] to classes[count-1], given by their indices
+     * (0 to getClassCount()-1) in increasing order.  Only the kernel
+     * values of the support vectors of these classes and the
+     * decision functions of their pairs are evaluated, by voting or
+     * by the decision DAG according to the decision mode.
+     */
+    public int predict(double[] x, int[] classes, int count){
+        if(count <= 0){
+            throw new IllegalArgumentException("DenseSVMModel: no classes to predict among");
+        }
+        Scratch scratch = (Scratch)_scratch.get();
+        double[] q = scale(x, scratch);
+        double[] kvalue = scratch.kvalue;
+        if(_decisionMode == DAG){
+            return dag(q, kvalue, scratch.done, classes, count);
+        }
+        int[] vote = scratch.vote;
+        for(int a=0; a<count; a++){
+            int c = classes[a];
+            computeKernels(q, _start[c], _start[c]+_nSV[c], kvalue);
+            vote[a] = 0;
+        }
+        for(int a=0; a<count; a++){
+            for(int b=a+1; b<count; b++){
+                int i = classes[a];
+                int j = classes[b];
+                if(decision(kvalue, 0, i, j, pairIndex(i, j)) > 0){
+                    vote[a]++;
+                }
+                else{
+                    vote[b]++;
+                }
+            }
+        }
+        int best = 0;
+        for(int a=1; a<count; a++){
+            if(vote[a] > vote[best]){
+                best = a;
+            }
+        }
+        return _label[classes[best]];
+    }
+
+    /**
+     * Return x scaled into the query buffer of the scratch, or x
+     * itself if the model does not scale.
+     */
+    private double[] scale(double[] x, Scratch scratch){
+        if(_scale == null){
+            return x;
+        }
+        double[] q = scratch.query;
+        for(int i=0; i<_numFeatures; i++){
+            q[i] = x[i]*_scale[i]+_offset[i];
+        }
+        return q;
+    }
+
+    /**
+     * Compute the kernel values between q and the support vectors
+     * from..to-1 into the same positions of kvalue.
+     */
+    private void computeKernels(double[] q, int from, int to, double[] kvalue){
+        int n = _numFeatures;
+        double[] sv = _sv;
+        for(int j=from; j<to; j++){
+            int base = j*n;
+            double sum = 0;
+            for(int i=0; i<n; i++){
+                double d = q[i]-sv[base+i];
+                sum += d*d;
+            }
+            kvalue[j] = Math.exp(-_gamma*sum);
+        }
+    }
+
+    /**
+     * Predict the label of each row of x, which must hold
+     * getFeatureCount() values, into labels[0] to
+     * labels[x.length-1].  The labels are the same as those predict()
+     * returns one row at a time, but the rows are processed four at
+     * a time, so each support vector is loaded once for all four and
+     * the four kernel sums are independent.
+     */
+    public void predict(double[][] x, int[] labels){
+        if(_decisionMode == DAG){
+            //the kernel values depend on the path of each row
+            for(int r=0; r<x.length; r++){
+                labels[r] = predict(x[r]);
+            }
+            return;
+        }
+        Scratch scratch = (Scratch)_scratch.get();
+        int n = _numFeatures;
+        double[] q = scratch.block;
+        double[] kvalue = scratch.kblock;
+        double[] sv = _sv;
+        int numSV = _numSV;
+        int r = 0;
+        for(; r+4<=x.length; r+=4){
+            for(int t=0; t<4; t++){
+                double[] row = x[r+t];
+                int base = t*n;
+                if(_scale != null){
+                    for(int i=0; i<n; i++){
+                        q[base+i] = row[i]*_scale[i]+_offset[i];
+                    }
+                }
+                else{
+                    System.arraycopy(row, 0, q, base, n);
+                }
+            }
+            int q1 = n;
+            int q2 = 2*n;
+            int q3 = 3*n;
+            for(int j=0; j<numSV; j++){
+                int base = j*n;
+                double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                for(int i=0; i<n; i++){
+                    double v = sv[base+i];
+                    double d0 = q[i]-v;
+                    double d1 = q[q1+i]-v;
+                    double d2 = q[q2+i]-v;
+                    double d3 = q[q3+i]-v;
+                    s0 += d0*d0;
+                    s1 += d1*d1;
+                    s2 += d2*d2;
+                    s3 += d3*d3;
+                }
+                kvalue[j] = Math.exp(-_gamma*s0);
+                kvalue[numSV+j] = Math.exp(-_gamma*s1);
+                kvalue[2*numSV+j] = Math.exp(-_gamma*s2);
+                kvalue[3*numSV+j] = Math.exp(-_gamma*s3);
+            }
+            for(int t=0; t<4; t++){
+                labels[r+t] = vote(kvalue, t*numSV, scratch.vote);
+            }
+        }
+        for(; r<x.length; r++){
+            labels[r] = predict(x[r]);
+        }
+    }
+
+    /**
+     * Evaluate the one-vs-one decision functions with the kernel
+     * values kvalue[offset] to kvalue[offset+getSupportVectorCount()-1],
+     * and return the label with the most votes.
+     */
+    private int vote(double[] kvalue, int offset, int[] vote){
+        for(int i=0; i<_numClasses; i++){
+            vote[i] = 0;
+        }
+        int p = 0;
+        for(int i=0; i<_numClasses; i++){
+            for(int j=i+1; j<_numClasses; j++){
+                if(decision(kvalue, offset, i, j, p++) > 0){
+                    vote[i]++;
+                }
+                else{
+                    vote[j]++;
+                }
+            }
+        }
+        int best = 0;
+        for(int i=1; i<_numClasses; i++){
+            if(vote[i] > vote[best]){
+                best = i;
+            }
+        }
+        return _label[best];
+    }
+
+    /**
+     * Return the label reached by the decision DAG for the scaled
+     * example q among classes[0] to classes[count-1], or among all
+     * the classes if 'classes' is null.  The pair of the first and
+     * last candidates left is evaluated and its loser dropped until
+     * one is left.  The kernel values of a class are computed into
+     * kvalue the first time it is in a pair, as recorded in 'done'.
+     */
+    private int dag(double[] q, double[] kvalue, boolean[] done, int[] classes, int count){
+        for(int c=0; c<_numClasses; c++){
+            done[c] = false;
+        }
+        int lo = 0;
+        int hi = count-1;
+        while(lo < hi){
+            int i = (classes == null) ? lo : classes[lo];
+            int j = (classes == null) ? hi : classes[hi];
+            if(!done[i]){
+                computeKernels(q, _start[i], _start[i]+_nSV[i], kvalue);
+                done[i] = true;
+            }
+            if(!done[j]){
+                computeKernels(q, _start[j], _start[j]+_nSV[j], kvalue);
+                done[j] = true;
+            }
+            if(decision(kvalue, 0, i, j, pairIndex(i, j)) > 0){
+                hi--;
+            }
+            else{
+                lo++;
+            }
+        }
+        return _label[(classes == null) ? lo : classes[lo]];
+    }
+
+    /**
+     * Return the index of the pair of classes i &lt; j in the order
+     * (0,1), (0,2)...(1,2)... of the decision functions.
+     */
+    private int pairIndex(int i, int j){
+        return i*(2*_numClasses-i-1)/2+(j-i-1);
+    }
+
+    /**
+     * Return the value of the decision function of classes i &lt; j,
+     * the p-th pair, with the kernel values from kvalue[offset]; it is
+     * positive for class i.  The terms are summed in the order of
+     * svm_predict.
+     */
+    private double decision(double[] kvalue, int offset, int i, int j, int p){
+        double sum = 0;
+        int si = _start[i];
+        int sj = _start[j];
+        double[] coef1 = _coef[j-1];
+        double[] coef2 = _coef[i];
+        for(int k=0; k<_nSV[i]; k++){
+            sum += coef1[si+k]*kvalue[offset+si+k];
+        }
+        for(int k=0; k<_nSV[j]; k++){
+            sum += coef2[sj+k]*kvalue[offset+sj+k];
+        }
+        return sum-_rho[p];
+    }
+
+    /**
+     * Per-thread prediction buffers.
+     */
+    private static class Scratch {
+        double[] query;
+        double[] kvalue;
+        int[] vote;
+        /** The classes whose kernel values are computed, in DAG mode. */
+        boolean[] done;
+        /** Four scaled examples and their kernel values, for
+         * predict(double[][], int[]). */
+        double[] block;
+        double[] kblock;
+
+        Scratch(int numFeatures, int numSV, int numClasses){
+            query = new double[numFeatures];
+            kvalue = new double[numSV];
+            vote = new int[numClasses];
+            done = new boolean[numClasses];
+            block = new double[4*numFeatures];
+            kblock = new double[4*numSV];
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A columnar alternative to TrainingSet.  The feature values of all
+ * the examples are stored row by row in one double array, with a
+ * column holding the type of each example, as an index into a
+ * dictionary of types, and a column telling whether it is a positive
+ * or a negative example. <p>
+ *
+ * Examples are appended with addExample, and are never removed or
+ * modified.  getRows returns the rows of the positive or negative
+ * examples of a type, which index the array returned by getData()
+ * without copying the values.  A TrainableClassifier can be trained
+ * directly from a matrix, which avoids allocating one FeatureSet and
+ * one array for each example.
+ */
+public final class FeatureMatrix {
+    /** The number of features of each example. */
+    private int _numFeatures;
+
+    /** The number of examples. */
+    private int _numRows = 0;
+
+    /** The feature values, _numFeatures per row. */
+    private double[] _data;
+
+    /** The type of each row, as an index into _types. */
+    private int[] _label;
+
+    /** Whether each row is a positive example. */
+    private boolean[] _positive;
+
+    /** The types, in the order they were first added. */
+    private ArrayList _types = new ArrayList();
+
+    /** The index of each type in _types. */
+    private HashMap _typeToLabel = new HashMap();
+
+    /**
+     * The rows of each type, positive then negative, built when they
+     * are first asked for and dropped when an example is added.
+     */
+    private int[][][] _rows = null;
+
+    /**
+     * Construct an empty matrix for examples with the given number of
+     * features.
+     */
+    public FeatureMatrix(int numFeatures) {
+        this(numFeatures, 16);
+    }
+
+    /**
+     * Construct an empty matrix with room for the given number of
+     * examples before it needs to grow.
+     */
+    public FeatureMatrix(int numFeatures, int capacity) {
+        if(numFeatures < 0){
+            throw new IllegalArgumentException("FeatureMatrix: numFeatures="+numFeatures+", must not be negative");
+        }
+        _numFeatures = numFeatures;
+        capacity = Math.max(capacity, 1);
+        _data = new double[capacity*numFeatures];
+        _label = new int[capacity];
+        _positive = new boolean[capacity];
+    }
+
+    /**
+     * Construct a matrix with the examples of the given training set,
+     * which must all have numFeatures features.  The examples are
+     * copied type by type, in the order of tset.types(), positive
+     * examples first.
+     */
+    public FeatureMatrix(TrainingSet tset, int numFeatures) throws ClassifierException {
+        this(numFeatures, countExamples(tset));
+        for(Iterator types = tset.types(); types.hasNext();){
+            String type = (String)types.next();
+            for(Iterator iter = tset.positiveExamples(type); iter.hasNext();){
+                addExample(type, ((FeatureSet)iter.next()).getFeatures(), true);
+            }
+            for(Iterator iter = tset.negativeExamples(type); iter.hasNext();){
+                addExample(type, ((FeatureSet)iter.next()).getFeatures(), false);
+            }
+        }
+    }
+
+    /**
+     * Construct a copy of the given matrix, with the same capacity,
+     * to which examples can be added without affecting the original.
+     */
+    public FeatureMatrix(FeatureMatrix m) {
+        _numFeatures = m._numFeatures;
+        _numRows = m._numRows;
+        _data = m._data.clone();
+        _label = m._label.clone();
+        _positive = m._positive.clone();
+        _types = new ArrayList(m._types);
+        _typeToLabel = new HashMap(m._typeToLabel);
+    }
+
+    /**
+     * Return the number of positive and negative examples in the
+     * training set.
+     */
+    private static int countExamples(TrainingSet tset){
+        int num = 0;
+        for(Iterator types = tset.types(); types.hasNext();){
+            String type = (String)types.next();
+            num += tset.positiveExampleCount(type)+tset.negativeExampleCount(type);
+        }
+        return num;
+    }
+
+    /**
+     * Add a positive example of the given type.
+     */
+    public void addPositiveExample(String type, FeatureSet s) throws ClassifierException {
+        addExample(type, s.getFeatures(), true);
+    }
+
+    /**
+     * Add a negative example of the given type.
+     */
+    public void addNegativeExample(String type, FeatureSet s) throws ClassifierException {
+        addExample(type, s.getFeatures(), false);
+    }
+
+    /**
+     * Add an example of the given type with the given feature values,
+     * which are copied.  Throw a ClassifierException if it does not
+     * have getFeatureCount() values.
+     */
+    public void addExample(String type, double[] vals, boolean positive) throws ClassifierException {
+        if(vals.length != _numFeatures){
+            throw new ClassifierException("Example of type "+type+" has "+vals.length+" features, expected "+_numFeatures);
+        }
+        Integer label = (Integer)_typeToLabel.get(type);
+        if(label == null){
+            label = Integer.valueOf(_types.size());
+            _typeToLabel.put(type, label);
+            _types.add(type);
+        }
+        if(_numRows == _label.length){
+            ensureCapacity(2*_label.length);
+        }
+        System.arraycopy(vals, 0, _data, _numRows*_numFeatures, _numFeatures);
+        _label[_numRows] = label.intValue();
+        _positive[_numRows] = positive;
+        _numRows++;
+        _rows = null;
+    }
+
+    /**
+     * Make room for the given number of examples in all, so that
+     * adding them does not grow the arrays again.
+     */
+    public void ensureCapacity(int capacity) {
+        if(capacity <= _label.length){
+            return;
+        }
+        double[] data = new double[capacity*_numFeatures];
+        System.arraycopy(_data, 0, data, 0, _numRows*_numFeatures);
+        _data = data;
+        int[] l = new int[capacity];
+        System.arraycopy(_label, 0, l, 0, _numRows);
+        _label = l;
+        boolean[] p = new boolean[capacity];
+        System.arraycopy(_positive, 0, p, 0, _numRows);
+        _positive = p;
+    }
+
+    /**
+     * Return the number of features of each example.
+     */
+    public int getFeatureCount() {
+        return _numFeatures;
+    }
+
+    /**
+     * Return the number of examples.
+     */
+    public int getRowCount() {
+        return _numRows;
+    }
+
+    /**
+     * Return the feature values of the examples, row by row: feature j
+     * of row r is at r*getFeatureCount()+j.  The array is not copied,
+     * may be longer than needed, and is replaced by a larger one when
+     * the matrix grows.
+     */
+    public double[] getData() {
+        return _data;
+    }
+
+    /**
+     * Return feature j of row r.
+     */
+    public double get(int r, int j) {
+        return _data[r*_numFeatures+j];
+    }
+
+    /**
+     * Copy the feature values of row r into 'out'.
+     */
+    public void getRow(int r, double[] out) {
+        System.arraycopy(_data, r*_numFeatures, out, 0, _numFeatures);
+    }
+
+    /**
+     * Return the type index of row r.
+     */
+    public int getLabel(int r) {
+        return _label[r];
+    }
+
+    /**
+     * Return whether row r is a positive example.
+     */
+    public boolean isPositive(int r) {
+        return _positive[r];
+    }
+
+    /**
+     * Return the number of types.
+     */
+    public int getTypeCount() {
+        return _types.size();
+    }
+
+    /**
+     * Return the type with the given index.
+     */
+    public String getType(int label) {
+        return (String)_types.get(label);
+    }
+
+    /**
+     * Return the index of the given type, or -1 if it has no
+     * examples.
+     */
+    public int getLabel(String type) {
+        Integer label = (Integer)_typeToLabel.get(type);
+        return (label == null) ? -1 : label.intValue();
+    }
+
+    /**
+     * Return the rows of the positive or negative examples of the
+     * given type, in the order they were added.  The array must not
+     * be modified.
+     */
+    public int[] getRows(String type, boolean positive) {
+        int label = getLabel(type);
+        return (label < 0) ? new int[0] : getRows(label, positive);
+    }
+
+    /**
+     * Same as getRows(String, boolean), with the type given by its
+     * index.
+     */
+    public int[] getRows(int label, boolean positive) {
+        if(_rows == null){
+            int numTypes = _types.size();
+            int[][] count = new int[numTypes][2];
+            for(int r=0; r<_numRows; r++){
+                count[_label[r]][_positive[r] ? 0 : 1]++;
+            }
+            int[][][] rows = new int[numTypes][2][];
+            for(int t=0; t<numTypes; t++){
+                rows[t][0] = new int[count[t][0]];
+                rows[t][1] = new int[count[t][1]];
+                count[t][0] = 0;
+                count[t][1] = 0;
+            }
+            for(int r=0; r<_numRows; r++){
+                int which = _positive[r] ? 0 : 1;
+                rows[_label[r]][which][count[_label[r]][which]++] = r;
+            }
+            _rows = rows;
+        }
+        return _rows[label][positive ? 0 : 1];
+    }
+
+    /**
+     * Return the number of positive examples of the given type.
+     */
+    public int positiveExampleCount(String type) {
+        return getRows(type, true).length;
+    }
+
+    /**
+     * Return the number of negative examples of the given type.
+     */
+    public int negativeExampleCount(String type) {
+        return getRows(type, false).length;
+    }
+
+    public String toString(){
+        StringBuffer buf = new StringBuffer();
+        for(int t=0; t<getTypeCount(); t++){
+            buf.append(getRows(t, true).length + "\t" + getType(t) + "s\n");
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import java.io.*;
+import java.util.Iterator;
+
+/**
+ * Scales each feature linearly, either to the range [0,1] of the
+ * examples it was fitted on (MIN_MAX), or to zero mean and unit
+ * standard deviation (STANDARD). <p>
+ *
+ * The scaler is fitted in a single streaming pass: add() updates the
+ * minimum, maximum, and the running mean and sum of squared deviations
+ * (Welford) of each feature in O(d), so it can also be kept up to date
+ * as examples arrive.  Each feature i is then transformed as
+ * x*scale[i]+offset[i], with the coefficients recomputed by add(), so
+ * a transform is one multiply-add per feature and allocates nothing.
+ * The values can be transformed in place or into a buffer of the
+ * caller.  A feature with no range (or no deviation) is only shifted,
+ * with a scale of 1, instead of being divided by zero.
+ */
+public class FeatureScaler {
+    /** Scale to the range [0,1] of the fitted examples. */
+    public static final int MIN_MAX = 0;
+
+    /** Scale to zero mean and unit standard deviation. */
+    public static final int STANDARD = 1;
+
+    /** MIN_MAX or STANDARD. */
+    private int _mode;
+
+    /** The number of features. */
+    private int _numFeatures;
+
+    /** The number of examples fitted. */
+    private int _count = 0;
+
+    /** The minimum and maximum of each feature. */
+    private double[] _min, _max;
+
+    /** The mean and the sum of squared deviations of each feature. */
+    private double[] _mean, _m2;
+
+    /** The coefficients of the transform x*_scale[i]+_offset[i]. */
+    private double[] _scale, _offset;
+
+    /**
+     * Create a scaler of the given mode (MIN_MAX or STANDARD) for
+     * examples with the given number of features.  It is the identity
+     * until examples are added.
+     */
+    public FeatureScaler(int mode, int numFeatures){
+        if((mode != MIN_MAX) && (mode != STANDARD)){
+            throw new IllegalArgumentException("FeatureScaler: unknown mode "+mode);
+        }
+        _mode = mode;
+        _numFeatures = numFeatures;
+        _min = new double[numFeatures];
+        _max = new double[numFeatures];
+        _mean = new double[numFeatures];
+        _m2 = new double[numFeatures];
+        _scale = new double[numFeatures];
+        _offset = new double[numFeatures];
+        clear();
+    }
+
+    /**
+     * Return a MIN_MAX scaler for the given minimum and maximum of
+     * each feature, as if it had been fitted on examples with that
+     * range.
+     */
+    public static FeatureScaler fromRange(double[] min, double[] max){
+        FeatureScaler s = new FeatureScaler(MIN_MAX, min.length);
+        s._count = 1;
+        for(int i=0; i<min.length; i++){
+            s._min[i] = min[i];
+            s._max[i] = max[i];
+            s.update(i);
+        }
+        return s;
+    }
+
+    /**
+     * Return a STANDARD scaler for the given mean and standard
+     * deviation of each feature.  Since the number of examples is
+     * not known, it must not be given more examples.
+     */
+    public static FeatureScaler fromMoments(double[] means, double[] stds){
+        FeatureScaler s = new FeatureScaler(STANDARD, means.length);
+        s._count = 1;
+        for(int i=0; i<means.length; i++){
+            s._mean[i] = means[i];
+            s._m2[i] = stds[i]*stds[i];
+            s.update(i);
+        }
+        return s;
+    }
+
+    /**
+     * Return the factor a feature with the given range or standard
+     * deviation is scaled by: its reciprocal, or 1 if it is 0.
+     */
+    public static double scaleFor(double spread){
+        return (spread > 0) ? 1/spread : 1;
+    }
+
+    /**
+     * Forget the examples fitted so far; the scaler is the identity
+     * again.
+     */
+    public void clear(){
+        _count = 0;
+        for(int i=0; i<_numFeatures; i++){
+            _min[i] = Double.POSITIVE_INFINITY;
+            _max[i] = Double.NEGATIVE_INFINITY;
+            _mean[i] = 0;
+            _m2[i] = 0;
+            _scale[i] = 1;
+            _offset[i] = 0;
+        }
+    }
+
+    /**
+     * Fit the scaler to the positive and negative examples of the
+     * training set, forgetting any previous ones.
+     */
+    public void fit(TrainingSet tset){
+        clear();
+        for(Iterator types = tset.types(); types.hasNext();){
+            String type = (String)types.next();
+            for(Iterator iter = tset.positiveExamples(type); iter.hasNext();){
+                add(((FeatureSet)iter.next()).getFeatures());
+            }
+            for(Iterator iter = tset.negativeExamples(type); iter.hasNext();){
+                add(((FeatureSet)iter.next()).getFeatures());
+            }
+        }
+    }
+
+    /**
+     * Fit the scaler to all the examples of the matrix, forgetting
+     * any previous ones.
+     */
+    public void fit(FeatureMatrix m){
+        clear();
+        double[] data = m.getData();
+        for(int r=0; r<m.getRowCount(); r++){
+            add(data, r*_numFeatures);
+        }
+    }
+
+    /**
+     * Add an example with the given feature values to those the
+     * scaler is fitted on.
+     */
+    public void add(double[] vals){
+        add(vals, 0);
+    }
+
+    /**
+     * Add the example whose feature values start at vals[offset].
+     */
+    public void add(double[] vals, int offset){
+        _count++;
+        for(int i=0; i<_numFeatures; i++){
+            double v = vals[offset+i];
+            if(v < _min[i]){
+                _min[i] = v;
+            }
+            if(v > _max[i]){
+                _max[i] = v;
+            }
+            double delta = v-_mean[i];
+            _mean[i] += delta/_count;
+            _m2[i] += delta*(v-_mean[i]);
+            update(i);
+        }
+    }
+
+    /**
+     * Recompute the coefficients of feature i.
+     */
+    private void update(int i){
+        double s;
+        double base;
+        if(_mode == MIN_MAX){
+            s = scaleFor(_max[i]-_min[i]);
+            base = _min[i];
+        }
+        else{
+            s = scaleFor(Math.sqrt(_m2[i]/_count));
+            base = _mean[i];
+        }
+        _scale[i] = s;
+        _offset[i] = -base*s;
+    }
+
+    /**
+     * Return the scaled value v of feature i.
+     */
+    public final double transform(int i, double v){
+        return v*_scale[i]+_offset[i];
+    }
+
+    /**
+     * Write the scaled values of 'in' into 'out', which may be the
+     * same array.
+     */
+    public void transform(double[] in, double[] out){
+        transform(in, 0, out, 0);
+    }
+
+    /**
+     * Write the scaled values of the example starting at in[inOffset]
+     * into out[outOffset] onwards.  The arrays may be the same.
+     */
+    public void transform(double[] in, int inOffset, double[] out, int outOffset){
+        double[] scale = _scale;
+        double[] offset = _offset;
+        for(int i=0; i<_numFeatures; i++){
+            out[outOffset+i] = in[inOffset+i]*scale[i]+offset[i];
+        }
+    }
+
+    /**
+     * Scale in place 'count' examples stored one after the other in
+     * 'data' from 'offset' on.
+     */
+    public void transformRows(double[] data, int offset, int count){
+        for(int r=0; r<count; r++){
+            transform(data, offset+r*_numFeatures, data, offset+r*_numFeatures);
+        }
+    }
+
+    /**
+     * Write the mode and the fitted statistics of the scaler to the
+     * stream.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(_mode);
+        out.writeInt(_numFeatures);
+        out.writeInt(_count);
+        for(int i=0; i<_numFeatures; i++){
+            out.writeDouble(_min[i]);
+            out.writeDouble(_max[i]);
+            out.writeDouble(_mean[i]);
+            out.writeDouble(_m2[i]);
+        }
+    }
+
+    /**
+     * Read a scaler written by writeTo.
+     */
+    public static FeatureScaler readFrom(DataInput in) throws IOException {
+        int mode = in.readInt();
+        int numFeatures = in.readInt();
+        if(((mode != MIN_MAX) && (mode != STANDARD)) || (numFeatures < 0)){
+            throw new IOException("FeatureScaler: bad mode "+mode+" or feature count "+numFeatures);
+        }
+        FeatureScaler s = new FeatureScaler(mode, numFeatures);
+        s._count = in.readInt();
+        for(int i=0; i<numFeatures; i++){
+            s._min[i] = in.readDouble();
+            s._max[i] = in.readDouble();
+            s._mean[i] = in.readDouble();
+            s._m2[i] = in.readDouble();
+            if(s._count > 0){
+                s.update(i);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Return MIN_MAX or STANDARD.
+     */
+    public int getMode(){
+        return _mode;
+    }
+
+    /**
+     * Return the number of features.
+     */
+    public int getFeatureCount(){
+        return _numFeatures;
+    }
+
+    /**
+     * Return the number of examples fitted.
+     */
+    public int getCount(){
+        return _count;
+    }
+
+    /**
+     * Return the minimum of each feature.  The array is updated in
+     * place.
+     */
+    public double[] getMin(){
+        return _min;
+    }
+
+    /**
+     * Return the maximum of each feature.  The array is updated in
+     * place.
+     */
+    public double[] getMax(){
+        return _max;
+    }
+
+    /**
+     * Return the mean of each feature.  The array is updated in
+     * place.
+     */
+    public double[] getMeans(){
+        return _mean;
+    }
+
+    /**
+     * Return the standard deviation of each feature.
+     */
+    public double[] getStds(){
+        double[] stds = new double[_numFeatures];
+        for(int i=0; i<_numFeatures; i++){
+            stds[i] = (_count > 0) ? Math.sqrt(_m2[i]/_count) : 0;
+        }
+        return stds;
+    }
+
+    /**
+     * Return the factor of each feature in the transform.  The array
+     * is updated in place.
+     */
+    public double[] getScale(){
+        return _scale;
+    }
+
+    /**
+     * Return the term added to each feature in the transform.  The
+     * array is updated in place.
+     */
+    public double[] getOffset(){
+        return _offset;
+    }
+}
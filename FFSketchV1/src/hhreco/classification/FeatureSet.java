@@ -50,6 +50,16 @@ public class FeatureSet {
         _features[i] = val;
     }
 
+    /** Return the feature vectors of the given feature sets, which
+     * are not copied, as the rows of a matrix. */
+    public static double[][] toMatrix(FeatureSet[] sets) {
+        double[][] matrix = new double[sets.length][];
+        for(int i=0; i<sets.length; i++){
+            matrix[i] = sets[i].getFeatures();
+        }
+        return matrix;
+    }
+
     /** Text representation of the feature vector. */
     public String toString(){
         StringBuffer buf = new StringBuffer();
@@ -5,77 +5,377 @@
  * All rights reserved. See the file COPYRIGHT for details.
  */
 package hhreco.classification;
+import hhreco.util.Kernels;
 import java.util.ArrayList;
 import java.util.Iterator;
 
 /**
  * This K-nearest neighbor classifier compares a test example with every
  * example in the training set by computing the normalized Euclidean distance.
+ * <p>
+ *
+ * By default the distance to every training example is returned.  With
+ * k &gt; 0 (see setK), only the k nearest examples are returned, nearest
+ * first, and they are found with a VPTree over the normalized examples
+ * of each category instead of a linear scan.  The search is exact: the
+ * trees are searched one after another with a shared bounded heap, so
+ * the k-th distance found so far prunes the later trees as well.
+ * <p>
+ *
+ * With setCompactStorage(true), the normalized examples of each
+ * category are stored as floats in one contiguous block instead of one
+ * double[] per example, which takes less than half the memory.  The
+ * query is normalized once per category into a per-thread buffer, and
+ * the distances to a whole category are computed in one pass over its
+ * block with Kernels.squaredDistances; the k nearest are then kept in a
+ * bounded heap without a tree.  Distances computed from the float
+ * values may differ from the double ones in the last bits.
+ * <p>
+ *
+ * The classifier is incremental.  The means and standard deviations of
+ * each category are kept in a DataRep that later calls to train update
+ * one example at a time.  Since the means cancel out in the distance
+ * between two examples normalized the same way, only the standard
+ * deviations matter: the stored examples stay normalized with the
+ * deviations they had when the category was last rebuilt, and the
+ * distances are weighted per feature by the square of the old over the
+ * new deviation.  New examples are appended, and are scanned linearly
+ * until there are enough of them, or the weights have moved far enough
+ * from 1, to rebuild the tree of the category.  Rebuilding maps the
+ * stored values to the current means and deviations, feature by
+ * feature, so the training examples themselves are not kept.  With
+ * compact storage there is no tree, and the float block, the only
+ * copy of the examples, is never rewritten: each value is rounded to
+ * a float once, with the normalization the category was created
+ * with, and the weights alone follow the deviations, so the error does
+ * not grow with the number of examples added.
  *
  * @author Heloise Hse (hwawen@eecs.berkeley.edu)
  */
 public class KNNClassifier implements TrainableClassifier {
     private ArrayList _categories = new ArrayList();
     private int _numFeatures = 0;
+    private int _k = 0;
+    private boolean _compact = false;
+
+    /**
+     * Per-thread buffers for the normalized query and the distances to
+     * a category, used in compact storage mode.
+     */
+    private ThreadLocal _scratch = new ThreadLocal() {
+            protected Object initialValue() {
+                return new Scratch();
+            }
+        };
+
+    /**
+     * The number of the first training example of each category, with
+     * the examples numbered category after category, followed by the
+     * total number of examples.
+     */
+    private int[] _offsets = new int[] {0};
+
+    /**
+     * Create a classifier that returns the distance to every training
+     * example.
+     */
+    public KNNClassifier(){
+    }
+
+    /**
+     * Create a classifier that returns the k nearest training
+     * examples, or all of them if k is 0.
+     */
+    public KNNClassifier(int k){
+        setK(k);
+    }
+
+    /**
+     * Set the number of nearest training examples that classify
+     * returns, or 0 to return all of them.
+     */
+    public void setK(int k){
+        if(k < 0){
+            throw new IllegalArgumentException("KNNClassifier: k="+k+", must not be negative");
+        }
+        _k = k;
+    }
+
+    /**
+     * Return the number of nearest training examples that classify
+     * returns, or 0 if it returns all of them.
+     */
+    public int getK(){
+        return _k;
+    }
+
+    /**
+     * Set whether the examples are stored as floats in one block per
+     * category (see above).  This takes effect the next time the
+     * classifier is trained from scratch, after clear().
+     */
+    public void setCompactStorage(boolean val){
+        _compact = val;
+    }
+
+    /**
+     * Return whether the examples are stored as floats in one block
+     * per category.
+     */
+    public boolean isCompactStorage(){
+        return _compact;
+    }
 
     /**
      * Classify the given example by testing it against each example
      * in the training set.
      */
     public Classification classify(FeatureSet s) throws ClassifierException {
-        if(s.getFeatureCount() != _numFeatures){
-            throw new ClassifierException("Incorrect number of features: "+s.getFeatureCount()+", should be "+ _numFeatures);
+        double[][] matrix = {s.getFeatures()};
+        return classify(matrix)[0];
+    }
+
+    /**
+     * Classify the given examples.
+     */
+    public Classification[] classify(FeatureSet[] examples) throws ClassifierException {
+        return classify(FeatureSet.toMatrix(examples));
+    }
+
+    /**
+     * Classify the examples in the rows of the matrix.  The examples
+     * are tested against one category after another, so the examples
+     * (or block, or tree) of a category are gone through for all of
+     * them in turn, and the classifications share their array of
+     * types when all the distances are returned.
+     */
+    public Classification[] classify(double[][] matrix) throws ClassifierException {
+        for(int r=0; r<matrix.length; r++){
+            if(matrix[r].length != _numFeatures){
+                throw new ClassifierException("Incorrect number of features: "+matrix[r].length+", should be "+ _numFeatures);
+            }
+        }
+        if((_categories.size() > 0) && ((Category)_categories.get(0)).isCompact()){
+            return classifyCompact(matrix);
+        }
+        if(_k > 0){
+            return classifyNearest(matrix);
         }
-        ArrayList pairs = new ArrayList();
+        Scratch scratch = (Scratch)_scratch.get();
+        double[] normVals = scratch.getQuery(_numFeatures);
+        double[][] values = new double[matrix.length][_offsets[_categories.size()]];
+        int offset = 0;
         for(Iterator iter = _categories.iterator(); iter.hasNext();){
             Category cat = (Category)iter.next();
-            double[] normVals = cat.normalize(s.getFeatures());
-            for(int i=0; i<cat.getExampleCount(); i++){
-                double[] refVals = cat.getExample(i);
-                double dist = distance(normVals, refVals);
-                pairs.add(new Pair(cat.getType(),dist));
+            for(int r=0; r<matrix.length; r++){
+                cat.normalize(matrix[r], normVals);
+                double[] row = values[r];
+                for(int i=0; i<cat.getExampleCount(); i++){
+                    row[offset+i] = cat.distance(normVals, i);
+                }
             }
+            offset += cat.getExampleCount();
         }
-        String[] types = new String[pairs.size()];
-        double[] values = new double[pairs.size()];
-        int i=0;
-        for(Iterator iter=pairs.iterator(); iter.hasNext();){
-            Pair p = (Pair)iter.next();
-            types[i]=p.type;
-            values[i]=p.value;
-            i++;
+        return toClassifications(values);
+    }
+
+    /**
+     * Return the classifications with the given distances to all the
+     * training examples, sharing one array of types.
+     */
+    private Classification[] toClassifications(double[][] values){
+        String[] types = new String[_offsets[_categories.size()]];
+        for(int c=0; c<_categories.size(); c++){
+            String type = ((Category)_categories.get(c)).getType();
+            for(int i=_offsets[c]; i<_offsets[c+1]; i++){
+                types[i] = type;
+            }
+        }
+        Classification[] result = new Classification[values.length];
+        for(int r=0; r<values.length; r++){
+            result[r] = new Classification(types, values[r]);
         }
-        return new Classification(types, values);
+        return result;
     }
 
     /**
-     * A simple data structure to temporarily store classification
-     * results.
+     * Return the classifications with the neighbors in the given
+     * heaps, nearest first, taking the square roots of the distances
+     * if 'squared' is true.  The heaps are emptied.
      */
-    private static class Pair {
-        String type;
-        double value;
+    private Classification[] toClassifications(VPTree.Neighbors[] heaps, boolean squared){
+        Classification[] result = new Classification[heaps.length];
+        for(int r=0; r<heaps.length; r++){
+            int num = heaps[r].size();
+            double[] values = new double[num];
+            int[] ids = new int[num];
+            heaps[r].drain(values, ids);
+            String[] types = new String[num];
+            for(int i=0; i<num; i++){
+                if(squared){
+                    values[i] = Math.sqrt(values[i]);
+                }
+                types[i] = getOwner(ids[i]).getType();
+            }
+            result[r] = new Classification(types, values);
+        }
+        return result;
+    }
 
-        public Pair(String t, double v){
-            type=t;
-            value=v;
+    /**
+     * Return the k nearest training examples of each example, found
+     * with the VP-tree of each category.
+     */
+    private Classification[] classifyNearest(double[][] matrix){
+        Scratch scratch = (Scratch)_scratch.get();
+        double[] normVals = scratch.getQuery(_numFeatures);
+        VPTree.Neighbors[] heaps = new VPTree.Neighbors[matrix.length];
+        for(int r=0; r<matrix.length; r++){
+            heaps[r] = new VPTree.Neighbors(_k);
         }
+        int offset = 0;
+        for(Iterator iter = _categories.iterator(); iter.hasNext();){
+            Category cat = (Category)iter.next();
+            for(int r=0; r<matrix.length; r++){
+                cat.normalize(matrix[r], normVals);
+                cat.search(normVals, heaps[r], offset);
+            }
+            offset += cat.getExampleCount();
+        }
+        return toClassifications(heaps, false);
     }
-    
+
+    /**
+     * Return the category of the training example with the given
+     * number.
+     */
+    private Category getOwner(int id){
+        int lo = 0;
+        int hi = _categories.size()-1;
+        while(lo < hi){
+            int mid = (lo+hi+1) >>> 1;
+            if(_offsets[mid] <= id){
+                lo = mid;
+            }
+            else{
+                hi = mid-1;
+            }
+        }
+        return (Category)_categories.get(lo);
+    }
+
+    /**
+     * Classify the examples against the float blocks of the
+     * categories, returning either all the distances or the k
+     * nearest.
+     */
+    private Classification[] classifyCompact(double[][] matrix){
+        Scratch scratch = (Scratch)_scratch.get();
+        int n = _numFeatures;
+        double[] query = scratch.getQuery(n);
+        int total = _offsets[_categories.size()];
+        Kernels kernels = Kernels.getInstance();
+        double[][] values = null;
+        VPTree.Neighbors[] heaps = null;
+        double[] dist = null;
+        if(_k > 0){
+            //keep the squared distances, and take the roots of the k
+            //nearest only
+            heaps = new VPTree.Neighbors[matrix.length];
+            for(int r=0; r<matrix.length; r++){
+                heaps[r] = new VPTree.Neighbors(_k);
+            }
+            int largest = 0;
+            for(int c=0; c<_categories.size(); c++){
+                largest = Math.max(largest, _offsets[c+1]-_offsets[c]);
+            }
+            dist = scratch.getDistances(largest);
+        }
+        else{
+            values = new double[matrix.length][total];
+        }
+        int offset = 0;
+        for(Iterator iter = _categories.iterator(); iter.hasNext();){
+            Category cat = (Category)iter.next();
+            int count = cat.getExampleCount();
+            double[] w = cat.getWeights();
+            for(int r=0; r<matrix.length; r++){
+                cat.normalize(matrix[r], query);
+                double[] out = (heaps == null) ? values[r] : dist;
+                int outOffset = (heaps == null) ? offset : 0;
+                if(w == null){
+                    kernels.squaredDistances(cat.getBlock(), 0, count, n, query, out, outOffset);
+                }
+                else{
+                    kernels.weightedSquaredDistances(cat.getBlock(), 0, count, n, query, w, out, outOffset);
+                }
+                if(heaps != null){
+                    for(int i=0; i<count; i++){
+                        heaps[r].offer(dist[i], offset+i);
+                    }
+                }
+            }
+            offset += count;
+        }
+        if(heaps != null){
+            return toClassifications(heaps, true);
+        }
+        for(int r=0; r<matrix.length; r++){
+            double[] row = values[r];
+            for(int i=0; i<total; i++){
+                row[i] = Math.sqrt(row[i]);
+            }
+        }
+        return toClassifications(values);
+    }
+
+    /**
+     * Per-thread buffers, grown as needed.
+     */
+    private static class Scratch {
+        private double[] _query = new double[0];
+        private double[] _dist = new double[0];
+
+        double[] getQuery(int n){
+            if(_query.length < n){
+                _query = new double[n];
+            }
+            return _query;
+        }
+
+        double[] getDistances(int n){
+            if(_dist.length < n){
+                _dist = new double[n];
+            }
+            return _dist;
+        }
+    }
+
     /**
      * Train the classifier with a given training set.  This method
      * will throw a ClassifierException if the training set is not
      * self consisistent, i.e. the feature sets that it contains do
      * not have the same number of features in them.
      *
-     * Any previously training data, if any, will be removed upon the
-     * call of this method.
+     * The examples are added to the data the classifier has already
+     * been trained with; call clear() first to train from scratch.
      */
     public void train(TrainingSet s, int numFeatures) throws ClassifierException {
-        clear();
+        if((_categories.size() > 0) && (numFeatures != _numFeatures)){
+            throw new ClassifierException("Incorrect number of features: "+numFeatures+", should be "+ _numFeatures);
+        }
+        //keep the storage of the existing categories
+        boolean compact = (_categories.size() > 0) ? ((Category)_categories.get(0)).isCompact() : _compact;
         _numFeatures = numFeatures;
         for(Iterator iter = s.types(); iter.hasNext();){
             String type = (String)iter.next();
+            Category cg = getCategory(type);
+            if(cg != null){
+                for(Iterator e = s.positiveExamples(type); e.hasNext();){
+                    cg.add(((FeatureSet)e.next()).getFeatures());
+                }
+                continue;
+            }
             int num = s.positiveExampleCount(type);
             FeatureSet[] examples = new FeatureSet[num];
             int k=0;
@@ -83,9 +383,67 @@ public class KNNClassifier implements TrainableClassifier {
                 examples[k++] = (FeatureSet)e.next();
             }
             DataRep dr = new DataRep(examples, numFeatures);
-            Category cg = new Category(type, dr, examples);
+            cg = new Category(type, dr, FeatureSet.toMatrix(examples), compact);
             _categories.add(cg);
         }
+        updateOffsets();
+    }
+
+    /**
+     * Train the classifier with the positive examples of the given
+     * matrix, as train(TrainingSet, int) does.
+     */
+    public void train(FeatureMatrix m) throws ClassifierException {
+        int numFeatures = m.getFeatureCount();
+        if((_categories.size() > 0) && (numFeatures != _numFeatures)){
+            throw new ClassifierException("Incorrect number of features: "+numFeatures+", should be "+ _numFeatures);
+        }
+        boolean compact = (_categories.size() > 0) ? ((Category)_categories.get(0)).isCompact() : _compact;
+        _numFeatures = numFeatures;
+        for(int t=0; t<m.getTypeCount(); t++){
+            String type = m.getType(t);
+            int[] rows = m.getRows(t, true);
+            Category cg = getCategory(type);
+            if(cg != null){
+                double[] vals = new double[numFeatures];
+                for(int k=0; k<rows.length; k++){
+                    m.getRow(rows[k], vals);
+                    cg.add(vals);
+                }
+                continue;
+            }
+            double[][] examples = new double[rows.length][numFeatures];
+            for(int k=0; k<rows.length; k++){
+                m.getRow(rows[k], examples[k]);
+            }
+            cg = new Category(type, new DataRep(m, rows), examples, compact);
+            _categories.add(cg);
+        }
+        updateOffsets();
+    }
+
+    /**
+     * Number the training examples after the categories changed.
+     */
+    private void updateOffsets(){
+        _offsets = new int[_categories.size()+1];
+        for(int c=0; c<_categories.size(); c++){
+            _offsets[c+1] = _offsets[c]+((Category)_categories.get(c)).getExampleCount();
+        }
+    }
+
+    /**
+     * Return the category of the given type, or null if there is
+     * none.
+     */
+    private Category getCategory(String type){
+        for(Iterator iter = _categories.iterator(); iter.hasNext();){
+            Category cat = (Category)iter.next();
+            if(cat.getType().equals(type)){
+                return cat;
+            }
+        }
+        return null;
     }
     
     /**
@@ -94,7 +452,7 @@ public class KNNClassifier implements TrainableClassifier {
      * reprocessing the examples in A.
      */
     public boolean isIncremental() {
-        return false;
+        return true;
     }
 
     /**
@@ -102,21 +460,10 @@ public class KNNClassifier implements TrainableClassifier {
      */
     public void clear() {
         _categories.clear();
+        _offsets = new int[] {0};
         _numFeatures=0;
     }
 
-    /**
-     * Compute the Euclidean distance of the two vectors.
-     */
-    private static double distance(double[] vals, double[] ref){
-        int sum=0;
-        for(int i=0; i<vals.length; i++){
-            double diff = vals[i]-ref[i];
-            sum += diff*diff;
-        }
-        return Math.sqrt(sum);
-    }
-
     /**
      * An internal data structure storing the information of a class.
      * Class is the term used in statistics.  I'm calling it Category
@@ -124,44 +471,243 @@ public class KNNClassifier implements TrainableClassifier {
      * Object Orientated language.
      */
     private static class Category {
+        /**
+         * The largest ratio between two weights before the category
+         * is rebuilt.  Beyond it, the tree prunes poorly.
+         */
+        private static final double MAX_WEIGHT_RATIO = 4;
+
+        /**
+         * The number of examples that can be scanned linearly before
+         * the tree is rebuilt, at least.  A quarter of the examples in
+         * the tree are allowed otherwise.
+         */
+        private static final int MIN_UNINDEXED = 16;
+
         /** The name of the category. */
         private String _type;
         /** The data representation of this category. */
         private DataRep _dataRep;
-        /** Normalized feature values for each example. */
+        /** The scaler the examples are normalized with, from the
+         * means and standard deviations when the tree was last
+         * rebuilt, or when the category was created for the float
+         * block. */
+        private FeatureScaler _norm;
+        /** The weight of each feature in the distances, or null if
+         * the standard deviations have not changed. */
+        private double[] _weights = null;
+        /** The square root of the smallest weight. */
+        private double _scale = 1;
+        /** Normalized feature values for each example, or null. */
         private double[][] _examples;
+        /**
+         * The normalized feature values of all examples as floats,
+         * example after example, or null.
+         */
+        private float[] _block;
         /** The number of examples for this category. */
         private int _numExamples;
+        /** The tree over the first normalized examples, or null. */
+        private VPTree _tree;
+        /** The kernels the distances are computed with. */
+        private Kernels _kernels = Kernels.getInstance();
 
         /** Create a catetory with the given 'type' name, data
-         * representation, and examples. Normalize the example
-         * features. */
-        public Category(String type, DataRep dataRep, FeatureSet[] examples){
+         * representation, and example feature values, which are not
+         * kept. Normalize the example
+         * features, and store them in one float block if 'compact'
+         * is true, or as double arrays indexed by a VPTree
+         * otherwise. */
+        public Category(String type, DataRep dataRep, double[][] examples, boolean compact){
             _type = type;
             _dataRep = dataRep;
-            _examples = new double[examples.length][];
             _numExamples = examples.length;
+            _norm = FeatureScaler.fromMoments(_dataRep.getMeans(), _dataRep.getStds());
+            if(compact){
+                int n = _norm.getFeatureCount();
+                double[] normVals = new double[n];
+                _block = new float[_numExamples*n];
+                for(int i=0; i<_numExamples; i++){
+                    normalize(examples[i], normVals);
+                    for(int j=0; j<n; j++){
+                        _block[i*n+j] = (float)normVals[j];
+                    }
+                }
+                return;
+            }
+            _examples = new double[_numExamples][];
+            for(int i=0; i<_numExamples; i++){
+                _examples[i] = normalize(examples[i]);
+            }
+            buildTree();
+        }
 
-            for(int i=0; i<examples.length; i++){
-                double[] vals = examples[i].getFeatures();
+        /**
+         * Normalize all the examples with the current means and
+         * standard deviations, and rebuild the tree.  Since both
+         * normalizations are x*scale+offset, the stored values are
+         * mapped from the old one to the new one in place.  Each
+         * rebuild adds a rounding error of a few ulps to each value,
+         * and rebuilds are far apart (the examples outside the tree
+         * must grow by a quarter, or the weights spread beyond
+         * MAX_WEIGHT_RATIO), so the drift stays near 1e-15 relative in
+         * practice.
+         * The float block is never rebuilt.
+         */
+        private void rebuild(){
+            FeatureScaler norm = FeatureScaler.fromMoments(_dataRep.getMeans(), _dataRep.getStds());
+            int n = norm.getFeatureCount();
+            double[] a = new double[n];
+            double[] b = new double[n];
+            for(int j=0; j<n; j++){
+                a[j] = norm.getScale()[j]/_norm.getScale()[j];
+                b[j] = norm.getOffset()[j]-_norm.getOffset()[j]*a[j];
+            }
+            _norm = norm;
+            _weights = null;
+            _scale = 1;
+            for(int i=0; i<_numExamples; i++){
+                double[] ex = _examples[i];
+                for(int j=0; j<n; j++){
+                    ex[j] = ex[j]*a[j]+b[j];
+                }
+            }
+            buildTree();
+        }
+
+        /**
+         * Build the tree over all the examples.
+         */
+        private void buildTree(){
+            double[][] indexed = _examples;
+            if(_numExamples < indexed.length){
+                indexed = new double[_numExamples][];
+                System.arraycopy(_examples, 0, indexed, 0, _numExamples);
+            }
+            _tree = new VPTree(indexed);
+        }
+
+        /**
+         * Add an example with the given feature values, which are not
+         * kept, and update the statistics and the weights.  With a
+         * tree, the category is rebuilt if the weights have moved too
+         * far, or if too many examples are not in it.
+         */
+        public void add(double[] vals){
+            _dataRep.add(vals);
+            int i = _numExamples++;
+            if(_block != null){
+                int n = _norm.getFeatureCount();
+                if(_block.length < _numExamples*n){
+                    float[] block = new float[Math.max(8, 2*i)*n];
+                    System.arraycopy(_block, 0, block, 0, i*n);
+                    _block = block;
+                }
+                double[] normVals = normalize(vals);
+                for(int j=0; j<n; j++){
+                    _block[i*n+j] = (float)normVals[j];
+                }
+            }
+            else{
+                if(i == _examples.length){
+                    double[][] examples = new double[Math.max(8, 2*i)][];
+                    System.arraycopy(_examples, 0, examples, 0, i);
+                    _examples = examples;
+                }
                 _examples[i] = normalize(vals);
             }
+            boolean bounded = updateWeights();
+            if(_block == null){
+                int indexed = _tree.size();
+                if(!bounded || (_numExamples-indexed > Math.max(MIN_UNINDEXED, indexed/4))){
+                    rebuild();
+                }
+            }
+        }
+
+        /**
+         * Compute the weights from the current standard deviations.
+         * Return false if they are too far apart for the tree to prune
+         * well, in which case a tree needs to be rebuilt.
+         */
+        private boolean updateWeights(){
+            double[] stds = _dataRep.getStds();
+            double[] normScale = _norm.getScale();
+            double[] w = (_weights == null) ? new double[stds.length] : _weights;
+            double min = Double.POSITIVE_INFINITY;
+            double max = 0;
+            for(int i=0; i<stds.length; i++){
+                double r = FeatureScaler.scaleFor(stds[i])/normScale[i];
+                w[i] = r*r;
+                min = Math.min(min, w[i]);
+                max = Math.max(max, w[i]);
+            }
+            _weights = w;
+            _scale = Math.sqrt(min);
+            return (min > 0) && (max <= MAX_WEIGHT_RATIO*min);//also false if not finite
         }
 
         /**
          * Normalize the feature values by subtracting the means and
-         * dividing by the standard deviations.
+         * dividing by the standard deviations the examples are
+         * normalized with.  A feature with no deviation is only
+         * shifted.
          */
         public double[] normalize(double[] ex){
-            double[] means = _dataRep.getMeans();
-            double[] stds = _dataRep.getStds();
             double[] normVals = new double[ex.length];
-            for(int i=0; i<ex.length; i++){
-                normVals[i] = (ex[i]-means[i])/stds[i];
-            }
+            normalize(ex, normVals);
             return normVals;
         }
 
+        /**
+         * Same as normalize(double[]), but write the values into
+         * 'out'.
+         */
+        public void normalize(double[] ex, double[] out){
+            _norm.transform(ex, out);
+        }
+
+        /**
+         * Return the distance between the normalized values and the
+         * i'th example.
+         */
+        public double distance(double[] normVals, int i){
+            double[] ex = _examples[i];
+            if(_weights == null){
+                return Math.sqrt(_kernels.squaredDistance(normVals, ex, ex.length));
+            }
+            return Math.sqrt(_kernels.weightedSquaredDistance(normVals, ex, _weights, ex.length));
+        }
+
+        /**
+         * Offer the examples that may be among the nearest neighbors
+         * of the normalized values to the heap, with the id offset+i
+         * for the i'th example: those in the tree by searching it, the
+         * others one by one.
+         */
+        public void search(double[] normVals, VPTree.Neighbors heap, int offset){
+            _tree.search(normVals, _weights, _scale, heap, offset);
+            for(int i=_tree.size(); i<_numExamples; i++){
+                heap.offer(distance(normVals, i), offset+i);
+            }
+        }
+
+        /** Return the weight of each feature in the distances, or
+         * null if all are 1. */
+        public double[] getWeights(){
+            return _weights;
+        }
+
+        /** Return whether the examples are stored in a float block. */
+        public boolean isCompact(){
+            return _block != null;
+        }
+
+        /** Return the float block of the examples, or null. */
+        public float[] getBlock(){
+            return _block;
+        }
+
         /** Return the name of this category. */
         public String getType(){
             return _type;
@@ -172,11 +718,6 @@ public class KNNClassifier implements TrainableClassifier {
             return _dataRep;
         }
 
-        /** Return the i'th example. */
-        public double[] getExample(int i){
-            return _examples[i];
-        }
-
         /** Return the number of examples in this category. */
         public int getExampleCount() {
             return _numExamples;
@@ -6,12 +6,19 @@
  */
 package hhreco.classification;
 
+import hhreco.util.Kernels;
 import java.util.ArrayList;
 import java.util.Iterator;
 
 /**
  * Minimum distance classifier measures the normalized Euclidean
  * distance between the test example and each of the training classes.
+ * <p>
+ *
+ * The classifier is incremental: the statistics of each class are kept
+ * in a DataRep, and the examples given to later calls to train are
+ * folded into them one at a time, without going over the examples that
+ * were learned before.
  *
  * @author Heloise Hse (hwawen@eecs.berkeley.edu)
  */
@@ -39,6 +46,42 @@ public class MMDClassifier implements TrainableClassifier {
         }
         return new Classification(types, values);
     }
+
+    /**
+     * Classify the given examples.
+     */
+    public Classification[] classify(FeatureSet[] examples) throws ClassifierException {
+        return classify(FeatureSet.toMatrix(examples));
+    }
+
+    /**
+     * Classify the examples in the rows of the matrix.  The distances
+     * to one class are computed for all the examples before moving on
+     * to the next class, and the classifications share their array of
+     * types.
+     */
+    public Classification[] classify(double[][] matrix) throws ClassifierException {
+        for(int r=0; r<matrix.length; r++){
+            if(matrix[r].length != _numFeatures){
+                throw new ClassifierException("Incorrect number of features: "+matrix[r].length+", should be "+ _numFeatures);
+            }
+        }
+        int numCategories = _categories.size();
+        String[] types = new String[numCategories];
+        double[][] values = new double[matrix.length][numCategories];
+        for(int c=0; c<numCategories; c++){
+            Category cat = (Category)_categories.get(c);
+            types[c] = cat.getType();
+            for(int r=0; r<matrix.length; r++){
+                values[r][c] = cat.distance(matrix[r]);
+            }
+        }
+        Classification[] result = new Classification[matrix.length];
+        for(int r=0; r<matrix.length; r++){
+            result[r] = new Classification(types, values[r]);
+        }
+        return result;
+    }
     
     /**
      * Train the classifier with the given training set.  This method
@@ -46,14 +89,23 @@ public class MMDClassifier implements TrainableClassifier {
      * self consisistent, i.e. the feature sets that it contains do
      * not have the same number of features in them.
      *
-     * Any previously training data, if any, will be removed upon the
-     * call of this method.
+     * The examples are added to the data the classifier has already
+     * been trained with; call clear() first to train from scratch.
      */
     public void train(TrainingSet s, int numFeatures) throws ClassifierException {
-        clear();
+        if((_categories.size() > 0) && (numFeatures != _numFeatures)){
+            throw new ClassifierException("Incorrect number of features: "+numFeatures+", should be "+ _numFeatures);
+        }
         _numFeatures = numFeatures;
         for(Iterator iter = s.types(); iter.hasNext();){
             String type = (String)iter.next();
+            Category cg = getCategory(type);
+            if(cg != null){
+                for(Iterator e = s.positiveExamples(type); e.hasNext();){
+                    cg.getDataRep().add((FeatureSet)e.next());
+                }
+                continue;
+            }
             int num = s.positiveExampleCount(type);
             FeatureSet[] examples = new FeatureSet[num];
             int k=0;
@@ -61,18 +113,60 @@ public class MMDClassifier implements TrainableClassifier {
                 examples[k++] = (FeatureSet)e.next();
             }
             DataRep dr = new DataRep(examples, numFeatures);
-            Category cg = new Category(type, dr);
+            cg = new Category(type, dr);
+            _categories.add(cg);
+        }
+    }
+
+    /**
+     * Train the classifier with the positive examples of the given
+     * matrix, as train(TrainingSet, int) does, reading the feature
+     * values in place.
+     */
+    public void train(FeatureMatrix m) throws ClassifierException {
+        int numFeatures = m.getFeatureCount();
+        if((_categories.size() > 0) && (numFeatures != _numFeatures)){
+            throw new ClassifierException("Incorrect number of features: "+numFeatures+", should be "+ _numFeatures);
+        }
+        _numFeatures = numFeatures;
+        double[] vals = new double[numFeatures];
+        for(int t=0; t<m.getTypeCount(); t++){
+            String type = m.getType(t);
+            int[] rows = m.getRows(t, true);
+            Category cg = getCategory(type);
+            if(cg != null){
+                for(int k=0; k<rows.length; k++){
+                    m.getRow(rows[k], vals);
+                    cg.getDataRep().add(vals);
+                }
+                continue;
+            }
+            cg = new Category(type, new DataRep(m, rows));
             _categories.add(cg);
         }
     }
 
+    /**
+     * Return the category of the given type, or null if there is
+     * none.
+     */
+    private Category getCategory(String type){
+        for(Iterator iter = _categories.iterator(); iter.hasNext();){
+            Category cat = (Category)iter.next();
+            if(cat.getType().equals(type)){
+                return cat;
+            }
+        }
+        return null;
+    }
+
     /**
      * Return whether this classifier is incremental, i.e. whether new
      * data can be added to the existing training set (A) without
      * reprocessing the examples in A.
      */
     public boolean isIncremental() {
-        return false;
+        return true;
     }
 
     /**
@@ -91,6 +185,8 @@ public class MMDClassifier implements TrainableClassifier {
         private String _type;
         /** The data representation of this category. */
         private DataRep _dataRep;
+        /** The kernels the distances are computed with. */
+        private Kernels _kernels = Kernels.getInstance();
 
         /**
          * Create a catetory with the given 'type' name and data
@@ -116,14 +212,9 @@ public class MMDClassifier implements TrainableClassifier {
          * example and this class.
          */
         private double distance(double[] vals){
-            int sum=0;
             double[] means = _dataRep.getMeans();
             double[] variances = _dataRep.getVariances();
-            for(int i=0; i<vals.length; i++){
-                double diff = vals[i]-means[i];
-                sum += (diff*diff)/variances[i];
-            }
-            return sum;
+            return _kernels.normalizedSquaredDistance(vals, means, variances, vals.length);
         }
     }
 }
@@ -0,0 +1,369 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import libsvm.*;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Train a multi-class C_SVC model with an RBF kernel by solving its
+ * k(k-1)/2 one-vs-one binary problems concurrently, and assemble the
+ * results into a DenseSVMModel. <p>
+ *
+ * svm.svm_train solves the same binary problems one after another:
+ * for each pair of classes i &lt; j, it trains on the examples of class
+ * i (labeled +1) followed by those of class j (labeled -1).  Here each
+ * such problem is handed to svm.svm_train on its own, so the solver
+ * sees exactly the same data and parameters and finds the same
+ * coefficients and bias.  The support vectors of each class are then
+ * the examples with a nonzero coefficient in any of its pairs, kept in
+ * the order of the examples, as svm_train does, so the assembled model
+ * predicts exactly what the sequentially trained model predicts. <p>
+ *
+ * To tell which examples became support vectors of a pair, each
+ * example carries an extra node whose index is numFeatures plus the
+ * position of the example and whose value is 0.  A 0 node changes no
+ * kernel value (it adds 0*0 to every sum), but it stays with the
+ * support vector.  The coefficients, bias and support vectors of a
+ * binary model are read from the package-private fields of svm_model
+ * through reflection; if those cannot be made accessible, the model is
+ * written out by svm.svm_save_model and parsed back instead. <p>
+ *
+ * The kernel cache size of the parameters is shared by the problems
+ * solved at once, so that they do not use more memory together than
+ * svm_train does.
+ */
+public class ParallelSVMTrainer {
+    /**
+     * The parameters of the binary problems.
+     */
+    private svm_parameter _param;
+
+    /**
+     * The parameters of each binary problem when several are solved
+     * at once: those of the trainer with a share of the cache size.
+     */
+    private svm_parameter _concurrentParam;
+
+    /**
+     * The number of problems solved at once.
+     */
+    private int _parallelism;
+
+    /**
+     * The fields rho, sv_coef and SV of svm_model, or null if they
+     * cannot be made accessible.
+     */
+    private static final Field[] MODEL_FIELDS = getModelFields();
+
+    /**
+     * Create a trainer with the given parameters, which must be for
+     * C_SVC with an RBF kernel and no class weights, solving up to 'parallelism' problems
+     * at once.
+     */
+    public ParallelSVMTrainer(svm_parameter param, int parallelism){
+        if((param.svm_type != svm_parameter.C_SVC) || (param.kernel_type != svm_parameter.RBF)){
+            throw new IllegalArgumentException("ParallelSVMTrainer: only C_SVC with an RBF kernel is supported");
+        }
+        if(param.nr_weight != 0){
+            throw new IllegalArgumentException("ParallelSVMTrainer: class weights are not supported");
+        }
+        if(parallelism < 1){
+            throw new IllegalArgumentException("ParallelSVMTrainer: parallelism="+parallelism+", must be at least 1");
+        }
+        _param = param;
+        _parallelism = parallelism;
+        _concurrentParam = copy(param);
+        _concurrentParam.cache_size = param.cache_size/parallelism;
+    }
+
+    /**
+     * Return a copy of the given parameters.
+     */
+    private static svm_parameter copy(svm_parameter param){
+        svm_parameter p = new svm_parameter();
+        p.svm_type = param.svm_type;
+        p.kernel_type = param.kernel_type;
+        p.degree = param.degree;
+        p.gamma = param.gamma;
+        p.coef0 = param.coef0;
+        p.cache_size = param.cache_size;
+        p.eps = param.eps;
+        p.C = param.C;
+        p.nr_weight = param.nr_weight;
+        p.weight_label = param.weight_label;
+        p.weight = param.weight;
+        p.nu = param.nu;
+        p.p = param.p;
+        p.shrinking = param.shrinking;
+        return p;
+    }
+
+    /**
+     * Look up the fields rho, sv_coef and SV of svm_model and make
+     * them accessible.  Return null if that is not allowed.
+     */
+    private static Field[] getModelFields(){
+        String[] names = {"rho", "sv_coef", "SV"};
+        Field[] fields = new Field[names.length];
+        try{
+            for(int i=0; i<names.length; i++){
+                fields[i] = svm_model.class.getDeclaredField(names[i]);
+                fields[i].setAccessible(true);
+            }
+            return fields;
+        }
+        catch(NoSuchFieldException ex){
+            return null;
+        }
+        catch(RuntimeException ex){
+            //a security manager or module denied the access
+            return null;
+        }
+    }
+
+    /**
+     * Train on the given examples, each holding numFeatures values.
+     * The examples must be grouped by class: count[c] examples of
+     * class c follow each other, for c = 0...count.length-1, and
+     * class c gets label[c] in the model.
+     */
+    public DenseSVMModel train(double[][] x, int[] count, int[] label, int numFeatures) throws ClassifierException {
+        int numClasses = count.length;
+        int[] start = new int[numClasses];
+        for(int c=1; c<numClasses; c++){
+            start[c] = start[c-1]+count[c-1];
+        }
+        //tag each example with its position
+        svm_node[][] nodes = new svm_node[x.length][];
+        for(int i=0; i<x.length; i++){
+            svm_node[] ex = new svm_node[numFeatures+1];
+            for(int j=0; j<numFeatures; j++){
+                ex[j] = new svm_node();
+                ex[j].index = j;
+                ex[j].value = x[i][j];
+            }
+            ex[numFeatures] = new svm_node();
+            ex[numFeatures].index = numFeatures+i;
+            ex[numFeatures].value = 0;
+            nodes[i] = ex;
+        }
+
+        int numPairs = numClasses*(numClasses-1)/2;
+        int[] pairI = new int[numPairs];
+        int[] pairJ = new int[numPairs];
+        int p = 0;
+        for(int i=0; i<numClasses; i++){
+            for(int j=i+1; j<numClasses; j++){
+                pairI[p] = i;
+                pairJ[p] = j;
+                p++;
+            }
+        }
+        //alpha[p][k] is the coefficient of example k in pair p
+        double[][] alpha = new double[numPairs][x.length];
+        double[] rho = new double[numPairs];
+        boolean concurrent = (_parallelism > 1) && (numPairs > 1);
+        Problems problems = new Problems(nodes, start, count, pairI, pairJ, numFeatures, alpha, rho,
+                concurrent ? _concurrentParam : _param);
+        PairAction action = new PairAction(problems, 0, numPairs);
+        try{
+            if(concurrent){
+                ForkJoinPool pool = new ForkJoinPool(_parallelism);
+                try{
+                    pool.invoke(action);
+                }
+                finally{
+                    pool.shutdown();
+                }
+            }
+            else{
+                for(p=0; p<numPairs; p++){
+                    problems.solve(p);
+                }
+            }
+        }
+        catch(RuntimeException ex){
+            throw new ClassifierException("Parallel SVM training failed: "+ex.getMessage());
+        }
+
+        double[] packed = new double[x.length*numFeatures];
+        for(int k=0; k<x.length; k++){
+            System.arraycopy(x[k], 0, packed, k*numFeatures, numFeatures);
+        }
+        return DenseSVMModel.fromPairs(numFeatures, _param.gamma, packed, count, label, alpha, rho);
+    }
+
+    /**
+     * The binary problems and the arrays their results go into.
+     */
+    private class Problems {
+        svm_node[][] nodes;
+        int[] start, count, pairI, pairJ;
+        int numFeatures;
+        double[][] alpha;
+        double[] rho;
+        svm_parameter param;
+
+        Problems(svm_node[][] nodes, int[] start, int[] count, int[] pairI, int[] pairJ, int numFeatures, double[][] alpha, double[] rho,
+                svm_parameter param){
+            this.nodes = nodes;
+            this.start = start;
+            this.count = count;
+            this.pairI = pairI;
+            this.pairJ = pairJ;
+            this.numFeatures = numFeatures;
+            this.alpha = alpha;
+            this.rho = rho;
+            this.param = param;
+        }
+
+        /**
+         * Solve the problem of pair p and record its coefficients and
+         * bias.
+         */
+        void solve(int p){
+            int i = pairI[p];
+            int j = pairJ[p];
+            svm_problem prob = new svm_problem();
+            prob.l = count[i]+count[j];
+            prob.x = new svm_node[prob.l][];
+            prob.y = new double[prob.l];
+            for(int k=0; k<count[i]; k++){
+                prob.x[k] = nodes[start[i]+k];
+                prob.y[k] = +1;
+            }
+            for(int k=0; k<count[j]; k++){
+                prob.x[count[i]+k] = nodes[start[j]+k];
+                prob.y[count[i]+k] = -1;
+            }
+            svm_model model = svm.svm_train(prob, param);
+            try{
+                if(MODEL_FIELDS != null){
+                    read(model, p);
+                }
+                else{
+                    readSaved(model, p);
+                }
+            }
+            catch(IOException ex){
+                throw new RuntimeException(ex.toString());
+            }
+        }
+
+        /**
+         * Read the bias and the coefficients of the support vectors of
+         * a binary model from its fields.
+         */
+        private void read(svm_model model, int p) throws IOException {
+            try{
+                double[] r = (double[])MODEL_FIELDS[0].get(model);
+                double[][] coef = (double[][])MODEL_FIELDS[1].get(model);
+                svm_node[][] sv = (svm_node[][])MODEL_FIELDS[2].get(model);
+                rho[p] = r[0];
+                for(int k=0; k<sv.length; k++){
+                    int tag = -1;
+                    for(int i=0; i<sv[k].length; i++){
+                        if(sv[k][i].index >= numFeatures){
+                            tag = sv[k][i].index-numFeatures;
+                        }
+                    }
+                    if(tag < 0){
+                        throw new IOException("ParallelSVMTrainer: untagged support vector");
+                    }
+                    alpha[p][tag] = coef[0][k];
+                }
+            }
+            catch(IllegalAccessException ex){
+                throw new IOException("ParallelSVMTrainer: "+ex.getMessage());
+            }
+        }
+
+        /**
+         * Read the bias and the coefficients of the support vectors of
+         * a binary model through svm.svm_save_model.
+         */
+        private void readSaved(svm_model model, int p) throws IOException {
+            File tmp = File.createTempFile("hhreco-svm", ".model");
+            try{
+                svm.svm_save_model(tmp.getPath(), model);
+                BufferedReader in = new BufferedReader(new FileReader(tmp));
+                try{
+                    String line;
+                    boolean sv = false;
+                    while((line = in.readLine()) != null){
+                        if(!sv){
+                            if(line.startsWith("rho ")){
+                                rho[p] = Double.parseDouble(line.substring(4).trim());
+                            }
+                            else if(line.trim().equals("SV")){
+                                sv = true;
+                            }
+                            continue;
+                        }
+                        StringTokenizer tok = new StringTokenizer(line, " \t:");
+                        if(!tok.hasMoreTokens()){
+                            continue;
+                        }
+                        double a = Double.parseDouble(tok.nextToken());
+                        int tag = -1;
+                        while(tok.hasMoreTokens()){
+                            int index = Integer.parseInt(tok.nextToken());
+                            tok.nextToken();
+                            if(index >= numFeatures){
+                                tag = index-numFeatures;
+                            }
+                        }
+                        if(tag < 0){
+                            throw new IOException("ParallelSVMTrainer: untagged support vector");
+                        }
+                        alpha[p][tag] = a;
+                    }
+                }
+                finally{
+                    in.close();
+                }
+            }
+            finally{
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Solve the problems of pairs from...to-1, splitting the range in
+     * half until it holds a single pair.
+     */
+    private static class PairAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private Problems _problems;
+        private int _from, _to;
+
+        PairAction(Problems problems, int from, int to){
+            _problems = problems;
+            _from = from;
+            _to = to;
+        }
+
+        protected void compute(){
+            if(_to-_from <= 1){
+                for(int p=_from; p<_to; p++){
+                    _problems.solve(p);
+                }
+            }
+            else{
+                int mid = (_from+_to)/2;
+                invokeAll(new PairAction(_problems, _from, mid),
+                          new PairAction(_problems, mid, _to));
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A trainable classifier whose trained state can be written to a
+ * stream and read back, so that it does not have to be trained again,
+ * e.g. when hhreco.recognition.HHRecognizer loads a snapshot.  The
+ * state read back classifies exactly as the one written, and an
+ * incremental classifier keeps learning from it.
+ */
+public interface PersistentClassifier extends TrainableClassifier {
+    /**
+     * Write the trained state of the classifier, including the
+     * parameters it was trained with, to the stream.
+     */
+    public void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Replace the state of the classifier with one written by
+     * writeState.  An IOException is thrown if the state cannot be
+     * read, in which case the classifier is not modified.
+     */
+    public void readState(DataInput in) throws IOException;
+
+    /**
+     * Same as writeState(DataOutput), but the classifier may leave out
+     * the examples it keeps if they are the positive examples of
+     * 'set', in which case readState(DataInput, TrainingSet) takes
+     * them from the same training set.  'set' may be null.
+     */
+    public void writeState(DataOutput out, TrainingSet set) throws IOException;
+
+    /**
+     * Same as readState(DataInput), for a state written by
+     * writeState(DataOutput, TrainingSet) with the same training set.
+     */
+    public void readState(DataInput in, TrainingSet set) throws IOException;
+
+    /**
+     * Replace the state of the classifier with a copy of the trained
+     * state of 'c', which must be of the same class, as if it was
+     * written by c.writeState and read back with readState, but
+     * without going through a stream.  Training either classifier
+     * afterwards does not affect the other.
+     */
+    public void copyState(PersistentClassifier c);
+}
@@ -0,0 +1,637 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+
+import java.util.Arrays;
+
+/**
+ * A sequential minimal optimization (SMO) solver for binary C-SVC
+ * problems with an RBF kernel over short, dense feature vectors. <p>
+ *
+ * The examples are stored row by row in one packed array, and a
+ * binary problem is a subset of them (given by their row numbers) with
+ * +1/-1 targets, so that the one-vs-one problems of a multi-class
+ * model all share the same solver.  Kernel values are kept in a cache
+ * of float rows, one per example, with room for its kernel value with
+ * every example in the array.  Only the values with the examples of
+ * the problem being solved are computed, the first time the row is
+ * used in that problem, so a pair of classes costs time in proportion
+ * to its own size, and the values computed for one pair are reused by
+ * the other pairs its classes take part in.  The least recently used
+ * rows are dropped when the cache is full. <p>
+ *
+ * Examples can be appended with setExamples between two problems.  The
+ * cached rows are kept and grow as they are used, so the problems that
+ * are solved again after examples are added, as in incremental
+ * training, only compute the kernel values of the new examples and of
+ * the rows that were not cached. <p>
+ *
+ * The algorithm is the one of libsvm [1]: the working set is selected
+ * with second order information, the two coefficients are updated
+ * analytically and clipped to [0,C], and with shrinking, examples that
+ * are unlikely to change are temporarily left out of the working set
+ * selection and gradient updates; the gradient of the left out
+ * examples is reconstructed before the solution is accepted.  <p>
+ *
+ * [1] R.-E. Fan, P.-H. Chen and C.-J. Lin, Working set selection using
+ * second order information for training SVM, JMLR 6, 2005.
+ */
+public class SMOSolver {
+    /** Used in place of a non-positive curvature. */
+    private static final double TAU = 1e-12;
+
+    /** The maximum number of iterations of one problem. */
+    private static final int MAX_ITERATIONS = 10000000;
+
+    /** The examples, _numFeatures values per row. */
+    private double[] _x;
+
+    /** The number of features of an example. */
+    private int _numFeatures;
+
+    /** The number of examples. */
+    private int _numExamples;
+
+    /** The RBF kernel parameter. */
+    private double _gamma;
+
+    /** The penalty of the misclassified examples. */
+    private double _C;
+
+    /** The tolerance of the stopping criterion. */
+    private double _eps;
+
+    /** Whether to shrink the working set. */
+    private boolean _shrinking;
+
+    /** The cached kernel rows, or null if not cached.  NaN marks a
+     * value not computed yet. */
+    private float[][] _rows;
+
+    /** The problem for which each cached row was last completed. */
+    private int[] _filled;
+
+    /** The number of problems solved so far. */
+    private int _problem = 0;
+
+    /** The size of the cache in bytes. */
+    private long _cacheBytes;
+
+    /** The least recently used rows come first in this list. */
+    private int[] _prev, _next;
+    private int _head = -1, _tail = -1;
+
+    /** The number of cached rows and the maximum. */
+    private int _cached, _maxCached;
+
+    /**
+     * The state of the problem being solved.  Shrinking reorders the
+     * problem; _index holds the row of each example and _position its
+     * place in the arrays given to solve().
+     */
+    private int[] _index;
+    private int[] _position;
+    private double[] _y;
+    private double[] _alpha;
+    private double[] _G;
+    private double[] _Gbar;
+    private int _activeSize;
+    private int _l;
+
+    /** Whether the active set has been reset near the solution. */
+    private boolean _unshrink;
+
+    /**
+     * Create a solver for the examples in 'x', numFeatures values each,
+     * with the given kernel parameter, penalty, stopping tolerance,
+     * kernel cache size in bytes, and whether to shrink.  The cache
+     * always holds at least two rows.
+     */
+    public SMOSolver(double[] x, int numFeatures, double gamma, double C, double eps, long cacheBytes, boolean shrinking){
+        this(x, x.length/numFeatures, numFeatures, gamma, C, eps, cacheBytes, shrinking);
+    }
+
+    /**
+     * Create a solver for the first numExamples examples in 'x'.
+     */
+    public SMOSolver(double[] x, int numExamples, int numFeatures, double gamma, double C, double eps, long cacheBytes, boolean shrinking){
+        _numFeatures = numFeatures;
+        _gamma = gamma;
+        _C = C;
+        _eps = eps;
+        _shrinking = shrinking;
+        _cacheBytes = cacheBytes;
+        _rows = new float[0][];
+        _filled = new int[0];
+        _prev = new int[0];
+        _next = new int[0];
+        setExamples(x, numExamples);
+    }
+
+    /**
+     * Replace the examples with the first numExamples examples in
+     * 'x', of which the ones the solver already has must be the
+     * first, unchanged.  The kernel values already computed are kept.
+     */
+    public void setExamples(double[] x, int numExamples){
+        if(numExamples < _numExamples){
+            throw new IllegalArgumentException("SMOSolver: "+numExamples+" examples, had "+_numExamples);
+        }
+        _x = x;
+        if(numExamples > _rows.length){
+            int capacity = Math.max(numExamples, 2*_rows.length);
+            float[][] rows = new float[capacity][];
+            int[] filled = new int[capacity];
+            int[] prev = new int[capacity];
+            int[] next = new int[capacity];
+            System.arraycopy(_rows, 0, rows, 0, _numExamples);
+            System.arraycopy(_filled, 0, filled, 0, _numExamples);
+            System.arraycopy(_prev, 0, prev, 0, _numExamples);
+            System.arraycopy(_next, 0, next, 0, _numExamples);
+            _rows = rows;
+            _filled = filled;
+            _prev = prev;
+            _next = next;
+        }
+        _numExamples = numExamples;
+        long rowBytes = 4L*Math.max(_numExamples,1);
+        _maxCached = (int)Math.max(2, Math.min(_numExamples, _cacheBytes/rowBytes));
+        while(_cached > _maxCached){
+            evict();
+        }
+    }
+
+    /**
+     * Return the number of examples.
+     */
+    public int getExampleCount(){
+        return _numExamples;
+    }
+
+    /**
+     * Solve the binary problem made up of the examples at the given
+     * rows with the given +1/-1 targets.  'alpha' holds the starting
+     * coefficients, which must be feasible (all 0 will do), and
+     * receives the solution.  Return the bias rho of the decision
+     * function Sum alpha[k]*y[k]*K(x,x[rows[k]]) - rho.
+     */
+    public double solve(int[] rows, double[] y, double[] alpha){
+        int l = rows.length;
+        _l = l;
+        _problem++;
+        _index = new int[l];
+        _y = new double[l];
+        _alpha = new double[l];
+        _G = new double[l];
+        _Gbar = new double[l];
+        _position = new int[l];
+        for(int k=0; k<l; k++){
+            _index[k] = rows[k];
+            _y[k] = y[k];
+            _alpha[k] = alpha[k];
+            _position[k] = k;
+            _G[k] = -1;
+        }
+        //the gradient of the starting point
+        for(int i=0; i<l; i++){
+            if(_alpha[i] != 0){
+                float[] Ki = getRow(_index[i]);
+                for(int k=0; k<l; k++){
+                    double Qik = _y[i]*_y[k]*Ki[_index[k]];
+                    _G[k] += _alpha[i]*Qik;
+                    if(_alpha[i] >= _C){
+                        _Gbar[k] += _C*Qik;
+                    }
+                }
+            }
+        }
+        _activeSize = l;
+        _unshrink = false;
+
+        int counter = Math.min(l,1000)+1;
+        int[] ws = new int[2];
+        for(int iter=0; iter<MAX_ITERATIONS; iter++){
+            if(--counter == 0){
+                counter = Math.min(l,1000);
+                if(_shrinking){
+                    shrink();
+                }
+            }
+            if(!selectWorkingSet(ws)){
+                reconstructGradient();
+                _activeSize = l;
+                if(!selectWorkingSet(ws)){
+                    break;
+                }
+                counter = 1;
+            }
+            update(ws[0], ws[1]);
+        }
+        reconstructGradient();
+        _activeSize = l;
+
+        for(int k=0; k<l; k++){
+            alpha[_position[k]] = _alpha[k];
+        }
+        double rho = computeRho();
+        _index = null;
+        _position = null;
+        _y = null;
+        _alpha = null;
+        _G = null;
+        _Gbar = null;
+        return rho;
+    }
+
+    /**
+     * Select the pair of coefficients that violates the optimality
+     * conditions the most, using second order information for the
+     * second one.  Return false if the solution is optimal within the
+     * tolerance.
+     */
+    private boolean selectWorkingSet(int[] ws){
+        double Gmax = Double.NEGATIVE_INFINITY;
+        double Gmax2 = Double.NEGATIVE_INFINITY;
+        int imax = -1;
+        int jmin = -1;
+        double objMin = Double.POSITIVE_INFINITY;
+        for(int t=0; t<_activeSize; t++){
+            if(_y[t] > 0){
+                if((_alpha[t] < _C) && (-_G[t] >= Gmax)){
+                    Gmax = -_G[t];
+                    imax = t;
+                }
+            }
+            else{
+                if((_alpha[t] > 0) && (_G[t] >= Gmax)){
+                    Gmax = _G[t];
+                    imax = t;
+                }
+            }
+        }
+        float[] Ki = (imax != -1) ? getRow(_index[imax]) : null;
+        for(int j=0; j<_activeSize; j++){
+            double gradDiff;
+            if(_y[j] > 0){
+                if(_alpha[j] <= 0){
+                    continue;
+                }
+                gradDiff = Gmax+_G[j];
+                if(_G[j] >= Gmax2){
+                    Gmax2 = _G[j];
+                }
+            }
+            else{
+                if(_alpha[j] >= _C){
+                    continue;
+                }
+                gradDiff = Gmax-_G[j];
+                if(-_G[j] >= Gmax2){
+                    Gmax2 = -_G[j];
+                }
+            }
+            if(gradDiff > 0){
+                //K(x,x) = 1 for the RBF kernel
+                double quad = 2-2*Ki[_index[j]];
+                double obj = -(gradDiff*gradDiff)/((quad > 0) ? quad : TAU);
+                if(obj <= objMin){
+                    jmin = j;
+                    objMin = obj;
+                }
+            }
+        }
+        if((Gmax+Gmax2 < _eps) || (jmin == -1)){
+            return false;
+        }
+        ws[0] = imax;
+        ws[1] = jmin;
+        return true;
+    }
+
+    /**
+     * Minimize the objective over the coefficients i and j, and update
+     * the gradient.
+     */
+    private void update(int i, int j){
+        float[] Ki = getRow(_index[i]);
+        float[] Kj = getRow(_index[j]);
+        double yi = _y[i];
+        double yj = _y[j];
+        double Kij = Ki[_index[j]];
+        double oldAi = _alpha[i];
+        double oldAj = _alpha[j];
+        double ai = oldAi;
+        double aj = oldAj;
+        double C = _C;
+        if(yi != yj){
+            double quad = 2+2*(yi*yj*Kij);
+            if(quad <= 0){
+                quad = TAU;
+            }
+            double delta = (-_G[i]-_G[j])/quad;
+            double diff = ai-aj;
+            ai += delta;
+            aj += delta;
+            if(diff > 0){
+                if(aj < 0){
+                    aj = 0;
+                    ai = diff;
+                }
+            }
+            else{
+                if(ai < 0){
+                    ai = 0;
+                    aj = -diff;
+                }
+            }
+            if(diff > 0){
+                if(ai > C){
+                    ai = C;
+                    aj = C-diff;
+                }
+            }
+            else{
+                if(aj > C){
+                    aj = C;
+                    ai = C+diff;
+                }
+            }
+        }
+        else{
+            double quad = 2-2*(yi*yj*Kij);
+            if(quad <= 0){
+                quad = TAU;
+            }
+            double delta = (_G[i]-_G[j])/quad;
+            double sum = ai+aj;
+            ai -= delta;
+            aj += delta;
+            if(sum > C){
+                if(ai > C){
+                    ai = C;
+                    aj = sum-C;
+                }
+            }
+            else{
+                if(aj < 0){
+                    aj = 0;
+                    ai = sum;
+                }
+            }
+            if(sum > C){
+                if(aj > C){
+                    aj = C;
+                    ai = sum-C;
+                }
+            }
+            else{
+                if(ai < 0){
+                    ai = 0;
+                    aj = sum;
+                }
+            }
+        }
+        _alpha[i] = ai;
+        _alpha[j] = aj;
+
+        double dai = (ai-oldAi)*yi;
+        double daj = (aj-oldAj)*yj;
+        for(int k=0; k<_activeSize; k++){
+            int xk = _index[k];
+            _G[k] += _y[k]*(Ki[xk]*dai+Kj[xk]*daj);
+        }
+        boolean wasUpperI = (oldAi >= C);
+        boolean wasUpperJ = (oldAj >= C);
+        if(wasUpperI != (ai >= C)){
+            double c = wasUpperI ? -C*yi : C*yi;
+            for(int k=0; k<_l; k++){
+                _Gbar[k] += c*_y[k]*Ki[_index[k]];
+            }
+        }
+        if(wasUpperJ != (aj >= C)){
+            double c = wasUpperJ ? -C*yj : C*yj;
+            for(int k=0; k<_l; k++){
+                _Gbar[k] += c*_y[k]*Kj[_index[k]];
+            }
+        }
+    }
+
+    /**
+     * Move the examples whose coefficient is at a bound and unlikely
+     * to change to the end of the problem, out of the active set.
+     */
+    private void shrink(){
+        double Gmax1 = Double.NEGATIVE_INFINITY;
+        double Gmax2 = Double.NEGATIVE_INFINITY;
+        for(int t=0; t<_activeSize; t++){
+            if(_y[t] > 0){
+                if(_alpha[t] < _C){
+                    Gmax1 = Math.max(Gmax1, -_G[t]);
+                }
+                if(_alpha[t] > 0){
+                    Gmax2 = Math.max(Gmax2, _G[t]);
+                }
+            }
+            else{
+                if(_alpha[t] < _C){
+                    Gmax2 = Math.max(Gmax2, -_G[t]);
+                }
+                if(_alpha[t] > 0){
+                    Gmax1 = Math.max(Gmax1, _G[t]);
+                }
+            }
+        }
+        if(!_unshrink && (Gmax1+Gmax2 <= _eps*10)){
+            //close to the solution: shrink again from the full problem
+            _unshrink = true;
+            reconstructGradient();
+            _activeSize = _l;
+        }
+        for(int t=0; t<_activeSize; t++){
+            if(isShrinkable(t, Gmax1, Gmax2)){
+                _activeSize--;
+                while(_activeSize > t){
+                    if(!isShrinkable(_activeSize, Gmax1, Gmax2)){
+                        swap(t, _activeSize);
+                        break;
+                    }
+                    _activeSize--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return whether the coefficient t is at a bound that the
+     * gradient keeps it at.
+     */
+    private boolean isShrinkable(int t, double Gmax1, double Gmax2){
+        if(_alpha[t] >= _C){
+            return (_y[t] > 0) ? (-_G[t] > Gmax1) : (-_G[t] > Gmax2);
+        }
+        else if(_alpha[t] <= 0){
+            return (_y[t] > 0) ? (_G[t] > Gmax2) : (_G[t] > Gmax1);
+        }
+        return false;
+    }
+
+    /**
+     * Exchange the positions s and t of the problem.
+     */
+    private void swap(int s, int t){
+        int ti = _index[s]; _index[s] = _index[t]; _index[t] = ti;
+        ti = _position[s]; _position[s] = _position[t]; _position[t] = ti;
+        double td = _y[s]; _y[s] = _y[t]; _y[t] = td;
+        td = _alpha[s]; _alpha[s] = _alpha[t]; _alpha[t] = td;
+        td = _G[s]; _G[s] = _G[t]; _G[t] = td;
+        td = _Gbar[s]; _Gbar[s] = _Gbar[t]; _Gbar[t] = td;
+    }
+
+    /**
+     * Recompute the gradient of the examples outside the active set
+     * from the coefficients strictly between the bounds.
+     */
+    private void reconstructGradient(){
+        if(_activeSize == _l){
+            return;
+        }
+        for(int k=_activeSize; k<_l; k++){
+            _G[k] = _Gbar[k]-1;
+        }
+        for(int i=0; i<_activeSize; i++){
+            if((_alpha[i] > 0) && (_alpha[i] < _C)){
+                float[] Ki = getRow(_index[i]);
+                double ai = _alpha[i]*_y[i];
+                for(int k=_activeSize; k<_l; k++){
+                    _G[k] += ai*_y[k]*Ki[_index[k]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the bias: the mean of y*G over the free coefficients, or
+     * the middle of the feasible range if there are none.
+     */
+    private double computeRho(){
+        double ub = Double.POSITIVE_INFINITY;
+        double lb = Double.NEGATIVE_INFINITY;
+        double sumFree = 0;
+        int numFree = 0;
+        for(int k=0; k<_l; k++){
+            double yG = _y[k]*_G[k];
+            if(_alpha[k] >= _C){
+                if(_y[k] < 0){
+                    ub = Math.min(ub,yG);
+                }
+                else{
+                    lb = Math.max(lb,yG);
+                }
+            }
+            else if(_alpha[k] <= 0){
+                if(_y[k] > 0){
+                    ub = Math.min(ub,yG);
+                }
+                else{
+                    lb = Math.max(lb,yG);
+                }
+            }
+            else{
+                numFree++;
+                sumFree += yG;
+            }
+        }
+        return (numFree > 0) ? sumFree/numFree : (ub+lb)/2;
+    }
+
+    /**
+     * Return the kernel row of example i, in which the values with
+     * the examples of the current problem are computed, computing and
+     * caching them if needed.
+     */
+    private float[] getRow(int i){
+        float[] row = _rows[i];
+        if(row != null){
+            unlink(i);
+            append(i);
+            if(row.length < _numExamples){
+                //examples were added since the row was cached
+                float[] grown = new float[_numExamples];
+                System.arraycopy(row, 0, grown, 0, row.length);
+                Arrays.fill(grown, row.length, _numExamples, Float.NaN);
+                row = grown;
+                _rows[i] = row;
+            }
+        }
+        else{
+            if(_cached >= _maxCached){
+                evict();
+            }
+            row = new float[_numExamples];
+            Arrays.fill(row, Float.NaN);
+            _rows[i] = row;
+            _filled[i] = 0;
+            _cached++;
+            append(i);
+        }
+        if(_filled[i] != _problem){
+            int n = _numFeatures;
+            int bi = i*n;
+            for(int k=0; k<_l; k++){
+                int j = _index[k];
+                if(Float.isNaN(row[j])){
+                    int bj = j*n;
+                    double sum = 0;
+                    for(int f=0; f<n; f++){
+                        double d = _x[bi+f]-_x[bj+f];
+                        sum += d*d;
+                    }
+                    row[j] = (float)Math.exp(-_gamma*sum);
+                }
+            }
+            _filled[i] = _problem;
+        }
+        return row;
+    }
+
+    /** Drop the least recently used row from the cache. */
+    private void evict(){
+        int lru = _head;
+        unlink(lru);
+        _rows[lru] = null;
+        _cached--;
+    }
+
+    /** Remove row i from the LRU list. */
+    private void unlink(int i){
+        if(_prev[i] != -1){
+            _next[_prev[i]] = _next[i];
+        }
+        else{
+            _head = _next[i];
+        }
+        if(_next[i] != -1){
+            _prev[_next[i]] = _prev[i];
+        }
+        else{
+            _tail = _prev[i];
+        }
+    }
+
+    /** Add row i at the most recently used end of the LRU list. */
+    private void append(int i){
+        _prev[i] = _tail;
+        _next[i] = -1;
+        if(_tail != -1){
+            _next[_tail] = i;
+        }
+        else{
+            _head = i;
+        }
+        _tail = i;
+    }
+}
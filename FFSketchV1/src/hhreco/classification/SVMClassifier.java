@@ -13,6 +13,21 @@ import java.io.*;
 /**
  * This class uses libsvm, a SVM software library written in Java, to
  * do SVM classification. [1]<p>
+ *
+ * By default, after training an RBF model, the model is also exported
+ * into a DenseSVMModel, which classify() then uses instead of
+ * svm.svm_predict.  It predicts the same labels without building
+ * svm_node arrays or a scaled FeatureSet for each example.  Dense
+ * prediction can be turned off with setDensePrediction(false).  The
+ * dense model can also decide the label with a decision DAG instead
+ * of voting (see setDecisionMode).<p>
+ *
+ * With setTrainingParallelism(n) for n &gt; 1, a C_SVC model with an
+ * RBF kernel is trained by ParallelSVMTrainer, which solves the
+ * one-vs-one problems of the classes concurrently and produces the
+ * DenseSVMModel directly; it predicts the same labels as the model
+ * svm.svm_train would produce.  No svm_model is kept in that case.<p>
+ *
  * [1]Chih-Chung Chang and Chih-Jen Lin
  * http://www.csie.ntu.edu.tw/~cjlin/libsvm
  * 
@@ -24,8 +39,11 @@ public class SVMClassifier implements TrainableClassifier {
     private HashMap _labelToType = new HashMap();
     private svm_model _svmModel;
     private svm_parameter _svmParam=null;
-    private double[] _minFeatureVals;
-    private double[] _maxFeatureVals;
+    private FeatureScaler _scaler = null;
+    private boolean _densePrediction = true;
+    private DenseSVMModel _denseModel = null;
+    private int _trainingParallelism = 1;
+    private int _decisionMode = DenseSVMModel.VOTING;
 
     /**
      *  Create a SVM Classifier with default parameters and specify
@@ -50,15 +68,7 @@ public class SVMClassifier implements TrainableClassifier {
      * Classify the given example using a single-class classifier.
      */
     private Classification classifySingle(FeatureSet fs) {
-        if(_normalizeScale){
-            fs = scale(fs);
-        }
-        svm_node[] ex = new svm_node[fs.getFeatureCount()];
-        for(int j=0; j<fs.getFeatureCount(); j++){
-            ex[j]=new svm_node();
-            ex[j].index=j;
-            ex[j].value=fs.getFeature(j);
-        }
+        svm_node[] ex = toNodes(fs);
         double val = svm.svm_predict(_svmModel, ex);
         String[] types = new String[1];
         double[] confidences = new double[1];
@@ -75,16 +85,15 @@ public class SVMClassifier implements TrainableClassifier {
             System.out.println("ONE_CLASS");
             return classifySingle(fs);
         }
+        else if(_denseModel != null){
+            int label = _denseModel.predict(fs.getFeatures());
+            String type =(String)_labelToType.get(Integer.valueOf(label));
+            String[] types = {type};
+            double[] values = {1.0};
+            return new Classification(types,values);
+        }
         else{
-            if(_normalizeScale){
-                fs = scale(fs);
-            }
-            svm_node[] ex = new svm_node[fs.getFeatureCount()];
-            for(int j=0; j<fs.getFeatureCount(); j++){
-                ex[j]=new svm_node();
-                ex[j].index=j;
-                ex[j].value=fs.getFeature(j);
-            }
+            svm_node[] ex = toNodes(fs);
             int label = (int)svm.svm_predict(_svmModel, ex);
             String type =(String)_labelToType.get(new Integer(label));
             String[] types = {type};
@@ -115,6 +124,66 @@ public class SVMClassifier implements TrainableClassifier {
         }
     }
 
+    /**
+     * Classify the given examples.
+     */
+    public Classification[] classify(FeatureSet[] examples) throws ClassifierException {
+        return classify(FeatureSet.toMatrix(examples));
+    }
+
+    /**
+     * Classify the examples in the rows of the matrix.  With dense
+     * prediction, the examples are predicted four at a time by
+     * DenseSVMModel; otherwise one svm_node array and one scaling
+     * buffer are reused for all of them.  The examples predicted to
+     * be of the same type share their classification.
+     */
+    public Classification[] classify(double[][] matrix) throws ClassifierException {
+        for(int r=0; r<matrix.length; r++){
+            if(matrix[r].length != _numFeatures){
+                throw new ClassifierException("Incorrect number of features: "+matrix[r].length+", should be "+ _numFeatures);
+            }
+        }
+        Classification[] result = new Classification[matrix.length];
+        if(_svmParam.svm_type == svm_parameter.ONE_CLASS){
+            for(int r=0; r<matrix.length; r++){
+                result[r] = classifySingle(new FeatureSet(matrix[r]));
+            }
+            return result;
+        }
+        int[] labels = new int[matrix.length];
+        if(_denseModel != null){
+            _denseModel.predict(matrix, labels);
+        }
+        else{
+            svm_node[] ex = new svm_node[_numFeatures];
+            for(int j=0; j<_numFeatures; j++){
+                ex[j]=new svm_node();
+                ex[j].index=j;
+            }
+            for(int r=0; r<matrix.length; r++){
+                double[] vals = matrix[r];
+                for(int j=0; j<_numFeatures; j++){
+                    ex[j].value = _normalizeScale ? _scaler.transform(j, vals[j]) : vals[j];
+                }
+                labels[r] = (int)svm.svm_predict(_svmModel, ex);
+            }
+        }
+        HashMap byLabel = new HashMap();
+        for(int r=0; r<matrix.length; r++){
+            Integer label = Integer.valueOf(labels[r]);
+            Classification cl = (Classification)byLabel.get(label);
+            if(cl == null){
+                String[] types = {(String)_labelToType.get(label)};
+                double[] values = {1.0};
+                cl = new Classification(types,values);
+                byLabel.put(label, cl);
+            }
+            result[r] = cl;
+        }
+        return result;
+    }
+
     /**
      * A simple data structure to temporarily store classification
      * results.
@@ -136,22 +205,35 @@ public class SVMClassifier implements TrainableClassifier {
      * will scale the data values to be in the range of 0 and 1.
      */
     public void train(TrainingSet tset, int numFeatures) throws ClassifierException{
-        _numFeatures = numFeatures;
+        train(new FeatureMatrix(tset, numFeatures));
+    }
+
+    /**
+     * Same as train(TrainingSet, int), with the examples in a matrix.
+     * The examples are scaled as they are converted, without making a
+     * scaled copy of the matrix.
+     */
+    public void train(FeatureMatrix m) throws ClassifierException{
+        _numFeatures = m.getFeatureCount();
         if(_normalizeScale){
-            tset = scale(tset,0,1);//scale values to be in the range of 0 and 1
+            //scale values to be in the range of 0 and 1
+            _scaler = new FeatureScaler(FeatureScaler.MIN_MAX, _numFeatures);
+            _scaler.fit(m);
         }
+        double[] data = m.getData();
         ArrayList list = new ArrayList();
         int label=1;
-        for(Iterator types = tset.types(); types.hasNext();){
-            String type = (String)types.next();
-            _labelToType.put(new Integer(label),type);
-            for(Iterator examples = tset.positiveExamples(type); examples.hasNext();){
-                FeatureSet fs = (FeatureSet)examples.next();
-                svm_node[] ex = new svm_node[fs.getFeatureCount()];
-                for(int j=0; j<fs.getFeatureCount(); j++){
+        for(int t=0; t<m.getTypeCount(); t++){
+            _labelToType.put(Integer.valueOf(label),m.getType(t));
+            int[] rows = m.getRows(t, true);
+            for(int k=0; k<rows.length; k++){
+                int base = rows[k]*_numFeatures;
+                svm_node[] ex = new svm_node[_numFeatures];
+                for(int j=0; j<_numFeatures; j++){
                     ex[j]=new svm_node();
                     ex[j].index=j;
-                    ex[j].value=fs.getFeature(j);
+                    double v = data[base+j];
+                    ex[j].value = _normalizeScale ? _scaler.transform(j, v) : v;
                 }
                 list.add(new Example(label,ex));
             }
@@ -172,8 +254,160 @@ public class SVMClassifier implements TrainableClassifier {
         if(_svmParam==null){
             _svmParam = defaultSVMParam();
         }
+        if(isParallelTraining()){
+            _svmModel = null;
+            _denseModel = trainParallel(list, label-1);
+            return;
+        }
         _svmModel = svm.svm_train(prob,_svmParam);
+        _denseModel = null;
+        if(_densePrediction){
+            _denseModel = createDenseModel();
+        }
+    }
+
+    /**
+     * Return whether the next call to train uses ParallelSVMTrainer.
+     * This is the case if the training parallelism is more than 1,
+     * dense prediction is on, and the parameters are for C_SVC with an
+     * RBF kernel and no class weights.
+     */
+    private boolean isParallelTraining(){
+        return (_trainingParallelism > 1) && _densePrediction &&
+            (_svmParam.svm_type == svm_parameter.C_SVC) &&
+            (_svmParam.kernel_type == svm_parameter.RBF) &&
+            (_svmParam.nr_weight == 0);
+    }
+
+    /**
+     * Train a DenseSVMModel on the given examples, which are grouped
+     * by label 1...numClasses, with ParallelSVMTrainer.
+     */
+    private DenseSVMModel trainParallel(ArrayList list, int numClasses) throws ClassifierException {
+        int num = list.size();
+        double[][] x = new double[num][_numFeatures];
+        int[] count = new int[numClasses];
+        int[] labels = new int[numClasses];
+        for(int i=0; i<numClasses; i++){
+            labels[i] = i+1;
+        }
+        for(int i=0; i<num; i++){
+            Example ex = (Example)list.get(i);
+            for(int j=0; j<ex.nodes.length; j++){
+                x[i][ex.nodes[j].index] = ex.nodes[j].value;
+            }
+            count[ex.label-1]++;
+        }
+        ParallelSVMTrainer trainer = new ParallelSVMTrainer(_svmParam, _trainingParallelism);
+        DenseSVMModel dense = trainer.train(x, count, labels, _numFeatures);
+        if(_normalizeScale){
+            dense.setScaler(_scaler);
+        }
+        dense.setDecisionMode(_decisionMode);
+        return dense;
+    }
+
+    /**
+     * Set the number of one-vs-one problems solved at once during
+     * training.  With 1 (the default), the model is trained by
+     * svm.svm_train.  With more, a C_SVC model with an RBF kernel is
+     * trained by ParallelSVMTrainer; the classifier then predicts the
+     * same labels, but getModel() returns null.  This takes effect the
+     * next time the classifier is trained.
+     */
+    public void setTrainingParallelism(int parallelism){
+        if(parallelism < 1){
+            throw new IllegalArgumentException("SVMClassifier: parallelism="+parallelism+", must be at least 1");
+        }
+        _trainingParallelism = parallelism;
+    }
+
+    /**
+     * Return the number of one-vs-one problems solved at once during
+     * training.
+     */
+    public int getTrainingParallelism(){
+        return _trainingParallelism;
+    }
+
+    /**
+     * Export the trained model into a DenseSVMModel that applies the
+     * same scaling.  Return null if the model is not a multi-class
+     * RBF model, or cannot be exported.
+     */
+    private DenseSVMModel createDenseModel(){
+        if(((_svmParam.svm_type != svm_parameter.C_SVC) && (_svmParam.svm_type != svm_parameter.NU_SVC)) ||
+                (_svmParam.kernel_type != svm_parameter.RBF)){
+            return null;
+        }
+        try{
+            DenseSVMModel dense = DenseSVMModel.fromModel(_svmModel, _numFeatures);
+            if(_normalizeScale){
+                dense.setScaler(_scaler);
+            }
+            dense.setDecisionMode(_decisionMode);
+            return dense;
+        }
+        catch(IOException ex){
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Set whether classify() uses a DenseSVMModel exported from the
+     * trained model instead of svm.svm_predict.  This takes effect
+     * the next time the classifier is trained.
+     */
+    public void setDensePrediction(boolean val){
+        _densePrediction = val;
+    }
+
+    /**
+     * Return whether classify() uses a dense copy of the model.
+     */
+    public boolean isDensePrediction(){
+        return _densePrediction;
+    }
+
+    /**
+     * Set how the dense model decides the label from the one-vs-one
+     * decision functions: DenseSVMModel.VOTING (the default) or
+     * DenseSVMModel.DAG, which evaluates k-1 of them for k classes
+     * (see DenseSVMModel).  svm.svm_predict always votes, so DAG only
+     * applies with dense prediction.  This takes effect at once.
+     */
+    public void setDecisionMode(int mode){
+        if((mode != DenseSVMModel.VOTING) && (mode != DenseSVMModel.DAG)){
+            throw new IllegalArgumentException("SVMClassifier: unknown decision mode "+mode);
+        }
+        _decisionMode = mode;
+        if(_denseModel != null){
+            _denseModel.setDecisionMode(mode);
+        }
+    }
+
+    /**
+     * Return DenseSVMModel.VOTING or DenseSVMModel.DAG.
+     */
+    public int getDecisionMode(){
+        return _decisionMode;
+    }
 
+    /**
+     * Return the trained libsvm model, or null if the classifier has
+     * not been trained or was trained by ParallelSVMTrainer.
+     */
+    public svm_model getModel(){
+        return _svmModel;
+    }
+
+    /**
+     * Return the dense copy of the trained model used by classify(),
+     * or null if there is none.
+     */
+    public DenseSVMModel getDenseModel(){
+        return _denseModel;
     }
 
     /**
@@ -200,68 +434,56 @@ public class SVMClassifier implements TrainableClassifier {
         return p;
     }
 
+    /**
+     * Convert the given example into libsvm nodes, scaled if scaling
+     * is indicated.
+     */
+    private svm_node[] toNodes(FeatureSet fs){
+        double[] vals = fs.getFeatures();
+        svm_node[] ex = new svm_node[vals.length];
+        for(int j=0; j<vals.length; j++){
+            ex[j]=new svm_node();
+            ex[j].index=j;
+            ex[j].value = _normalizeScale ? _scaler.transform(j, vals[j]) : vals[j];
+        }
+        return ex;
+    }
+
+    /**
+     * Return the scaler fitted on the last training set, or null if
+     * the data is not scaled or the classifier has not been trained.
+     */
+    public FeatureScaler getScaler(){
+        return _scaler;
+    }
+
     /**
      * Scale the given feature vector based on the scale obtained from
-     * the training set.  This method is called by classify to scale
-     * the test example.
+     * the training set.  classify no longer calls this method; it
+     * scales the values as it converts them.
      */
     public FeatureSet scale(FeatureSet fvals){
         double[] normVals = new double[fvals.getFeatureCount()];
-        for(int i=0; i<fvals.getFeatureCount(); i++){
-            normVals[i] = (fvals.getFeature(i)-_minFeatureVals[i])/(_maxFeatureVals[i]-_minFeatureVals[i]);
-        }
+        _scaler.transform(fvals.getFeatures(), normVals);
         return new FeatureSet(normVals);
      }
 
-    
     /**
-     * Scale the feature values in the training set to be in the
-     * range of [min,max].
+     * Fit the scaling to the training set, and return a copy of it
+     * with the feature values scaled to the range [0,1].  (The range
+     * arguments are not used.)
      */
     public TrainingSet scale(TrainingSet tset, int min, int max){
-        _minFeatureVals = new double[_numFeatures];
-        _maxFeatureVals = new double[_numFeatures];
-        for(int i=0; i<_numFeatures; i++){
-            _minFeatureVals[i]=Double.POSITIVE_INFINITY;
-            _maxFeatureVals[i]=Double.NEGATIVE_INFINITY;
-        }
-        //figure out the minimum and maximum values of each feature
-        for(Iterator types = tset.types(); types.hasNext();){
-            String type = (String)types.next();
-            for(Iterator examples = tset.positiveExamples(type); examples.hasNext();){
-                FeatureSet fs = (FeatureSet)examples.next();
-                for(int i=0; i<fs.getFeatureCount(); i++){
-                    _minFeatureVals[i]=Math.min(_minFeatureVals[i],fs.getFeature(i));
-                    _maxFeatureVals[i]=Math.max(_maxFeatureVals[i],fs.getFeature(i));
-                }
-            }
-            for(Iterator examples = tset.negativeExamples(type); examples.hasNext();){
-                FeatureSet fs = (FeatureSet)examples.next();
-                for(int i=0; i<fs.getFeatureCount(); i++){
-                    _minFeatureVals[i]=Math.min(_minFeatureVals[i],fs.getFeature(i));
-                    _maxFeatureVals[i]=Math.max(_maxFeatureVals[i],fs.getFeature(i));
-                }
-            }
-        }
-        //scale feature values to be in the range of [0,1]
+        _scaler = new FeatureScaler(FeatureScaler.MIN_MAX, _numFeatures);
+        _scaler.fit(tset);
         TrainingSet normalizedSet = new TrainingSet();
         for(Iterator types = tset.types(); types.hasNext();){
             String type = (String)types.next();
             for(Iterator examples = tset.positiveExamples(type); examples.hasNext();){
-                FeatureSet fs = (FeatureSet)examples.next();
-                double[] vals = new double[_numFeatures];
-                for(int i=0; i<fs.getFeatureCount(); i++){
-                    vals[i] = (fs.getFeature(i)-_minFeatureVals[i])/(_maxFeatureVals[i]-_minFeatureVals[i]);
-                }
-                normalizedSet.addPositiveExample(type, new FeatureSet(vals));
+                normalizedSet.addPositiveExample(type, scale((FeatureSet)examples.next()));
             }
             for(Iterator examples = tset.negativeExamples(type); examples.hasNext();){
-                FeatureSet fs = (FeatureSet)examples.next();
-                double[] vals = new double[_numFeatures];
-                for(int i=0; i<fs.getFeatureCount(); i++){
-                    vals[i] = (fs.getFeature(i)-_minFeatureVals[i])/(_maxFeatureVals[i]-_minFeatureVals[i]);
-                }
-                normalizedSet.addNegativeExample(type, new FeatureSet(vals));
+                normalizedSet.addNegativeExample(type, scale((FeatureSet)examples.next()));
             }
         }
         return normalizedSet;
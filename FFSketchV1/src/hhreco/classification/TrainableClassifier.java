@@ -23,6 +23,12 @@ public interface TrainableClassifier extends Classifier {
      */
     public void train(TrainingSet s,int numFeatures) throws ClassifierException;
 
+    /**
+     * Train the classifier with the examples of the given matrix, in
+     * the same way as with a training set holding the same examples.
+     */
+    public void train(FeatureMatrix m) throws ClassifierException;
+
     /**
      * Return whether this classifier is incremental, i.e. whether
      * this classifier can support multiple calls to "train".
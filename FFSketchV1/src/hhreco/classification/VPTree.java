@@ -0,0 +1,302 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.classification;
+import hhreco.util.Kernels;
+
+/**
+ * A vantage-point tree over a set of vectors, for exact nearest
+ * neighbor search under the Euclidean distance. <p>
+ *
+ * Each node holds one vector (the vantage point) and the median
+ * distance mu from it to the vectors below the node; the vectors
+ * closer than mu go to the inner subtree, the others to the outer
+ * one.  A search keeps the k nearest vectors found so far in a
+ * Neighbors heap, and by the triangle inequality skips any subtree
+ * that cannot hold a vector closer than the k-th one, so that for
+ * well clustered data only a small part of the tree is visited.
+ */
+public class VPTree {
+    /** The vectors, which are not copied. */
+    private double[][] _vectors;
+
+    /** The vector at each node. */
+    private int[] _point;
+
+    /** The median distance from the vector of each node. */
+    private double[] _mu;
+
+    /** The inner and outer subtree of each node, or -1. */
+    private int[] _inner, _outer;
+
+    /** The number of nodes created so far while building. */
+    private int _numNodes;
+
+    /** The kernels the distances are computed with. */
+    private Kernels _kernels = Kernels.getInstance();
+
+    /**
+     * Build a tree over the given vectors, which must all have the
+     * same length and must not be modified afterwards.
+     */
+    public VPTree(double[][] vectors){
+        _vectors = vectors;
+        int n = vectors.length;
+        _point = new int[n];
+        _mu = new double[n];
+        _inner = new int[n];
+        _outer = new int[n];
+        int[] index = new int[n];
+        for(int i=0; i<n; i++){
+            index[i] = i;
+        }
+        build(index, new double[n], 0, n);
+    }
+
+    /**
+     * Build the subtree over the vectors index[from] to index[to-1],
+     * and return its root, or -1 if the range is empty.  The first
+     * vector of the range is the vantage point.
+     */
+    private int build(int[] index, double[] dist, int from, int to){
+        if(from >= to){
+            return -1;
+        }
+        int node = _numNodes++;
+        int vp = index[from];
+        _point[node] = vp;
+        _inner[node] = -1;
+        _outer[node] = -1;
+        if(to-from == 1){
+            return node;
+        }
+        for(int i=from+1; i<to; i++){
+            dist[i] = distance(_vectors[vp], _vectors[index[i]]);
+        }
+        int mid = (from+1+to)/2;
+        select(index, dist, from+1, to-1, mid);
+        _mu[node] = dist[mid];
+        _inner[node] = build(index, dist, from+1, mid);
+        _outer[node] = build(index, dist, mid, to);
+        return node;
+    }
+
+    /**
+     * Reorder index[lo..hi] and dist[lo..hi] so that dist[k] holds the
+     * value it would have if they were sorted by distance, with no
+     * larger distances before it and no smaller ones after it.
+     */
+    private static void select(int[] index, double[] dist, int lo, int hi, int k){
+        while(hi > lo){
+            double pivot = dist[(lo+hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while(i <= j){
+                while(dist[i] < pivot){
+                    i++;
+                }
+                while(dist[j] > pivot){
+                    j--;
+                }
+                if(i <= j){
+                    double td = dist[i]; dist[i] = dist[j]; dist[j] = td;
+                    int ti = index[i]; index[i] = index[j]; index[j] = ti;
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j){
+                hi = j;
+            }
+            else if(k >= i){
+                lo = i;
+            }
+            else{
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the number of vectors in the tree.
+     */
+    public int size(){
+        return _vectors.length;
+    }
+
+    /**
+     * Offer every vector of the tree that may be among the nearest
+     * neighbors of 'query' to the heap, with the id offset+i for the
+     * vector i.  Vectors farther than the current bound of the heap
+     * are skipped.
+     */
+    public void search(double[] query, Neighbors heap, int offset){
+        search(query, null, 1, heap, offset);
+    }
+
+    /**
+     * Same as search(double[], Neighbors, int), but with the
+     * distances offered to the heap weighted: the squared difference
+     * of element i is multiplied by w[i].  The tree is still pruned
+     * with the unweighted distances it was built with, which are at
+     * most the weighted ones divided by 'scale', the square root of
+     * the smallest weight.  The search remains exact, but prunes less
+     * as the weights move away from 1.  If w is null, the distances
+     * are not weighted and scale must be 1.
+     */
+    public void search(double[] query, double[] w, double scale, Neighbors heap, int offset){
+        if(_vectors.length > 0){
+            search(0, query, w, scale, heap, offset);
+        }
+    }
+
+    private void search(int node, double[] query, double[] w, double scale, Neighbors heap, int offset){
+        double[] v = _vectors[_point[node]];
+        double d = distance(query, v);
+        heap.offer((w == null) ? d : Math.sqrt(_kernels.weightedSquaredDistance(query, v, w, v.length)), offset+_point[node]);
+        double mu = _mu[node];
+        double bound = heap.bound()/scale;
+        if(d < mu){
+            if((_inner[node] != -1) && (d-bound <= mu)){
+                search(_inner[node], query, w, scale, heap, offset);
+                bound = heap.bound()/scale;
+            }
+            if((_outer[node] != -1) && (d+bound >= mu)){
+                search(_outer[node], query, w, scale, heap, offset);
+            }
+        }
+        else{
+            if((_outer[node] != -1) && (d+bound >= mu)){
+                search(_outer[node], query, w, scale, heap, offset);
+                bound = heap.bound()/scale;
+            }
+            if((_inner[node] != -1) && (d-bound <= mu)){
+                search(_inner[node], query, w, scale, heap, offset);
+            }
+        }
+    }
+
+    /**
+     * Return the weighted Euclidean distance of the two vectors.
+     */
+    public static double weightedDistance(double[] a, double[] b, double[] w){
+        return Math.sqrt(Kernels.getInstance().weightedSquaredDistance(a, b, w, a.length));
+    }
+
+    /**
+     * Return the Euclidean distance of the two vectors.
+     */
+    private double distance(double[] a, double[] b){
+        return Math.sqrt(_kernels.squaredDistance(a, b, a.length));
+    }
+
+    /**
+     * The k nearest neighbors found so far: a max-heap of at most k
+     * (distance, id) pairs, with the farthest one on top.
+     */
+    public static class Neighbors {
+        private double[] _dist;
+        private int[] _id;
+        private int _size;
+
+        /**
+         * Create a heap that keeps the k nearest neighbors.
+         */
+        public Neighbors(int k){
+            if(k < 1){
+                throw new IllegalArgumentException("Neighbors: k="+k+", must be at least 1");
+            }
+            _dist = new double[k];
+            _id = new int[k];
+        }
+
+        /**
+         * Remove all the neighbors.
+         */
+        public void clear(){
+            _size = 0;
+        }
+
+        /**
+         * Return the number of neighbors kept.
+         */
+        public int size(){
+            return _size;
+        }
+
+        /**
+         * Return the distance beyond which a neighbor is not kept:
+         * that of the k-th nearest one, or infinity if there are
+         * fewer than k.
+         */
+        public double bound(){
+            return (_size < _dist.length) ? Double.POSITIVE_INFINITY : _dist[0];
+        }
+
+        /**
+         * Keep the given neighbor if it is among the k nearest so far.
+         */
+        public void offer(double dist, int id){
+            if(_size < _dist.length){
+                //sift up
+                int i = _size++;
+                while(i > 0){
+                    int parent = (i-1)/2;
+                    if(_dist[parent] >= dist){
+                        break;
+                    }
+                    _dist[i] = _dist[parent];
+                    _id[i] = _id[parent];
+                    i = parent;
+                }
+                _dist[i] = dist;
+                _id[i] = id;
+            }
+            else if(dist < _dist[0]){
+                siftDown(dist, id, _size);
+            }
+        }
+
+        /**
+         * Put the given pair at the top of the first n elements and
+         * move it down to its place.
+         */
+        private void siftDown(double dist, int id, int n){
+            int i = 0;
+            while(true){
+                int child = 2*i+1;
+                if(child >= n){
+                    break;
+                }
+                if((child+1 < n) && (_dist[child+1] > _dist[child])){
+                    child++;
+                }
+                if(_dist[child] <= dist){
+                    break;
+                }
+                _dist[i] = _dist[child];
+                _id[i] = _id[child];
+                i = child;
+            }
+            _dist[i] = dist;
+            _id[i] = id;
+        }
+
+        /**
+         * Sort the neighbors from the nearest to the farthest, and
+         * write their distances and ids into the given arrays, which
+         * must have room for size() elements.  The heap is emptied.
+         */
+        public void drain(double[] dist, int[] id){
+            for(int n=_size; n>0; n--){
+                dist[n-1] = _dist[0];
+                id[n-1] = _id[0];
+                siftDown(_dist[n-1], _id[n-1], n-1);
+            }
+            _size = 0;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+import hhreco.classification.*;
+import hhreco.toolbox.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A recognizer that trains in the background while it keeps
+ * recognizing.  Its trained state is a snapshot: an HHRecognizer that
+ * is never modified once it has been published.  Training, and
+ * retraining after corrections, build a new snapshot with a new
+ * classifier from the ClassifierFactory on a single background
+ * thread, and publish it by replacing one atomic reference.
+ * sessionCompleted() recognizes with whatever snapshot is current, so
+ * it never waits for training, and may be called from any thread. <p>
+ *
+ * Corrections given to addAndRetrain are queued, and all the
+ * corrections that arrive before the background thread gets to them
+ * are learned by a single retraining.  If the classifiers are
+ * PersistentClassifiers, the trained state of the current one is
+ * copied into the new one (see HHRecognizer.copy), and an incremental
+ * classifier such as DenseSVMClassifier is then only given the
+ * corrections; otherwise the new snapshot is trained from scratch.
+ * If the retraining fails, the corrections are queued again, to be
+ * learned with the next ones, and the error is printed.
+ */
+public class BackgroundRecognizer implements MultiStrokeRecognizer {
+    /**
+     * The feature extractors of every snapshot.
+     */
+    private FeatureExtractor[] _extractors;
+
+    /**
+     * Creates the classifier of every snapshot.
+     */
+    private ClassifierFactory _factory;
+
+    /**
+     * The feature cache given to the recognizers, or null.
+     */
+    private FeatureCache _cache = null;
+
+    /**
+     * The maximum number of recognitions of the recognizers.
+     */
+    private volatile int _maxRecognitions = HHRecognizer.DEFAULT_MAX_RECOGNITIONS;
+
+    /**
+     * The current snapshot (an HHRecognizer), or null before the
+     * first training.
+     */
+    private AtomicReference _snapshot = new AtomicReference();
+
+    /**
+     * The number of snapshots published so far.
+     */
+    private volatile int _version = 0;
+
+    /**
+     * The thread that builds the snapshots.
+     */
+    private ExecutorService _executor;
+
+    /**
+     * The corrections not learned yet, and the retraining that will
+     * learn them, or null if none is scheduled.  Guarded by _pending.
+     */
+    private ArrayList _pending = new ArrayList();
+    private Future _scheduled = null;
+
+    /**
+     * Create a recognizer that uses the default Zernike Moments
+     * feature extractor and DenseSVMClassifier.
+     */
+    public BackgroundRecognizer(){
+        this(HHRecognizer.defaultFeatureExtractors(), new DefaultFactory());
+    }
+
+    /**
+     * Create a recognizer with the given feature extractors, whose
+     * classifiers are created by the given factory.
+     */
+    public BackgroundRecognizer(FeatureExtractor[] extractors, ClassifierFactory factory){
+        _extractors = extractors;
+        _factory = factory;
+        _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BackgroundRecognizer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Set the feature cache used when training from a training
+     * model, or null for none.
+     */
+    public void setFeatureCache(FeatureCache cache){
+        _cache = cache;
+    }
+
+    /**
+     * Return the feature cache, or null if there is none.
+     */
+    public FeatureCache getFeatureCache(){
+        return _cache;
+    }
+
+    /**
+     * Set the maximum number of recognitions returned by
+     * sessionCompleted (see HHRecognizer.setMaxRecognitions).  Since
+     * a published snapshot is never modified, it applies from the
+     * next snapshot on.
+     */
+    public void setMaxRecognitions(int max){
+        if(max < 0){
+            throw new IllegalArgumentException("BackgroundRecognizer: max recognitions="+max+", must not be negative");
+        }
+        _maxRecognitions = max;
+    }
+
+    /**
+     * Return the maximum number of recognitions of the next snapshot.
+     */
+    public int getMaxRecognitions(){
+        return _maxRecognitions;
+    }
+
+    /**
+     * Train a new snapshot from scratch with the examples of the given
+     * model in the background (see HHRecognizer.train(MSTrainingModel)).
+     * Return a Future that completes when the snapshot has been
+     * published.  Corrections queued before this call are learned
+     * by the old snapshot and are lost when it is replaced.
+     */
+    public Future train(MSTrainingModel model){
+        return train(model, null, null, false);
+    }
+
+    /**
+     * Same as train(MSTrainingModel), except that the examples are
+     * preprocessed first (see HHRecognizer.train(MSTrainingModel,
+     * ApproximateStrokeFilter, InterpolateStrokeFilter)).
+     */
+    public Future train(MSTrainingModel model, ApproximateStrokeFilter approx, InterpolateStrokeFilter interp){
+        return train(model, approx, interp, true);
+    }
+
+    /**
+     * Submit the training of a new snapshot.
+     */
+    private Future train(final MSTrainingModel model, final ApproximateStrokeFilter approx,
+            final InterpolateStrokeFilter interp, final boolean preprocess){
+        return _executor.submit(new Callable() {
+                public Object call() {
+                    HHRecognizer r = createRecognizer();
+                    if(preprocess){
+                        r.train(model, approx, interp);
+                    }
+                    else{
+                        r.train(model);
+                    }
+                    publish(r);
+                    return r;
+                }
+            });
+    }
+
+    /**
+     * Queue the given shape, which must have been preprocessed, as a
+     * positive example of 'type', and return at once.  A new snapshot
+     * is trained in the background with the examples of the current
+     * one plus all the queued shapes.  Return a Future that completes
+     * when that snapshot has been published, or fails with the error
+     * of the retraining.
+     */
+    public Future addAndRetrain(String type, TimedStroke[] strokes){
+        synchronized(_pending){
+            _pending.add(new Object[] {type, strokes});
+            if(_scheduled == null){
+                _scheduled = _executor.submit(new Callable() {
+                        public Object call() throws Exception {
+                            return retrain();
+                        }
+                    });
+            }
+            return _scheduled;
+        }
+    }
+
+    /**
+     * Learn the queued corrections: copy the current snapshot, or
+     * create a new one if its classifier cannot be copied, add the
+     * corrections to it, and publish it.  If this fails, the
+     * corrections are queued again in front of the ones that arrived
+     * meanwhile.
+     */
+    private HHRecognizer retrain() throws Exception {
+        Object[] corrections;
+        synchronized(_pending){
+            corrections = _pending.toArray();
+            _pending.clear();
+            _scheduled = null;
+        }
+        try{
+            HHRecognizer old = (HHRecognizer)_snapshot.get();
+            HHRecognizer r = (old == null) ? null : old.copy(_factory.createClassifier());
+            TrainingSet added;
+            if(r != null){
+                r.setFeatureCache(_cache);
+                r.setMaxRecognitions(_maxRecognitions);
+                added = new TrainingSet();
+            }
+            else{
+                //train from scratch on the examples of the snapshot
+                r = createRecognizer();
+                added = ((old == null) || (old.getTrainingSet() == null)) ?
+                    new TrainingSet() : HHRecognizer.copyTrainingSet(old.getTrainingSet());
+            }
+            int numFeatures = 0;
+            for(int i=0; i<corrections.length; i++){
+                Object[] c = (Object[])corrections[i];
+                FeatureSet fs = HHRecognizer.extractFeatures(_extractors, (TimedStroke[])c[1]);
+                numFeatures = fs.getFeatureCount();
+                added.addPositiveExample((String)c[0], fs);
+            }
+            r.addAndRetrain(added, numFeatures);
+            publish(r);
+            return r;
+        }
+        catch(Exception ex){
+            synchronized(_pending){
+                _pending.addAll(0, Arrays.asList(corrections));
+            }
+            ex.printStackTrace();
+            throw ex;
+        }
+    }
+
+    /**
+     * Create the recognizer of a new snapshot.
+     */
+    private HHRecognizer createRecognizer(){
+        HHRecognizer r = new HHRecognizer(_extractors, _factory.createClassifier());
+        r.setFeatureCache(_cache);
+        r.setMaxRecognitions(_maxRecognitions);
+        return r;
+    }
+
+    /**
+     * Make the given recognizer the current snapshot.
+     */
+    private void publish(HHRecognizer r){
+        _snapshot.set(r);
+        _version++;
+    }
+
+    /**
+     * Publish a snapshot restored from the given file, written by
+     * save() or HHRecognizer.save(), in the calling thread (see
+     * HHRecognizer.load).  An IOException is thrown, and the current
+     * snapshot is kept, if the file cannot be loaded.
+     */
+    public void load(File file) throws IOException {
+        HHRecognizer r = createRecognizer();
+        r.load(file);
+        publish(r);
+    }
+
+    /**
+     * Same as load(File), for a snapshot trained with
+     * train(MSTrainingModel, ApproximateStrokeFilter,
+     * InterpolateStrokeFilter) and the same filter settings (see
+     * HHRecognizer.load(File, ApproximateStrokeFilter,
+     * InterpolateStrokeFilter)).
+     */
+    public void load(File file, ApproximateStrokeFilter approx, InterpolateStrokeFilter interp) throws IOException {
+        HHRecognizer r = createRecognizer();
+        r.load(file, approx, interp);
+        publish(r);
+    }
+
+    /**
+     * Save the current snapshot to the given file (see
+     * HHRecognizer.save).  Since a snapshot is never modified once it
+     * has been published, this can be called while training runs in
+     * the background.  Throw an IllegalStateException before the
+     * first snapshot is published.
+     */
+    public void save(File file) throws IOException {
+        HHRecognizer r = (HHRecognizer)_snapshot.get();
+        if(r == null){
+            throw new IllegalStateException("BackgroundRecognizer has not been trained");
+        }
+        r.save(file);
+    }
+
+    /**
+     * Return the number of snapshots published so far.
+     */
+    public int getVersion(){
+        return _version;
+    }
+
+    /**
+     * Return whether a snapshot has been published.
+     */
+    public boolean isTrained(){
+        return _snapshot.get() != null;
+    }
+
+    /**
+     * Block until the training and retraining submitted so far have
+     * finished.
+     */
+    public void waitForTraining() throws InterruptedException {
+        try{
+            _executor.submit(new Runnable() {
+                    public void run() {}
+                }).get();
+        }
+        catch(java.util.concurrent.ExecutionException ex){
+            //cannot happen, the task does nothing
+        }
+    }
+
+    /**
+     * Stop the background thread once the submitted training is done.
+     * No training can be submitted afterwards.
+     */
+    public void shutdown(){
+        _executor.shutdown();
+    }
+
+    public RecognitionSet strokeStarted(TimedStroke s){
+        return null;
+    }
+
+    public RecognitionSet strokeModified(TimedStroke s){
+        return null;
+    }
+
+    public RecognitionSet strokeCompleted(TimedStroke s){
+        return null;
+    }
+
+    /**
+     * Recognize the given shape with the current snapshot.  The shape
+     * is assumed to have been scale and translation normalized.
+     * Return an empty set before the first snapshot is published.
+     */
+    public RecognitionSet sessionCompleted(TimedStroke strokes[]){
+        HHRecognizer r = (HHRecognizer)_snapshot.get();
+        if(r == null){
+            return new RecognitionSet();
+        }
+        return r.sessionCompleted(strokes);
+    }
+
+    /**
+     * Creates a DenseSVMClassifier that scales the data.
+     */
+    private static class DefaultFactory implements ClassifierFactory {
+        public TrainableClassifier createClassifier(){
+            return new DenseSVMClassifier(true);
+        }
+    }
+}
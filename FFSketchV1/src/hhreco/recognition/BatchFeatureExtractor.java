@@ -0,0 +1,31 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+/**
+ * A feature extractor that can extract the features of many examples
+ * at once into a single row-major matrix.  Implementations can look
+ * up their tables and buffers once for the whole batch instead of
+ * once per example, and do not allocate a result array per example.
+ * The features written for an example must be the same as those
+ * returned by apply(TimedStroke[]).
+ */
+public interface BatchFeatureExtractor extends FeatureExtractor {
+    /**
+     * Return the number of feature values extracted from an example.
+     */
+    public int getFeatureCount();
+
+    /**
+     * Extract the features of examples[from] to examples[to-1].  The
+     * features of examples[i] are written into 'out' starting at
+     * offset+(i-from)*stride, so a stride larger than
+     * getFeatureCount() leaves room for the features of other
+     * extractors in the same row.
+     */
+    public void apply(TimedStroke[][] examples, int from, int to, double[] out, int offset, int stride);
+}
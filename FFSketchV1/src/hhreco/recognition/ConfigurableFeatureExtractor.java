@@ -0,0 +1,23 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+/**
+ * A feature extractor that can describe its settings, so that features
+ * it has computed can be cached and found again (see FeatureCache and
+ * HHRecognizer.getConfiguration).  An extractor whose features depend
+ * on settings should implement it; otherwise extractors of the same
+ * class are assumed to compute the same features.
+ */
+public interface ConfigurableFeatureExtractor extends FeatureExtractor {
+    /**
+     * Return a string that identifies the class and the settings of
+     * the feature extractor.  Two extractors with equal configuration
+     * strings must compute the same features from the same strokes.
+     */
+    public String getConfiguration();
+}
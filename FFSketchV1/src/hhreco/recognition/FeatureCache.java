@@ -0,0 +1,292 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+import hhreco.classification.FeatureSet;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A persistent cache of extracted features.  Each entry maps a key to
+ * a feature vector, where the key is the SHA-1 digest of a
+ * configuration string and of the coordinates of the strokes (see
+ * computeKey).  The configuration string should identify everything
+ * the features depend on besides the strokes, e.g. the feature
+ * extractors and their settings and the preprocessing filters, so
+ * that a key only matches when the same computation would produce the
+ * same features.  HHRecognizer.getConfiguration builds such a
+ * string. <p>
+ *
+ * The whole cache is read from its file when it is created and
+ * written back by save(), followed by a CRC-32 of its contents.  A
+ * file that cannot be read, has an unknown format, or is truncated or
+ * corrupt is ignored, i.e. the cache starts out empty.  All methods
+ * are synchronized so that the cache can be filled from several
+ * extraction threads.
+ */
+public class FeatureCache {
+    /**
+     * The first int of a cache file.
+     */
+    private static final int MAGIC = 0x48484643;//"HHFC"
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The file the cache is stored in.
+     */
+    private File _file;
+
+    /**
+     * Map from key (a hex string) to double[] features.
+     */
+    private HashMap _entries = new HashMap();
+
+    /**
+     * Whether entries have been added since the cache was last read
+     * or saved.
+     */
+    private boolean _modified = false;
+
+    /**
+     * Create a cache stored in the given file, and read the entries
+     * in the file if it exists and is valid.
+     */
+    public FeatureCache(File file) throws IOException {
+        _file = file;
+        if(file.exists()){
+            load();
+        }
+    }
+
+    /**
+     * Return the key of the given strokes under the given
+     * configuration.
+     */
+    public static String computeKey(String configuration, TimedStroke[] strokes) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch(NoSuchAlgorithmException ex){
+            //every Java platform is required to support SHA-1
+            throw new RuntimeException(ex.toString());
+        }
+        try {
+            md.update(configuration.getBytes("UTF-8"));
+        }
+        catch(UnsupportedEncodingException ex){
+            throw new RuntimeException(ex.toString());
+        }
+        byte[] buf = new byte[16];
+        putInt(buf, 0, strokes.length);
+        md.update(buf, 0, 4);
+        for(int i=0; i<strokes.length; i++){
+            int num = strokes[i].getVertexCount();
+            putInt(buf, 0, num);
+            md.update(buf, 0, 4);
+            for(int j=0; j<num; j++){
+                putLong(buf, 0, Double.doubleToLongBits(strokes[i].getX(j)));
+                putLong(buf, 8, Double.doubleToLongBits(strokes[i].getY(j)));
+                md.update(buf, 0, 16);
+            }
+        }
+        byte[] digest = md.digest();
+        StringBuffer key = new StringBuffer(digest.length*2);
+        for(int i=0; i<digest.length; i++){
+            key.append(Character.forDigit((digest[i]>>4)&0xf, 16));
+            key.append(Character.forDigit(digest[i]&0xf, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Store v in big-endian order at buf[off...off+3].
+     */
+    private static void putInt(byte[] buf, int off, int v) {
+        for(int i=3; i>=0; i--){
+            buf[off+i] = (byte)v;
+            v >>>= 8;
+        }
+    }
+
+    /**
+     * Store v in big-endian order at buf[off...off+7].
+     */
+    private static void putLong(byte[] buf, int off, long v) {
+        for(int i=7; i>=0; i--){
+            buf[off+i] = (byte)v;
+            v >>>= 8;
+        }
+    }
+
+    /**
+     * Return the features stored under the given key, or null if
+     * there are none.  The returned FeatureSet is a copy.
+     */
+    public synchronized FeatureSet get(String key) {
+        double[] vals = (double[])_entries.get(key);
+        if(vals == null){
+            return null;
+        }
+        return new FeatureSet(vals.clone());
+    }
+
+    /**
+     * Store a copy of the given features under the given key.
+     */
+    public synchronized void put(String key, FeatureSet fs) {
+        _entries.put(key, fs.getFeatures().clone());
+        _modified = true;
+    }
+
+    /**
+     * Return the number of entries in the cache.
+     */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /**
+     * Remove all entries.  The file is not changed until save() is
+     * called.
+     */
+    public synchronized void clear() {
+        _entries.clear();
+        _modified = true;
+    }
+
+    /**
+     * Return whether entries have been added or removed since the
+     * cache was last read or saved.
+     */
+    public synchronized boolean isModified() {
+        return _modified;
+    }
+
+    /**
+     * Return the file the cache is stored in.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Read the entries in the cache file.  The cache is left empty if
+     * the file cannot be read or is not a valid cache file.
+     */
+    private void load() {
+        try {
+            _entries = read(_file);
+        }
+        catch(IOException ex){
+            _entries = new HashMap();
+        }
+        catch(RuntimeException ex){
+            //a corrupt file with a matching checksum
+            _entries = new HashMap();
+        }
+    }
+
+    /**
+     * Return the entries of the given cache file.  The counts and
+     * lengths are checked against the size of the file before
+     * anything is allocated, and an IOException is thrown if they do
+     * not fit, if the checksum does not match, or if the file has an
+     * unknown format.
+     */
+    private static HashMap read(File file) throws IOException {
+        long length = file.length();
+        if((length < 20) || (length > Integer.MAX_VALUE)){
+            throw new IOException("Not a feature cache: "+file);
+        }
+        byte[] buf = new byte[(int)length];
+        DataInputStream fin = new DataInputStream(new FileInputStream(file));
+        try {
+            fin.readFully(buf);
+        }
+        finally {
+            fin.close();
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf, 0, buf.length-8));
+        if((in.readInt() != MAGIC) || (in.readInt() != VERSION)){
+            throw new IOException("Not a feature cache of version "+VERSION+": "+file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf, 0, buf.length-8);
+        DataInputStream tail = new DataInputStream(new ByteArrayInputStream(buf, buf.length-8, 8));
+        if(tail.readLong() != crc.getValue()){
+            throw new IOException("Checksum mismatch in feature cache "+file);
+        }
+        int count = in.readInt();
+        //each entry takes at least 6 bytes: the key length and the
+        //vector length
+        if((count < 0) || (count > in.available()/6)){
+            throw new IOException("Bad entry count "+count+" in feature cache "+file);
+        }
+        HashMap entries = new HashMap(count*2);
+        for(int i=0; i<count; i++){
+            String key = in.readUTF();
+            int num = in.readInt();
+            if((num < 0) || (num > in.available()/8)){
+                throw new IOException("Bad vector length "+num+" in feature cache "+file);
+            }
+            double[] vals = new double[num];
+            for(int j=0; j<num; j++){
+                vals[j] = in.readDouble();
+            }
+            entries.put(key, vals);
+        }
+        return entries;
+    }
+
+    /**
+     * Write all entries to the cache file, followed by a CRC-32 of
+     * them.  The entries are first written to a temporary file which
+     * then replaces the cache file, so an interrupted save does not
+     * destroy the old cache.
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(_file.getPath()+".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_entries.size());
+            for(Iterator iter = _entries.entrySet().iterator(); iter.hasNext();){
+                Map.Entry e = (Map.Entry)iter.next();
+                double[] vals = (double[])e.getValue();
+                out.writeUTF((String)e.getKey());
+                out.writeInt(vals.length);
+                for(int j=0; j<vals.length; j++){
+                    out.writeDouble(vals[j]);
+                }
+            }
+            out.writeLong(checked.getChecksum().getValue());
+        }
+        finally {
+            out.close();
+        }
+        if(_file.exists() && !_file.delete()){
+            throw new IOException("Cannot replace "+_file);
+        }
+        if(!tmp.renameTo(_file)){
+            throw new IOException("Cannot rename "+tmp+" to "+_file);
+        }
+        _modified = false;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+/**
+ * A batch feature extractor that works from the precomputed
+ * SymbolGeometry of each example, so that the packed points, bounding
+ * box and other quantities are computed once per example and shared
+ * by all extractors instead of being recomputed by each of them.  The
+ * features must be the same as those computed from the strokes.
+ */
+public interface GeometryFeatureExtractor extends BatchFeatureExtractor {
+    /**
+     * Extract the features of one example and write them into 'out'
+     * starting at 'offset'.
+     */
+    public void apply(SymbolGeometry g, double[] out, int offset);
+
+    /**
+     * Extract the features of examples[from] to examples[to-1].  The
+     * features of examples[i] are written into 'out' starting at
+     * offset+(i-from)*stride.
+     */
+    public void apply(SymbolGeometry[] examples, int from, int to, double[] out, int offset, int stride);
+}
@@ -10,6 +10,9 @@ import hhreco.classification.*;
 import hhreco.toolbox.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.AffineTransform;
 
@@ -17,7 +20,19 @@ import java.awt.geom.AffineTransform;
  * This is a general purpose recognizer in which feature extractors
  * and the classifier can be user-specified.  By default, the
  * magnitudes of Zernike's moments to the 8th order are used as
- * features.
+ * features, and they are classified by a DenseSVMClassifier, which
+ * does not need libsvm.  <p>
+ *
+ * When a training model is given, the features of its examples are
+ * extracted in parallel on a fork-join pool (see setParallelism), so
+ * the feature extractors must be safe to call from several threads at
+ * once.  All the extractors in this package are. <p>
+ *
+ * A trained recognizer can be saved to a snapshot file with save(),
+ * and another recognizer with the same feature extractors can be
+ * restored from it with load(), which reads the file in one go
+ * instead of extracting features and training again.  See save() for
+ * what the snapshot holds.
  *
  * @author Heloise Hse      (hwawen@eecs.berkeley.edu)
  */
@@ -29,22 +44,70 @@ public class HHRecognizer implements MultiStrokeRecognizer {
     private TrainableClassifier _classifier = null;
     private TrainingSet _set = null;
 
+    /**
+     * The number of threads used to extract features from a training
+     * model.
+     */
+    private int _parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Below this many examples, a task extracts the features itself
+     * instead of splitting its work further.
+     */
+    private static final int EXTRACT_THRESHOLD = 8;
+
+    /**
+     * The cache of extracted features, or null.
+     */
+    private FeatureCache _cache = null;
+
+    /**
+     * The default maximum number of recognitions returned by
+     * sessionCompleted.
+     */
+    public static final int DEFAULT_MAX_RECOGNITIONS = 10;
+
+    /**
+     * The maximum number of recognitions returned by
+     * sessionCompleted, or 0 for all of them.
+     */
+    private int _maxRecognitions = DEFAULT_MAX_RECOGNITIONS;
+
+    /**
+     * The first int of a snapshot file.
+     */
+    private static final int SNAPSHOT_MAGIC = 0x48485253;//"HHRS"
+
+    /**
+     * The version of the snapshot format.
+     */
+    private static final int SNAPSHOT_VERSION = 4;
+
+    /**
+     * The configuration of the preprocessing done on the training
+     * examples by train(MSTrainingModel, ApproximateStrokeFilter,
+     * InterpolateStrokeFilter), or null if they were given already
+     * preprocessed.
+     */
+    private String _preprocessing = null;
+
     /**
      * Create a recognizer that uses the default Zernike Moments
-     * feature extractor and the default SVM classifier.
+     * feature extractor and the default SVM classifier
+     * (DenseSVMClassifier).
      */
     public HHRecognizer(){
         _extractors = defaultFeatureExtractors();
-        _classifier = new SVMClassifier(true);
+        _classifier = new DenseSVMClassifier(true);
     }
     
     /**
      * Create a recognizer that uses the specified set of feature
-     * extractors and the default SVM classifier.
+     * extractors and the default SVM classifier (DenseSVMClassifier).
      */
     public HHRecognizer(FeatureExtractor[] extractors){
         _extractors = extractors;
-        _classifier = new SVMClassifier(true);
+        _classifier = new DenseSVMClassifier(true);
     }
 
     /**
@@ -71,18 +134,86 @@ public class HHRecognizer implements MultiStrokeRecognizer {
         return extractors;
     }
 
+    /**
+     * Set the number of threads used to extract features from the
+     * examples of a training model.  A value of 1 extracts them in
+     * the calling thread.
+     */
+    public void setParallelism(int parallelism){
+        if(parallelism < 1){
+            throw new IllegalArgumentException("HHRecognizer: parallelism="+parallelism+", must be at least 1");
+        }
+        _parallelism = parallelism;
+    }
+
+    /**
+     * Return the number of threads used to extract features from the
+     * examples of a training model.  The default is the number of
+     * available processors.
+     */
+    public int getParallelism(){
+        return _parallelism;
+    }
+
+    /**
+     * Set the maximum number of recognitions returned by
+     * sessionCompleted, the ones with the best confidences, one per
+     * type (see RecognitionSet(int, boolean)): the smallest ones for
+     * a KNNClassifier or an MMDClassifier, whose confidences are
+     * distances, and the highest ones otherwise.  A value of 0 returns
+     * one recognition per confidence of the classification, as a
+     * KNNClassifier gives one per training example.
+     */
+    public void setMaxRecognitions(int max){
+        if(max < 0){
+            throw new IllegalArgumentException("HHRecognizer: max recognitions="+max+", must not be negative");
+        }
+        _maxRecognitions = max;
+    }
+
+    /**
+     * Return the maximum number of recognitions returned by
+     * sessionCompleted, or 0 if they are not limited.  The default is
+     * DEFAULT_MAX_RECOGNITIONS.
+     */
+    public int getMaxRecognitions(){
+        return _maxRecognitions;
+    }
+
+    /**
+     * Set the cache that features of training examples are looked up
+     * in and added to, or null to always extract them.  The cache is
+     * not saved by the recognizer.
+     */
+    public void setFeatureCache(FeatureCache cache){
+        _cache = cache;
+    }
+
+    /**
+     * Return the feature cache, or null if there is none.
+     */
+    public FeatureCache getFeatureCache(){
+        return _cache;
+    }
+
     /**
      * Add the given shape to the existing training set and
-     * retrain the recognizer.
+     * retrain the recognizer.  An incremental classifier is only
+     * given the new shape.
      */
     public int addAndRetrain(String type, TimedStroke[] strokes){
         FeatureSet fs = extractFeatures(_extractors,strokes);
         _set.addPositiveExample(type,fs);
         try{
-            if(!_classifier.isIncremental()){
+            if(_classifier.isIncremental()){
+                TrainingSet added = new TrainingSet();
+                added.addPositiveExample(type,fs);
+                _classifier.train(added, fs.getFeatureCount());
+            }
+            else{
                 _classifier.clear();
+                _classifier.train(_set, fs.getFeatureCount());
             }
-            _classifier.train(_set, fs.getFeatureCount());
         }
         catch(ClassifierException ex){
             ex.printStackTrace();
@@ -92,28 +223,91 @@ public class HHRecognizer implements MultiStrokeRecognizer {
 
     /**
      * Add the given set of data to the existing training set and
-     * retrain the recognizer.
+     * retrain the recognizer.  An incremental classifier is only
+     * given the new data.
      */
     public int addAndRetrain(MSTrainingModel model){
         TrainingSet set = new TrainingSet();
         int numFeatures = createTrainingSet(model, set);
+        try{
+            addAndRetrain(set, numFeatures);
+        }
+        catch(ClassifierException ex){
+            ex.printStackTrace();
+        }
+        return numFeatures;
+    }
+
+    /**
+     * Add the examples of the given set, whose features have already
+     * been extracted, to the training set and retrain the recognizer.
+     * An incremental classifier is only given the new examples.  If
+     * the recognizer has not been trained, this trains it on them.
+     */
+    public void addAndRetrain(TrainingSet set, int numFeatures) throws ClassifierException {
+        if(_set == null){
+            _set = new TrainingSet();
+        }
         for(Iterator iter = set.types(); iter.hasNext();){
             String type = (String)iter.next();
             for(Iterator iter2 = set.positiveExamples(type); iter2.hasNext();){
-                FeatureSet fs = (FeatureSet)iter2.next();
-                _set.addPositiveExample(type,fs);
+                _set.addPositiveExample(type,(FeatureSet)iter2.next());
             }
-        }
-        try{
-            if(!_classifier.isIncremental()){
-                _classifier.clear();
+            for(Iterator iter2 = set.negativeExamples(type); iter2.hasNext();){
+                _set.addNegativeExample(type,(FeatureSet)iter2.next());
             }
+        }
+        if(_classifier.isIncremental()){
+            _classifier.train(set, numFeatures);
+        }
+        else{
+            _classifier.clear();
             _classifier.train(_set, numFeatures);
         }
-        catch(ClassifierException ex){
-            ex.printStackTrace();
+    }
+
+    /**
+     * Return a new recognizer with the feature extractors and settings
+     * of this one, a copy of its training set, and the classifier 'c',
+     * into which the trained state of the classifier of this
+     * recognizer is copied (see PersistentClassifier.copyState).  The
+     * new recognizer can then keep learning, with addAndRetrain,
+     * without being trained from scratch, and without modifying what
+     * this one recognizes.  The feature sets are shared.  Return null
+     * if the two classifiers are not PersistentClassifiers of the
+     * same class.
+     */
+    public HHRecognizer copy(TrainableClassifier c){
+        if(!(_classifier instanceof PersistentClassifier) || !(c instanceof PersistentClassifier)
+                || !c.getClass().equals(_classifier.getClass())){
+            return null;
         }
-        return numFeatures;
+        ((PersistentClassifier)c).copyState((PersistentClassifier)_classifier);
+        HHRecognizer r = new HHRecognizer(_extractors, c);
+        r._parallelism = _parallelism;
+        r._cache = _cache;
+        r._maxRecognitions = _maxRecognitions;
+        r._preprocessing = _preprocessing;
+        r._set = (_set == null) ? null : copyTrainingSet(_set);
+        return r;
+    }
+
+    /**
+     * Return a copy of the given training set.  The feature sets are
+     * shared.
+     */
+    static TrainingSet copyTrainingSet(TrainingSet set){
+        TrainingSet copy = new TrainingSet();
+        for(Iterator types = set.types(); types.hasNext();){
+            String type = (String)types.next();
+            for(Iterator iter = set.positiveExamples(type); iter.hasNext();){
+                copy.addPositiveExample(type, (FeatureSet)iter.next());
+            }
+            for(Iterator iter = set.negativeExamples(type); iter.hasNext();){
+                copy.addNegativeExample(type, (FeatureSet)iter.next());
+            }
+        }
+        return copy;
     }
 
     
@@ -124,17 +318,253 @@ public class HHRecognizer implements MultiStrokeRecognizer {
      */
     public int train(MSTrainingModel model){
         _set = new TrainingSet();
+        _preprocessing = null;
         int numFeatures = createTrainingSet(model, _set);
+        trainClassifier(numFeatures);
+        return numFeatures;
+    }
+
+    /**
+     * Same as train(MSTrainingModel), except that the examples in the
+     * model have not been preprocessed yet.  Copies of them are
+     * preprocessed with the given filters (see preprocess()) before
+     * their features are extracted, and the model is not modified.
+     * With a feature cache, the examples that are found in the cache
+     * are not preprocessed at all.
+     */
+    public int train(MSTrainingModel model, ApproximateStrokeFilter approx, InterpolateStrokeFilter interp){
+        _set = new TrainingSet();
+        _preprocessing = getConfiguration(approx, interp);
+        int numFeatures = createTrainingSet(model, _set, true, approx, interp);
+        trainClassifier(numFeatures);
+        return numFeatures;
+    }
+
+    /**
+     * Train the classifier from scratch with a training set whose
+     * features have already been extracted (by the same feature
+     * extractors).  The set becomes the training set of the
+     * recognizer.
+     */
+    public void train(TrainingSet set, int numFeatures){
+        _set = set;
+        _preprocessing = null;
+        trainClassifier(numFeatures);
+    }
+
+    /**
+     * Return the training set of the recognizer, or null if it has
+     * not been trained.
+     */
+    public TrainingSet getTrainingSet(){
+        return _set;
+    }
+
+    /**
+     * Return the feature extractors of the recognizer.
+     */
+    public FeatureExtractor[] getFeatureExtractors(){
+        return _extractors;
+    }
+
+    /**
+     * Train the classifier from scratch with the current training
+     * set.
+     */
+    private void trainClassifier(int numFeatures){
         try{
-            if(!_classifier.isIncremental()){
-                _classifier.clear();
-            }
+            _classifier.clear();
             _classifier.train(_set,numFeatures);
         }
         catch(ClassifierException ex){
             ex.printStackTrace();
         }
-        return numFeatures;
+    }
+
+    /**
+     * Save the trained state of the recognizer to a snapshot file.
+     * The snapshot holds the configuration of the preprocessing done
+     * by train(MSTrainingModel, ApproximateStrokeFilter,
+     * InterpolateStrokeFilter), if any, and of the feature extractors
+     * (see getConfiguration), the features of the training set, and,
+     * if the classifier is a PersistentClassifier, its trained state,
+     * followed by a CRC-32 of all of it.  The classifier is given the
+     * training set, so that it does not write the features again
+     * (see PersistentClassifier.writeState(DataOutput, TrainingSet)):
+     * with a DenseSVMClassifier, the features are written once, 8
+     * bytes per value, followed by the pairwise solutions, 8 bytes
+     * per example for each other class, e.g. about 107 KB for the 375
+     * examples of 23 features and 13 classes of heloise.sml.  The snapshot is first
+     * written to a temporary file which then replaces the given one.
+     * Throw an IllegalStateException if the recognizer has not been
+     * trained.
+     */
+    public void save(File file) throws IOException {
+        if(_set == null){
+            throw new IllegalStateException("HHRecognizer has not been trained");
+        }
+        int numFeatures = 0;
+        for(Iterator types = _set.types(); types.hasNext() && (numFeatures == 0);){
+            Iterator iter = _set.positiveExamples((String)types.next());
+            if(iter.hasNext()){
+                numFeatures = ((FeatureSet)iter.next()).getFeatureCount();
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(getConfiguration(_preprocessing));
+        out.writeInt(numFeatures);
+        out.writeInt(_set.getTypeCount());
+        for(Iterator types = _set.types(); types.hasNext();){
+            String type = (String)types.next();
+            out.writeUTF(type);
+            out.writeInt(_set.positiveExampleCount(type));
+            for(Iterator iter = _set.positiveExamples(type); iter.hasNext();){
+                writeFeatures(out, (FeatureSet)iter.next(), numFeatures);
+            }
+            out.writeInt(_set.negativeExampleCount(type));
+            for(Iterator iter = _set.negativeExamples(type); iter.hasNext();){
+                writeFeatures(out, (FeatureSet)iter.next(), numFeatures);
+            }
+        }
+        out.writeUTF(_classifier.getClass().getName());
+        boolean persistent = (_classifier instanceof PersistentClassifier);
+        out.writeBoolean(persistent);
+        if(persistent){
+            ((PersistentClassifier)_classifier).writeState(out, _set);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        File tmp = new File(file.getPath()+".tmp");
+        OutputStream fout = new FileOutputStream(tmp);
+        try{
+            bytes.writeTo(fout);
+        }
+        finally{
+            fout.close();
+        }
+        if(file.exists() && !file.delete()){
+            throw new IOException("Cannot replace "+file);
+        }
+        if(!tmp.renameTo(file)){
+            throw new IOException("Cannot rename "+tmp+" to "+file);
+        }
+    }
+
+    /**
+     * Write the features of an example of the training set, which
+     * must have numFeatures features.
+     */
+    private static void writeFeatures(DataOutput out, FeatureSet fs, int numFeatures) throws IOException {
+        if(fs.getFeatureCount() != numFeatures){
+            throw new IOException("Unequal feature numbers: " + numFeatures+" vs. "+ fs.getFeatureCount());
+        }
+        for(int i=0; i<numFeatures; i++){
+            out.writeDouble(fs.getFeature(i));
+        }
+    }
+
+    /**
+     * Restore the state of the recognizer from a snapshot file written
+     * by save().  The training set is replaced by the one in the
+     * snapshot.  If the classifier is a PersistentClassifier of the
+     * same class as the one that was saved, its state is read back;
+     * otherwise it is trained from scratch with the features of the
+     * training set, which are not extracted again.  An IOException is
+     * thrown, and the recognizer is not modified, if the file is not a
+     * snapshot of this version, if its checksum does not match, or if
+     * it was saved with feature extractors whose configuration is not
+     * the one of this recognizer.  The training examples of the
+     * snapshot must have been given already preprocessed.
+     */
+    public void load(File file) throws IOException {
+        load(file, null);
+    }
+
+    /**
+     * Same as load(File), except that the snapshot must have been
+     * trained with train(MSTrainingModel, ApproximateStrokeFilter,
+     * InterpolateStrokeFilter) and the same filter settings.
+     */
+    public void load(File file, ApproximateStrokeFilter approx, InterpolateStrokeFilter interp) throws IOException {
+        load(file, getConfiguration(approx, interp));
+    }
+
+    /**
+     * Restore the state of the recognizer from a snapshot whose
+     * training examples went through the given preprocessing, or
+     * null if they were given preprocessed.
+     */
+    private void load(File file, String preprocessing) throws IOException {
+        long length = file.length();
+        if((length < 16) || (length > Integer.MAX_VALUE)){
+            throw new IOException("Not a recognizer snapshot: "+file);
+        }
+        byte[] buf = new byte[(int)length];
+        DataInputStream fin = new DataInputStream(new FileInputStream(file));
+        try{
+            fin.readFully(buf);
+        }
+        finally{
+            fin.close();
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+        if((in.readInt() != SNAPSHOT_MAGIC) || (in.readInt() != SNAPSHOT_VERSION)){
+            throw new IOException("Not a recognizer snapshot of version "+SNAPSHOT_VERSION+": "+file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf, 0, buf.length-8);
+        DataInputStream tail = new DataInputStream(new ByteArrayInputStream(buf, buf.length-8, 8));
+        if(tail.readLong() != crc.getValue()){
+            throw new IOException("Checksum mismatch in recognizer snapshot "+file);
+        }
+        String config = in.readUTF();
+        String expected = getConfiguration(preprocessing);
+        if(!config.equals(expected)){
+            throw new IOException("Recognizer snapshot "+file+" was saved with the configuration \""
+                    +config+"\", not \""+expected+"\"");
+        }
+        int numFeatures = in.readInt();
+        int numTypes = in.readInt();
+        if((numFeatures < 0) || (numTypes < 0)){
+            throw new IOException("Bad recognizer snapshot "+file);
+        }
+        TrainingSet set = new TrainingSet();
+        for(int t=0; t<numTypes; t++){
+            String type = in.readUTF();
+            for(int which=0; which<2; which++){
+                int count = in.readInt();
+                for(int k=0; k<count; k++){
+                    double[] vals = new double[numFeatures];
+                    for(int i=0; i<numFeatures; i++){
+                        vals[i] = in.readDouble();
+                    }
+                    if(which == 0){
+                        set.addPositiveExample(type, new FeatureSet(vals));
+                    }
+                    else{
+                        set.addNegativeExample(type, new FeatureSet(vals));
+                    }
+                }
+            }
+        }
+        String className = in.readUTF();
+        boolean persistent = in.readBoolean();
+        if(persistent && (_classifier instanceof PersistentClassifier)
+                && className.equals(_classifier.getClass().getName())){
+            ((PersistentClassifier)_classifier).readState(in, set);
+            _set = set;
+        }
+        else{
+            _set = set;
+            trainClassifier(numFeatures);
+        }
+        _preprocessing = preprocessing;
     }
 
     /**
@@ -143,46 +573,308 @@ public class HHRecognizer implements MultiStrokeRecognizer {
      * extracted for an example.
      */
     private int createTrainingSet(MSTrainingModel model, TrainingSet set){
-        int numFeatures = -1;
-        boolean isFirst=true;
+        return createTrainingSet(model, set, false, null, null);
+    }
+
+    /**
+     * Extract features from the examples in the 'model', after
+     * preprocessing copies of them if 'preprocess' is true, and add
+     * them to the training set, 'set'.  Return the number of features
+     * extracted for an example.  Examples whose features are found in
+     * the feature cache are neither preprocessed nor extracted, and
+     * the features of the others are added to the cache.  The
+     * extraction runs in parallel, but the examples are added to the
+     * set in the order of the model.
+     */
+    private int createTrainingSet(MSTrainingModel model, TrainingSet set, boolean preprocess, ApproximateStrokeFilter approx, InterpolateStrokeFilter interp){
+        ArrayList types = new ArrayList();
+        ArrayList examples = new ArrayList();
         for(Iterator iter = model.types(); iter.hasNext();){
             String type = (String)iter.next();
             for(Iterator iter2 = model.positiveExamples(type); iter2.hasNext();){
-                TimedStroke[] strokes = (TimedStroke[])iter2.next();
-                FeatureSet f = extractFeatures(_extractors,strokes);
-                if(isFirst){
-                    isFirst=false;
-                    numFeatures = f.getFeatureCount();
-                }
-                else if(numFeatures != f.getFeatureCount()){
-                    throw new RuntimeException("Unequal feature numbers: " + numFeatures+" vs. "+ f.getFeatureCount());
+                types.add(type);
+                examples.add(iter2.next());
+            }
+        }
+        TimedStroke[][] strokes = new TimedStroke[examples.size()][];
+        examples.toArray(strokes);
+        FeatureSet[] features = new FeatureSet[strokes.length];
+
+        //look up the cache, and collect the examples that missed
+        FeatureCache cache = _cache;
+        String[] keys = null;
+        int[] misses = new int[strokes.length];
+        int numMisses = 0;
+        if(cache != null){
+            String config = getConfiguration(preprocess ? getConfiguration(approx, interp) : null);
+            keys = new String[strokes.length];
+            for(int i=0; i<strokes.length; i++){
+                keys[i] = FeatureCache.computeKey(config, strokes[i]);
+                features[i] = cache.get(keys[i]);
+                if(features[i] == null){
+                    misses[numMisses++] = i;
                 }
-                set.addPositiveExample(type, f);
             }
         }
+        else{
+            for(int i=0; i<strokes.length; i++){
+                misses[numMisses++] = i;
+            }
+        }
+
+        ExtractAction action = new ExtractAction(_extractors, strokes, features, misses, 0, numMisses, preprocess, approx, interp);
+        if((_parallelism > 1) && (numMisses > EXTRACT_THRESHOLD)){
+            ForkJoinPool pool = new ForkJoinPool(_parallelism);
+            try{
+                pool.invoke(action);
+            }
+            finally{
+                pool.shutdown();
+            }
+        }
+        else{
+            action.extract();
+        }
+        if(cache != null){
+            for(int i=0; i<numMisses; i++){
+                cache.put(keys[misses[i]], features[misses[i]]);
+            }
+        }
+
+        int numFeatures = -1;
+        boolean isFirst=true;
+        for(int i=0; i<features.length; i++){
+            FeatureSet f = features[i];
+            if(isFirst){
+                isFirst=false;
+                numFeatures = f.getFeatureCount();
+            }
+            else if(numFeatures != f.getFeatureCount()){
+                throw new RuntimeException("Unequal feature numbers: " + numFeatures+" vs. "+ f.getFeatureCount());
+            }
+            set.addPositiveExample((String)types.get(i), f);
+        }
         return numFeatures;
     }
 
+    /**
+     * Extract the features of the examples strokes[misses[from]] to
+     * strokes[misses[to-1]] into the same positions of 'features',
+     * preprocessing copies of them first if requested.  The range is
+     * split in half until it is no larger than EXTRACT_THRESHOLD.
+     */
+    private static class ExtractAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private FeatureExtractor[] _extractors;
+        private TimedStroke[][] _strokes;
+        private FeatureSet[] _features;
+        private int[] _misses;
+        private int _from, _to;
+        private boolean _preprocess;
+        private ApproximateStrokeFilter _approx;
+        private InterpolateStrokeFilter _interp;
+
+        ExtractAction(FeatureExtractor[] extractors, TimedStroke[][] strokes, FeatureSet[] features, int[] misses, int from, int to, boolean preprocess, ApproximateStrokeFilter approx, InterpolateStrokeFilter interp){
+            _extractors = extractors;
+            _strokes = strokes;
+            _features = features;
+            _misses = misses;
+            _from = from;
+            _to = to;
+            _preprocess = preprocess;
+            _approx = approx;
+            _interp = interp;
+        }
+
+        protected void compute(){
+            if(_to-_from <= EXTRACT_THRESHOLD){
+                extract();
+            }
+            else{
+                int mid = (_from+_to)/2;
+                invokeAll(new ExtractAction(_extractors, _strokes, _features, _misses, _from, mid, _preprocess, _approx, _interp),
+                          new ExtractAction(_extractors, _strokes, _features, _misses, mid, _to, _preprocess, _approx, _interp));
+            }
+        }
+
+        /**
+         * Extract the features of the whole range in this thread, as
+         * one batch.
+         */
+        void extract(){
+            int num = _to-_from;
+            if(num == 0){
+                return;
+            }
+            TimedStroke[][] batch = new TimedStroke[num][];
+            for(int i=0; i<num; i++){
+                TimedStroke[] s = _strokes[_misses[_from+i]];
+                if(_preprocess){
+                    TimedStroke[] copy = new TimedStroke[s.length];
+                    for(int j=0; j<s.length; j++){
+                        copy[j] = new TimedStroke(s[j]);
+                    }
+                    s = preprocess(copy, _approx, _interp, null);
+                }
+                batch[i] = s;
+            }
+            double[] matrix = extractFeatures(_extractors, batch, 0, num);
+            int numFeatures = matrix.length/num;
+            for(int i=0; i<num; i++){
+                double[] row = new double[numFeatures];
+                System.arraycopy(matrix, i*numFeatures, row, 0, numFeatures);
+                _features[_misses[_from+i]] = new FeatureSet(row);
+            }
+        }
+    }
+
+    /**
+     * Return the configuration strings of the given feature
+     * extractors, separated by "; ".  An extractor that is not a
+     * ConfigurableFeatureExtractor is described by its class name and
+     * its name.
+     */
+    public static String getConfiguration(FeatureExtractor[] extractors){
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<extractors.length; i++){
+            if(i > 0){
+                buf.append("; ");
+            }
+            if(extractors[i] instanceof ConfigurableFeatureExtractor){
+                buf.append(((ConfigurableFeatureExtractor)extractors[i]).getConfiguration());
+            }
+            else{
+                buf.append(extractors[i].getClass().getName()+" name="+extractors[i].getName());
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Return the configuration of the feature extractors of this
+     * recognizer, preceded by the given configuration of the
+     * preprocessing unless it is null.  This identifies the features
+     * in the feature cache and in snapshots.
+     */
+    private String getConfiguration(String preprocessing){
+        String config = getConfiguration(_extractors);
+        return (preprocessing == null) ? config : preprocessing+" "+config;
+    }
+
+    /**
+     * Return a string that identifies the preprocessing done by
+     * preprocess() with the given filters, either of which may be
+     * null.
+     */
+    public static String getConfiguration(ApproximateStrokeFilter approx, InterpolateStrokeFilter interp){
+        return "preprocess size="+SIZE+" cx="+CX+" cy="+CY
+            +" approx="+((approx==null) ? "none" : String.valueOf(approx.getThreshDistance()))
+            +" interp="+((interp==null) ? "none" : String.valueOf(interp.getSpacing()));
+    }
+
 
     /**
      * Extract features from the given set of strokes.
      */
     public static FeatureSet extractFeatures(FeatureExtractor[] extractors, TimedStroke[] strokes){
-        double[][] vals = new double[extractors.length][];
-        int numFeatures=0;
+        TimedStroke[][] batch = {strokes};
+        return new FeatureSet(extractFeatures(extractors, batch, 0, 1));
+    }
+
+    /**
+     * Extract features from examples[from] to examples[to-1] and
+     * return them as a row-major matrix with one row per example.
+     * Each row is the concatenation of the features of all
+     * extractors, so the number of features per example is the
+     * length of the matrix divided by to-from.  If any of the
+     * extractors is a GeometryFeatureExtractor, the SymbolGeometry of
+     * each example is computed once and shared by all of them.  Batch
+     * feature extractors write their columns of the matrix directly;
+     * the features of other extractors are copied in, and a
+     * RuntimeException is thrown if they do not return the same
+     * number of features for every example.
+     */
+    public static double[] extractFeatures(FeatureExtractor[] extractors, TimedStroke[][] examples, int from, int to){
+        SymbolGeometry[] geometries = null;
+        for(int i=0; i<extractors.length; i++){
+            if(extractors[i] instanceof GeometryFeatureExtractor){
+                geometries = new SymbolGeometry[examples.length];
+                for(int j=from; j<to; j++){
+                    geometries[j] = new SymbolGeometry(examples[j]);
+                }
+                break;
+            }
+        }
+        return extractFeatures(extractors, examples, geometries, from, to);
+    }
+
+    /**
+     * Same as extractFeatures(FeatureExtractor[], TimedStroke[][],
+     * int, int), for examples whose geometry has already been
+     * computed.
+     */
+    public static double[] extractFeatures(FeatureExtractor[] extractors, SymbolGeometry[] examples, int from, int to){
+        TimedStroke[][] strokes = new TimedStroke[examples.length][];
+        for(int j=from; j<to; j++){
+            strokes[j] = examples[j].getStrokes();
+        }
+        return extractFeatures(extractors, strokes, examples, from, to);
+    }
+
+    /**
+     * Extract the features of the examples, given both as strokes and,
+     * if any of the extractors needs it, as geometries.
+     */
+    private static double[] extractFeatures(FeatureExtractor[] extractors, TimedStroke[][] examples, SymbolGeometry[] geometries, int from, int to){
+        int num = to-from;
+        if(num <= 0){
+            return new double[0];
+        }
+        //find the width of each extractor's block of columns
+        int[] widths = new int[extractors.length];
+        double[][] firstRow = new double[extractors.length][];
+        int numFeatures = 0;
         for(int i=0; i<extractors.length; i++){
-            vals[i] = extractors[i].apply(strokes);
-            numFeatures+=vals[i].length;
+            if(extractors[i] instanceof BatchFeatureExtractor){
+                widths[i] = ((BatchFeatureExtractor)extractors[i]).getFeatureCount();
+            }
+            else{
+                firstRow[i] = extractors[i].apply(examples[from]);
+                widths[i] = firstRow[i].length;
+            }
+            numFeatures += widths[i];
         }
 
-        //concatenate the features
-        double[] res = new double[numFeatures];
-        int j=0;
-        for(int i=0; i<vals.length; i++){
-            System.arraycopy(vals[i],0,res,j,vals[i].length);
-            j+=vals[i].length;
+        double[] matrix = new double[num*numFeatures];
+        int col = 0;
+        for(int i=0; i<extractors.length; i++){
+            if(extractors[i] instanceof GeometryFeatureExtractor){
+                ((GeometryFeatureExtractor)extractors[i]).apply(geometries, from, to, matrix, col, numFeatures);
+            }
+            else if(extractors[i] instanceof BatchFeatureExtractor){
+                ((BatchFeatureExtractor)extractors[i]).apply(examples, from, to, matrix, col, numFeatures);
+            }
+            else{
+                System.arraycopy(firstRow[i], 0, matrix, col, widths[i]);
+                for(int j=1; j<num; j++){
+                    double[] vals = extractors[i].apply(examples[from+j]);
+                    if(vals.length != widths[i]){
+                        throw new RuntimeException("Unequal feature numbers: " + widths[i]+" vs. "+ vals.length);
+                    }
+                    System.arraycopy(vals, 0, matrix, j*numFeatures+col, widths[i]);
+                }
+            }
+            col += widths[i];
         }
-        return new FeatureSet(res);
+        return matrix;
+    }
+
+    /**
+     * Return whether the confidences of the given classifier are
+     * distances, the smaller the better.
+     */
+    private static boolean isDistance(Classifier c){
+        return (c instanceof KNNClassifier) || (c instanceof MMDClassifier);
     }
 
     public RecognitionSet strokeStarted(TimedStroke s){
@@ -199,22 +891,24 @@ public class HHRecognizer implements MultiStrokeRecognizer {
 
     /**
      * Perform recognition on the given shape.  The shape is assumed
-     * to have been scale and translation normalized.
+     * to have been scale and translation normalized.  If
+     * getMaxRecognitions() is not 0, at most that many recognitions
+     * are returned, so the size of the result does not grow with the
+     * number of confidences the classifier returns, and each
+     * confidence takes a bounded time to add.
      */
     public RecognitionSet sessionCompleted (TimedStroke strokes[]){
         try{
             FeatureSet f = extractFeatures(_extractors, strokes);
             Classification cl = _classifier.classify(f);
-            RecognitionSet rset = new RecognitionSet();
+            RecognitionSet rset = (_maxRecognitions > 0) ?
+                new RecognitionSet(_maxRecognitions, isDistance(_classifier)) : new RecognitionSet();
             for(int j=0; j<cl.getTypeCount(); j++){
                 if(Double.isNaN(cl.getConfidence(j))){
                     continue;
                 }
                 else{
-                    String type = cl.getType(j);
-                    double conf = cl.getConfidence(j);
-                    Recognition r = new Recognition(new SimpleData(type),conf);
-                    rset.addRecognition(r);
+                    rset.addRecognition(cl.getType(j), cl.getConfidence(j));
                 }
             }
             if(rset.getRecognitionCount()==0){
@@ -0,0 +1,352 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+import java.util.HashMap;
+
+/**
+ * Compute Zernike moments of a shape from a rasterized image of it
+ * rather than from its points.  The bounding box of the shape is
+ * divided into an N x N grid, and every cell crossed by a stroke is
+ * marked as occupied.  Each moment is then the dot product of the
+ * occupancy grid with a basis image holding V(n,m,x,y) at the cell
+ * centers, where the grid is mapped into the unit circle the same way
+ * ZernikeMoments.zer_mom maps the bounding box.  The basis images are
+ * computed once per (order, N) and cached. <p>
+ *
+ * Unlike ZernikeFE, the cost of the moment computation and the
+ * feature values do not depend on how densely the strokes are
+ * sampled (e.g. by InterpolateStrokeFilter); only the rasterization
+ * is proportional to the number of points.  As with ZernikeFE, the
+ * magnitudes of the moments up to the specified order are returned,
+ * except for order 0 and 1.
+ */
+public class RasterZernikeFE implements GeometryFeatureExtractor, ConfigurableFeatureExtractor {
+    /**
+     * The default grid size, N.
+     */
+    public static int DEFAULT_GRID_SIZE = 32;
+
+    /**
+     * Cache of basis images, keyed by "order:N".
+     */
+    private static HashMap _bases = new HashMap();
+
+    /**
+     * The order of moment.
+     */
+    private int _order = ZernikeFE.DEFAULT_ORDER;
+
+    /**
+     * The number of grid cells along each side.
+     */
+    private int _gridSize = DEFAULT_GRID_SIZE;
+
+    /**
+     * Per-thread occupancy grid and moment buffers.
+     */
+    private static final ThreadLocal _scratch = new ThreadLocal() {
+            protected Object initialValue() {
+                return new Scratch();
+            }
+        };
+
+    /**
+     * Create a raster Zernike feature extractor with the default
+     * order and grid size.
+     */
+    public RasterZernikeFE(){}
+
+    /**
+     * Create a raster Zernike feature extractor with the specified
+     * order and grid size.
+     */
+    public RasterZernikeFE(int order, int gridSize){
+        _order = order;
+        _gridSize = gridSize;
+    }
+
+    /**
+     * Return the magnitudes of the Zernike moments of the rasterized
+     * shape.
+     */
+    public double[] apply(TimedStroke[] s) {
+        double[] mag = new double[ZernikeFE.getFeatureCount(_order)];
+        apply(s, mag, 0);
+        return mag;
+    }
+
+    /**
+     * Write the magnitudes of the Zernike moments of the rasterized
+     * shape into 'out' starting at 'offset'.
+     */
+    public void apply(TimedStroke[] s, double[] out, int offset) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensure(_gridSize*_gridSize, ZernikeBasis.getMomentCount(_order));
+        apply(new SymbolGeometry(s), getBasis(_order, _gridSize), scratch, out, offset);
+    }
+
+    /**
+     * Write the magnitudes of the Zernike moments of the rasterized
+     * shapes examples[from] to examples[to-1] into 'out', one row of
+     * 'stride' values per example starting at 'offset'.  The basis
+     * images and scratch buffers are looked up once for the whole
+     * batch.
+     */
+    public void apply(TimedStroke[][] examples, int from, int to, double[] out, int offset, int stride) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensure(_gridSize*_gridSize, ZernikeBasis.getMomentCount(_order));
+        Basis basis = getBasis(_order, _gridSize);
+        for(int i=from; i<to; i++){
+            apply(new SymbolGeometry(examples[i]), basis, scratch, out, offset+(i-from)*stride);
+        }
+    }
+
+    /**
+     * Return the number of features computed for the current order.
+     */
+    public int getFeatureCount() {
+        return ZernikeFE.getFeatureCount(_order);
+    }
+
+    /**
+     * Write the magnitudes of the Zernike moments of the rasterized
+     * shape with the given geometry into 'out' starting at 'offset'.
+     */
+    public void apply(SymbolGeometry g, double[] out, int offset) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensure(_gridSize*_gridSize, ZernikeBasis.getMomentCount(_order));
+        apply(g, getBasis(_order, _gridSize), scratch, out, offset);
+    }
+
+    /**
+     * Write the magnitudes of the Zernike moments of the rasterized
+     * shapes with the given geometries into 'out', one row of
+     * 'stride' values per example starting at 'offset'.
+     */
+    public void apply(SymbolGeometry[] examples, int from, int to, double[] out, int offset, int stride) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensure(_gridSize*_gridSize, ZernikeBasis.getMomentCount(_order));
+        Basis basis = getBasis(_order, _gridSize);
+        for(int i=from; i<to; i++){
+            apply(examples[i], basis, scratch, out, offset+(i-from)*stride);
+        }
+    }
+
+    /**
+     * Rasterize one shape and compute its moments against the basis
+     * images, using the given scratch buffers.
+     */
+    private void apply(SymbolGeometry g, Basis basis, Scratch scratch, double[] out, int offset) {
+        int n = _gridSize;
+        double[] grid = scratch.grid;
+        rasterize(g, n, grid);
+        int ct = basis.re.length;
+        for(int k=0; k<ct; k++){
+            double[] bre = basis.re[k];
+            double[] bim = basis.im[k];
+            double sr = 0;
+            double si = 0;
+            for(int i=0; i<n*n; i++){
+                sr += grid[i]*bre[i];
+                si += grid[i]*bim[i];
+            }
+            scratch.re[k] = sr;
+            scratch.im[k] = si;
+        }
+        //skip the first two elements, they are m00 and m11
+        ZernikeMoments.magnitudes(scratch.re, scratch.im, 2, ct, out, offset);
+    }
+
+    /**
+     * Mark the cells of the n x n grid that are crossed by the
+     * strokes with 1, and all other cells with 0.  The grid covers
+     * the bounding box of the strokes and is stored row by row.
+     */
+    public static void rasterize(TimedStroke[] s, int n, double[] grid) {
+        rasterize(new SymbolGeometry(s), n, grid);
+    }
+
+    /**
+     * Same as rasterize(TimedStroke[], int, double[]), using the
+     * packed points, stroke offsets and bounding box of the given
+     * geometry.
+     */
+    public static void rasterize(SymbolGeometry g, int n, double[] grid) {
+        for(int i=0; i<n*n; i++){
+            grid[i] = 0;
+        }
+        double xmin = g.getMinX();
+        double ymin = g.getMinY();
+        double xmax = g.getMaxX();
+        double ymax = g.getMaxY();
+        //a degenerate side is put in the middle of the grid
+        double sx = (xmax > xmin) ? n/(xmax-xmin) : 0;
+        double sy = (ymax > ymin) ? n/(ymax-ymin) : 0;
+        double ox = (xmax > xmin) ? xmin : xmin-n/2.0;
+        double oy = (ymax > ymin) ? ymin : ymin-n/2.0;
+        if(sx == 0){
+            sx = 1;
+        }
+        if(sy == 0){
+            sy = 1;
+        }
+        double[] xvals = g.getXValues();
+        double[] yvals = g.getYValues();
+        int[] offsets = g.getStrokeOffsets();
+        for(int i=0; i<g.getStrokeCount(); i++){
+            int start = offsets[i];
+            int end = offsets[i+1];
+            if(start == end){
+                continue;
+            }
+            double c0 = (xvals[start]-ox)*sx;
+            double r0 = (yvals[start]-oy)*sy;
+            mark(grid, n, c0, r0);
+            for(int j=start+1; j<end; j++){
+                double c1 = (xvals[j]-ox)*sx;
+                double r1 = (yvals[j]-oy)*sy;
+                //step through the segment at most one cell at a time
+                int steps = (int)Math.ceil(Math.max(Math.abs(c1-c0),Math.abs(r1-r0)));
+                for(int k=1; k<=steps; k++){
+                    double t = (double)k/steps;
+                    mark(grid, n, c0+t*(c1-c0), r0+t*(r1-r0));
+                }
+                c0 = c1;
+                r0 = r1;
+            }
+        }
+    }
+
+    /**
+     * Mark the cell containing the grid coordinates (c, r).
+     */
+    private static void mark(double[] grid, int n, double c, double r) {
+        int col = Math.min(n-1, Math.max(0, (int)c));
+        int row = Math.min(n-1, Math.max(0, (int)r));
+        grid[row*n+col] = 1;
+    }
+
+    /**
+     * Return the basis images for the specified order and grid size,
+     * building them if they haven't been built yet.
+     */
+    private static synchronized Basis getBasis(int order, int n) {
+        String key = order+":"+n;
+        Basis basis = (Basis)_bases.get(key);
+        if(basis == null){
+            basis = new Basis(order, n);
+            _bases.put(key, basis);
+        }
+        return basis;
+    }
+
+    /**
+     * Set the moment order (appears as 'n' in the equations of ZernikeFE)
+     */
+    public void setOrder(int order){
+        _order = order;
+    }
+
+    /**
+     * Return the moment order.
+     */
+    public int getOrder(){
+        return _order;
+    }
+
+    /**
+     * Set the number of grid cells along each side.
+     */
+    public void setGridSize(int gridSize){
+        _gridSize = gridSize;
+    }
+
+    /**
+     * Return the number of grid cells along each side.
+     */
+    public int getGridSize(){
+        return _gridSize;
+    }
+
+    /**
+     * Return the name of this feature extractor.
+     */
+    public String getName() {
+        return "Raster Zernike Moments";
+    }
+
+    /**
+     * Return the class name, the moment order, and the grid size.
+     */
+    public String getConfiguration() {
+        return getClass().getName()+" order="+_order+" grid="+_gridSize;
+    }
+
+    /**
+     * The basis images V(n,m,x,y)*(n+1)/pi of all moments up to an
+     * order, sampled at the cell centers of an N x N grid, in the
+     * order used by ZernikeMoments.zer_mmts.
+     */
+    private static class Basis {
+        double[][] re;
+        double[][] im;
+
+        Basis(int order, int n){
+            ZernikeBasis zb = ZernikeBasis.getBasis(order);
+            int ct = ZernikeBasis.getMomentCount(order);
+            re = new double[ct][n*n];
+            im = new double[ct][n*n];
+            double[] pows = new double[order/2+1];
+            double scale = Math.sqrt(2);
+            for(int row=0; row<n; row++){
+                double y = (2*(row+0.5)/n-1)/scale;
+                for(int col=0; col<n; col++){
+                    double x = (2*(col+0.5)/n-1)/scale;
+                    int cell = row*n+col;
+                    ZernikeBasis.powers(x*x+y*y, pows);
+                    double zr = 1;//(x+iy)^m
+                    double zi = 0;
+                    for(int m=0; m<=order; m++){
+                        for(int nn=m; nn<=order; nn+=2){
+                            double[] c = zb.getCoefficients(nn,m);
+                            double p = 0;
+                            for(int k=0; k<c.length; k++){
+                                p += c[k]*pows[k];
+                            }
+                            int idx = zb.getMomentIndex(nn,m);
+                            re[idx][cell] = zr*p*(nn+1)/Math.PI;
+                            im[idx][cell] = zi*p*(nn+1)/Math.PI;
+                        }
+                        double tmp = zr*x - zi*y;
+                        zi = zr*y + zi*x;
+                        zr = tmp;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Growable scratch buffers.
+     */
+    private static class Scratch {
+        double[] grid = new double[0];
+        double[] re = new double[0];
+        double[] im = new double[0];
+
+        void ensure(int cells, int moments){
+            if(grid.length < cells){
+                grid = new double[cells];
+            }
+            if(re.length < moments){
+                re = new double[moments];
+                im = new double[moments];
+            }
+        }
+    }
+}
@@ -14,7 +14,18 @@ import hhreco.util.NullIterator;
  * The result of a recognizer's computations: a set of mutually
  * exclusive interpretations of a stroke or a set of strokes,
  * expressed by Recognition objects as typed data with associated
- * values.
+ * values. <p>
+ *
+ * A set created with a maximum size keeps only the best recognitions,
+ * and at most one per type: adding a recognition of a type already in
+ * the set keeps the better value.  The best values are the highest
+ * ones, or the smallest ones if they are distances.  Either way the
+ * recognitions are read in descending order of value.  The entries
+ * are held in a heap of parallel arrays whose root is the worst one,
+ * so an addition costs O(1) when it is rejected and O(size) otherwise,
+ * whatever the number of additions.  Entries added with
+ * addRecognition(String, double) become Recognition objects of
+ * SimpleData only when the set is first read after a change.
  *
  * @see Recognition
  * @author Heloise Hse (hwawen@eecs.berkeley.edu)   
@@ -30,6 +41,10 @@ public class RecognitionSet {
             String err = "Attempt to modify NO_RECOGNITION constant";
             throw new UnsupportedOperationException(err);
         }
+        public void addRecognition(String type, double confidence) {
+            String err = "Attempt to modify NO_RECOGNITION constant";
+            throw new UnsupportedOperationException(err);
+        }
         public void removeRecognition(Recognition r) {
             String err = "Attempt to modify NO_RECOGNITION constant";
             throw new UnsupportedOperationException(err);
@@ -57,16 +72,73 @@ public class RecognitionSet {
     };
 
     /**
-     * The list of recognitions.
+     * The list of recognitions.  In a bounded set it is built from the
+     * heap when the set is read, and is null after a change.
      */
     private ArrayList _set;
 
+    /**
+     * The maximum number of recognitions, or 0 if the set is not
+     * bounded.
+     */
+    private int _maxSize = 0;
+
+    /**
+     * Whether a bounded set keeps the smallest values rather than the
+     * highest.
+     */
+    private boolean _smallerIsBetter = false;
+
+    /**
+     * The heap of a bounded set: the type ID, value and order of
+     * addition of each entry, and its Recognition if it has been
+     * given or created, else null.  The worst entry is at index 0.
+     */
+    private int _size = 0;
+    private String[] _ids;
+    private double[] _values;
+    private int[] _order;
+    private Recognition[] _recs;
+
+    /**
+     * The number of additions to a bounded set, which breaks ties
+     * between equal values in favor of the earlier one.
+     */
+    private int _added = 0;
+
     /**
      * Construct an empty recognition set.
      */
     public RecognitionSet() {
         _set = new ArrayList();
     }
+
+    /**
+     * Construct an empty recognition set that keeps at most the given
+     * number of recognitions, the ones with the highest values, one
+     * per type.
+     */
+    public RecognitionSet(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * Construct an empty recognition set that keeps at most the given
+     * number of recognitions, one per type: the ones with the
+     * smallest values if 'smallerIsBetter' is true, as for distances,
+     * else the ones with the highest values.
+     */
+    public RecognitionSet(int maxSize, boolean smallerIsBetter) {
+        if(maxSize < 1){
+            throw new IllegalArgumentException("RecognitionSet: maxSize="+maxSize+", must be at least 1");
+        }
+        _maxSize = maxSize;
+        _smallerIsBetter = smallerIsBetter;
+        _ids = new String[maxSize];
+        _values = new double[maxSize];
+        _order = new int[maxSize];
+        _recs = new Recognition[maxSize];
+    }
 	
     /**
      * Construct a recognition set that contains the
@@ -82,9 +154,15 @@ public class RecognitionSet {
 
     /**
      * Add a recognition to the set by inserting it in descending
-     * order of confidence value.
+     * order of confidence value.  A bounded set keeps it only if it
+     * is among the best ones and better than the recognition of the
+     * same type, if any.
      */
     public void addRecognition(Recognition r) {
+        if(_maxSize > 0){
+            offer(r.getType().getID(), r.getConfidence(), r);
+            return;
+        }
         boolean inserted = false;
         for(int i = 0; i < _set.size(); i++){
             Recognition r1 = (Recognition)_set.get(i);
@@ -99,12 +177,192 @@ public class RecognitionSet {
         }
     }
 
+    /**
+     * Add a recognition of SimpleData of the given type with the given
+     * confidence.  A bounded set does not create the Recognition
+     * until it is read, and not at all if it is rejected.
+     */
+    public void addRecognition(String type, double confidence) {
+        if(_maxSize > 0){
+            offer(type, confidence, null);
+        }
+        else{
+            addRecognition(new Recognition(new SimpleData(type), confidence));
+        }
+    }
+
+    /**
+     * Add an entry to the heap of a bounded set, 'r' being null if it
+     * is a SimpleData recognition not created yet.
+     */
+    private void offer(String id, double value, Recognition r) {
+        int order = _added++;
+        if((_size == _maxSize) && !better(value, order, 0)){
+            //worse than all the entries, hence also than the one of
+            //the same type if it is kept
+            return;
+        }
+        for(int i = 0; i < _size; i++){
+            if(sameType(i, id, r)){
+                if(better(value, order, i)){
+                    set(i, id, value, order, r);
+                    siftDown(i);
+                    _set = null;
+                }
+                return;
+            }
+        }
+        if(_size < _maxSize){
+            set(_size, id, value, order, r);
+            siftUp(_size++);
+        }
+        else{
+            set(0, id, value, order, r);
+            siftDown(0);
+        }
+        _set = null;
+    }
+
+    /**
+     * Return whether entry i has the type of the given ID and
+     * recognition.
+     */
+    private boolean sameType(int i, String id, Recognition r) {
+        if((r == null) && (_recs[i] == null)){
+            return (id == null) ? (_ids[i] == null) : id.equals(_ids[i]);
+        }
+        Type t = (r == null) ? new SimpleData(id).getType() : r.getType();
+        Type ti = (_recs[i] == null) ? new SimpleData(_ids[i]).getType() : _recs[i].getType();
+        return t.equals(ti);
+    }
+
+    /**
+     * Return whether the given value and order of addition rank
+     * before entry i.
+     */
+    private boolean better(double value, int order, int i) {
+        if(value == _values[i]){
+            return order < _order[i];
+        }
+        return _smallerIsBetter ? (value < _values[i]) : (value > _values[i]);
+    }
+
+    /**
+     * Return whether entry i comes before entry j in descending order
+     * of value, equal values in the order they were added.
+     */
+    private boolean before(int i, int j) {
+        return (_values[i] > _values[j]) || ((_values[i] == _values[j]) && (_order[i] < _order[j]));
+    }
+
+    /**
+     * Store the given entry at index i of the heap.
+     */
+    private void set(int i, String id, double value, int order, Recognition r) {
+        _ids[i] = id;
+        _values[i] = value;
+        _order[i] = order;
+        _recs[i] = r;
+    }
+
+    /**
+     * Exchange entries i and j of the heap.
+     */
+    private void swap(int i, int j) {
+        String id = _ids[i];
+        double value = _values[i];
+        int order = _order[i];
+        Recognition r = _recs[i];
+        set(i, _ids[j], _values[j], _order[j], _recs[j]);
+        set(j, id, value, order, r);
+    }
+
+    /**
+     * Move entry i towards the root while it is worse than its
+     * parent.
+     */
+    private void siftUp(int i) {
+        while(i > 0){
+            int parent = (i-1)/2;
+            if(!better(_values[parent], _order[parent], i)){
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /**
+     * Move entry i away from the root while it is better than one of
+     * its children.
+     */
+    private void siftDown(int i) {
+        while(true){
+            int worst = i;
+            for(int c = 2*i+1; (c <= 2*i+2) && (c < _size); c++){
+                if(better(_values[worst], _order[worst], c)){
+                    worst = c;
+                }
+            }
+            if(worst == i){
+                return;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    /**
+     * Return the list of recognitions in descending order, building
+     * it from the heap of a bounded set if it has changed.
+     */
+    private ArrayList list() {
+        if(_set == null){
+            //the heap is small, sort its indices by insertion
+            int[] index = new int[_size];
+            for(int i = 0; i < _size; i++){
+                int j = i;
+                while((j > 0) && before(i, index[j-1])){
+                    index[j] = index[j-1];
+                    j--;
+                }
+                index[j] = i;
+            }
+            ArrayList set = new ArrayList(_size);
+            for(int k = 0; k < _size; k++){
+                int i = index[k];
+                if(_recs[i] == null){
+                    _recs[i] = new Recognition(new SimpleData(_ids[i]), _values[i]);
+                }
+                set.add(_recs[i]);
+            }
+            _set = set;
+        }
+        return _set;
+    }
+
+    /**
+     * Return the maximum number of recognitions kept, or 0 if the set
+     * is not bounded.
+     */
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Return whether a bounded set keeps the smallest values rather
+     * than the highest.
+     */
+    public boolean isSmallerBetter() {
+        return _smallerIsBetter;
+    }
+
 
     /**
      * Return the recognition object that has the highest value.
      */
     public Recognition getHighestValueRecognition() {
-        return (getRecognitionCount()>0)?((Recognition)_set.get(0)):null;
+        return (getRecognitionCount()>0)?((Recognition)list().get(0)):null;
     }
 
 
@@ -112,7 +370,8 @@ public class RecognitionSet {
      * Return the recognition object that has the lowest value.
      */
     public Recognition getLowestValueRecognition() {
-        return (getRecognitionCount()>0)?((Recognition)_set.get(_set.size()-1)):null;
+        ArrayList set = list();
+        return (set.size()>0)?((Recognition)set.get(set.size()-1)):null;
     }
 
     
@@ -120,7 +379,7 @@ public class RecognitionSet {
      * Return the number of recognitions in this set.
      */
     public int getRecognitionCount() {
-        return _set.size();
+        return (_maxSize > 0) ? _size : _set.size();
     }
 
     
@@ -144,7 +403,7 @@ public class RecognitionSet {
      * from highest confidence to lowest.
      */
     public Iterator recognitions() {
-        return _set.iterator();
+        return list().iterator();
     }
     
 
@@ -152,6 +411,24 @@ public class RecognitionSet {
      * Remove the given recognition from the set.
      */
     public void removeRecognition(Recognition r) {
+        if(_maxSize > 0){
+            list();
+            for(int i = 0; i < _size; i++){
+                if(r.equals(_recs[i])){
+                    _size--;
+                    swap(i, _size);
+                    _recs[_size] = null;
+                    _ids[_size] = null;
+                    if(i < _size){
+                        siftDown(i);
+                        siftUp(i);
+                    }
+                    _set = null;
+                    return;
+                }
+            }
+            return;
+        }
         _set.remove(r);
     }
 
@@ -162,7 +439,7 @@ public class RecognitionSet {
     public String toString() {
         StringBuffer buf = new StringBuffer();
         buf.append("RecognitionSet[\n");
-        for(Iterator iter = _set.iterator(); iter.hasNext(); ) {
+        for(Iterator iter = recognitions(); iter.hasNext(); ) {
             Recognition r = (Recognition)iter.next();
             buf.append(r.toString()).append("\n");
         }
@@ -0,0 +1,214 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * The geometry of a symbol, computed once from its strokes and shared
+ * by all the feature extractors applied to it: the points of all
+ * strokes packed into two arrays, the offsets at which each stroke
+ * starts, the bounding box, the centroid of the points, and the total
+ * path length.  HHRecognizer builds one per example and passes it to
+ * the extractors that implement GeometryFeatureExtractor. <p>
+ *
+ * The geometry is a snapshot; it does not change if the strokes are
+ * modified later.  The arrays returned by the accessors are shared
+ * and must not be modified.
+ */
+public class SymbolGeometry {
+    /**
+     * The strokes of the symbol.
+     */
+    private TimedStroke[] _strokes;
+
+    /**
+     * The x and y coordinates of all points, stroke after stroke.
+     */
+    private double[] _xvals;
+    private double[] _yvals;
+
+    /**
+     * The points of stroke i are at _offsets[i] to _offsets[i+1]-1.
+     */
+    private int[] _offsets;
+
+    /**
+     * The bounding box of the points.
+     */
+    private double _xmin, _xmax, _ymin, _ymax;
+
+    /**
+     * The mean of the points.
+     */
+    private double _centroidX, _centroidY;
+
+    /**
+     * The sum of the path lengths of the strokes.
+     */
+    private double _pathLength;
+
+    /**
+     * Compute the geometry of the symbol made up of the given strokes.
+     * If the strokes have no points, the bounding box, centroid and
+     * path length are all 0.
+     */
+    public SymbolGeometry(TimedStroke[] strokes){
+        _strokes = strokes;
+        _offsets = new int[strokes.length+1];
+        int num = 0;
+        for(int i=0; i<strokes.length; i++){
+            _offsets[i] = num;
+            num += strokes[i].getVertexCount();
+        }
+        _offsets[strokes.length] = num;
+        _xvals = new double[num];
+        _yvals = new double[num];
+        if(num == 0){
+            return;
+        }
+        _xmin = Double.POSITIVE_INFINITY;
+        _ymin = Double.POSITIVE_INFINITY;
+        _xmax = Double.NEGATIVE_INFINITY;
+        _ymax = Double.NEGATIVE_INFINITY;
+        double sumx = 0;
+        double sumy = 0;
+        int cur = 0;
+        for(int i=0; i<strokes.length; i++){
+            TimedStroke s = strokes[i];
+            for(int j=0; j<s.getVertexCount(); j++){
+                double x = s.getX(j);
+                double y = s.getY(j);
+                _xvals[cur] = x;
+                _yvals[cur] = y;
+                if(j > 0){
+                    double dx = x-_xvals[cur-1];
+                    double dy = y-_yvals[cur-1];
+                    _pathLength += Math.sqrt(dx*dx+dy*dy);
+                }
+                cur++;
+                _xmin = Math.min(_xmin,x);
+                _xmax = Math.max(_xmax,x);
+                _ymin = Math.min(_ymin,y);
+                _ymax = Math.max(_ymax,y);
+                sumx += x;
+                sumy += y;
+            }
+        }
+        _centroidX = sumx/num;
+        _centroidY = sumy/num;
+    }
+
+    /**
+     * Return the strokes of the symbol.
+     */
+    public TimedStroke[] getStrokes(){
+        return _strokes;
+    }
+
+    /**
+     * Return the number of strokes.
+     */
+    public int getStrokeCount(){
+        return _strokes.length;
+    }
+
+    /**
+     * Return the total number of points.
+     */
+    public int getPointCount(){
+        return _xvals.length;
+    }
+
+    /**
+     * Return the x coordinates of all points, stroke after stroke.
+     */
+    public double[] getXValues(){
+        return _xvals;
+    }
+
+    /**
+     * Return the y coordinates of all points, stroke after stroke.
+     */
+    public double[] getYValues(){
+        return _yvals;
+    }
+
+    /**
+     * Return the stroke offsets: the points of stroke i are at
+     * positions offsets[i] to offsets[i+1]-1 of the coordinate
+     * arrays.  The array has getStrokeCount()+1 elements.
+     */
+    public int[] getStrokeOffsets(){
+        return _offsets;
+    }
+
+    /** Return the smallest x coordinate. */
+    public double getMinX(){
+        return _xmin;
+    }
+
+    /** Return the largest x coordinate. */
+    public double getMaxX(){
+        return _xmax;
+    }
+
+    /** Return the smallest y coordinate. */
+    public double getMinY(){
+        return _ymin;
+    }
+
+    /** Return the largest y coordinate. */
+    public double getMaxY(){
+        return _ymax;
+    }
+
+    /** Return the width of the bounding box. */
+    public double getWidth(){
+        return _xmax-_xmin;
+    }
+
+    /** Return the height of the bounding box. */
+    public double getHeight(){
+        return _ymax-_ymin;
+    }
+
+    /** Return the x coordinate of the center of the bounding box. */
+    public double getCenterX(){
+        return _xmin+getWidth()/2;
+    }
+
+    /** Return the y coordinate of the center of the bounding box. */
+    public double getCenterY(){
+        return _ymin+getHeight()/2;
+    }
+
+    /**
+     * Return a new rectangle holding the bounding box.
+     */
+    public Rectangle2D getBounds(){
+        return new Rectangle2D.Double(_xmin, _ymin, getWidth(), getHeight());
+    }
+
+    /** Return the x coordinate of the mean of the points. */
+    public double getCentroidX(){
+        return _centroidX;
+    }
+
+    /** Return the y coordinate of the mean of the points. */
+    public double getCentroidY(){
+        return _centroidY;
+    }
+
+    /**
+     * Return the sum of the path lengths of the strokes.  The gaps
+     * between strokes are not included.
+     */
+    public double getPathLength(){
+        return _pathLength;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.recognition;
+
+import java.util.HashMap;
+
+/**
+ * Precomputed coefficient tables for the Zernike radial polynomials
+ * up to a given order.  The radial polynomial is
+ * <pre>
+ *            (n-|m|)/2         s      (n-s)!                 n-2s
+ *   Rnm(p) =   Sum     (-1) ------------------------------- p
+ *              s=0          s! ((n+|m|)/2-s)! ((n-|m|)/2-s)!
+ * </pre>
+ * Since n-2s &gt;= |m| and n-|m| is even, this can be rewritten as a
+ * polynomial in p^2,
+ * <pre>
+ *                    (n-|m|)/2
+ *   Rnm(p) = p^|m| *   Sum     c[k] (p^2)^k
+ *                      k=0
+ * </pre>
+ * and the c[k] are what this class stores.  The coefficients are
+ * computed exactly in long arithmetic as products of binomial
+ * coefficients, so they do not overflow the way the int factorials
+ * in the original Xite code did for orders above 12.  <p>
+ *
+ * Tables are built once per order and shared; use getBasis() to
+ * obtain one.
+ */
+public class ZernikeBasis {
+    /**
+     * The largest order supported.  The coefficients of higher
+     * orders would no longer be exactly representable.
+     */
+    public static final int MAX_ORDER = 40;
+
+    /**
+     * Cache of the bases that have been built, keyed by order.
+     */
+    private static HashMap _cache = new HashMap();
+
+    /**
+     * The order of this basis.
+     */
+    private int _order;
+
+    /**
+     * _coeffs[n][|m|] holds the coefficients c[k] of Rnm, or null if
+     * n-|m| is odd.
+     */
+    private double[][][] _coeffs;
+
+    /**
+     * _index[n][|m|] holds the position of moment (n,m) in the order
+     * used by ZernikeMoments.zer_mmts, or -1 if n-|m| is odd.
+     */
+    private int[][] _index;
+
+    /**
+     * Return the basis of the specified order, building it if it
+     * hasn't been built yet.
+     */
+    public static synchronized ZernikeBasis getBasis(int order) {
+        Integer key = Integer.valueOf(order);
+        ZernikeBasis basis = (ZernikeBasis)_cache.get(key);
+        if(basis == null){
+            basis = new ZernikeBasis(order);
+            _cache.put(key, basis);
+        }
+        return basis;
+    }
+
+    /**
+     * Build the coefficient tables for all (n,m) with n &lt;= order.
+     */
+    private ZernikeBasis(int order) {
+        if((order < 0) || (order > MAX_ORDER)){
+            throw new IllegalArgumentException("ZernikeBasis: order="+order+", must be between 0 and "+MAX_ORDER);
+        }
+        _order = order;
+        _coeffs = new double[order+1][][];
+        _index = new int[order+1][];
+        int ct = 0;
+        for(int n=0; n<=order; n++){
+            _coeffs[n] = new double[n+1][];
+            _index[n] = new int[n+1];
+            for(int m=0; m<=n; m++){
+                if((n-m)%2!=0){
+                    _index[n][m] = -1;
+                    continue;
+                }
+                _index[n][m] = ct++;
+                int smax = (n-m)/2;
+                double[] c = new double[smax+1];
+                for(int s=0; s<=smax; s++){
+                    // (n-s)!/(s! ((n+m)/2-s)! ((n-m)/2-s)!) is the
+                    // multinomial C(n-s,s)*C(n-2s,(n+m)/2-s)
+                    long v = binomial(n-s, s)*binomial(n-2*s, (n+m)/2-s);
+                    c[smax-s] = (s%2==0) ? v : -v;
+                }
+                _coeffs[n][m] = c;
+            }
+        }
+    }
+
+    /**
+     * Return the binomial coefficient C(n,k).
+     */
+    private static long binomial(int n, int k) {
+        long res = 1;
+        for(int i=0; i<k; i++){
+            res = res*(n-i)/(i+1);
+        }
+        return res;
+    }
+
+    /**
+     * Return the order of this basis.
+     */
+    public int getOrder() {
+        return _order;
+    }
+
+    /**
+     * Return the coefficients c[k] of Rnm as a polynomial in p^2.
+     * The array is shared and must not be modified.
+     */
+    public double[] getCoefficients(int n, int m) {
+        m = Math.abs(m);
+        if((n<0) || (n>_order) || (m>n) || ((n-m)%2!=0)){
+            throw new IllegalArgumentException("ZernikeBasis: n="+n+", m="+m+", order="+_order);
+        }
+        return _coeffs[n][m];
+    }
+
+    /**
+     * Return the position of moment (n,m) in the array returned by
+     * ZernikeMoments.zer_mmts, i.e. in the order of
+     * (0,0)(1,1)(2,0)(2,2)(3,1)(3,3) and so on.
+     */
+    public int getMomentIndex(int n, int m) {
+        m = Math.abs(m);
+        if((n<0) || (n>_order) || (m>n) || ((n-m)%2!=0)){
+            throw new IllegalArgumentException("ZernikeBasis: n="+n+", m="+m+", order="+_order);
+        }
+        return _index[n][m];
+    }
+
+    /**
+     * Return the number of moments (n,m) with 0 &lt;= m &lt;= n,
+     * n-m even, and n = 0...order.  This is the length of the array
+     * returned by ZernikeMoments.zer_mmts.
+     */
+    public static int getMomentCount(int order) {
+        int ct = 0;
+        for(int n=0; n<=order; n++){
+            ct += n/2+1;
+        }
+        return ct;
+    }
+
+    /**
+     * Fill in pows[k] = (p^2)^k for k = 0...pows.length-1.
+     */
+    public static void powers(double rho2, double[] pows) {
+        double v = 1;
+        for(int k=0; k<pows.length; k++){
+            pows[k] = v;
+            v *= rho2;
+        }
+    }
+
+    /**
+     * Return p^|m| given p^2.
+     */
+    public static double rhoPower(double rho2, int m) {
+        m = Math.abs(m);
+        double r = (m%2==0) ? 1 : Math.sqrt(rho2);
+        for(int i=0; i<m/2; i++){
+            r *= rho2;
+        }
+        return r;
+    }
+
+    /**
+     * Evaluate Rnm against precomputed powers of p^2, where
+     * pows[k] = (p^2)^k and rhoM = p^|m|.
+     */
+    public double radial(int n, int m, double rhoM, double[] pows) {
+        double[] c = getCoefficients(n,m);
+        double sum = 0;
+        for(int k=0; k<c.length; k++){
+            sum += c[k]*pows[k];
+        }
+        return rhoM*sum;
+    }
+
+    /**
+     * Evaluate Rnm at the point whose squared distance from the
+     * origin is rho2.
+     */
+    public double radial(int n, int m, double rho2) {
+        double[] c = getCoefficients(n,m);
+        double sum = 0;
+        for(int k=c.length-1; k>=0; k--){
+            sum = sum*rho2 + c[k];
+        }
+        return rhoPower(rho2,m)*sum;
+    }
+}
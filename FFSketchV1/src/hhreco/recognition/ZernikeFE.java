@@ -6,7 +6,7 @@
  */
 package hhreco.recognition;
 
-import hhreco.toolbox.Util;
+import hhreco.util.Kernels;
 
 /**
  * Compute Zernike moments of the specified order [1].  This is a
@@ -28,13 +28,29 @@ import hhreco.toolbox.Util;
  *
  * @author Heloise Hse (hwawen@eecs.berkeley.edu)
  */
-public class ZernikeFE implements FeatureExtractor {
+public class ZernikeFE implements GeometryFeatureExtractor, ConfigurableFeatureExtractor {
     /**
      * The default order of Zernike moments is set to 8.  This will
      * compute moments from order 2 up to order 8.
      */
     public static int DEFAULT_ORDER = 8;
 
+    /**
+     * Whether the moments are computed in a single pass over the
+     * points by ZernikeMoments.zer_mmts_fused (the default), or one
+     * at a time by ZernikeMoments.zer_mmts.  The latter is kept for
+     * comparing results.
+     */
+    public static boolean USE_FUSED_KERNEL = true;
+
+    /**
+     * Whether the fused computation is laid out as array kernels by
+     * ZernikeMoments.zer_mmts_kernels (the default), which use SIMD
+     * instructions when they are available (see hhreco.util.Kernels),
+     * or is run as the per-point loop of zer_mmts_fused.
+     */
+    public static boolean USE_KERNELS = true;
+
     /**
      * The order of moment.
      */
@@ -66,7 +82,51 @@ public class ZernikeFE implements FeatureExtractor {
     public double[] apply(TimedStroke[] s, int order) {
         return zernikeMoments(s, order);
     }
+
+    /**
+     * Write the magnitudes of the Zernike moments of the default
+     * order into 'out' starting at 'offset'.
+     */
+    public void apply(TimedStroke[] s, double[] out, int offset) {
+        zernikeMoments(s, _order, out, offset);
+    }
     
+    /**
+     * Write the magnitudes of the Zernike moments of the default
+     * order of examples[from] to examples[to-1] into 'out', one row
+     * of 'stride' values per example starting at 'offset'.
+     */
+    public void apply(TimedStroke[][] examples, int from, int to, double[] out, int offset, int stride) {
+        zernikeMoments(examples, from, to, _order, out, offset, stride);
+    }
+
+    /**
+     * Write the magnitudes of the Zernike moments of the default
+     * order of the example with the given geometry into 'out'
+     * starting at 'offset'.
+     */
+    public void apply(SymbolGeometry g, double[] out, int offset) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensureMoments(ZernikeBasis.getMomentCount(_order));
+        zernikeMoments(g.getXValues(), g.getYValues(), g.getPointCount(), g.getWidth(), g.getHeight(), g.getMinX(), g.getMinY(), ZernikeBasis.getBasis(_order), Kernels.getInstance(), scratch, out, offset);
+    }
+
+    /**
+     * Write the magnitudes of the Zernike moments of the default
+     * order of the examples with the given geometries into 'out', one
+     * row of 'stride' values per example starting at 'offset'.
+     */
+    public void apply(SymbolGeometry[] examples, int from, int to, double[] out, int offset, int stride) {
+        zernikeMoments(examples, from, to, _order, out, offset, stride);
+    }
+
+    /**
+     * Return the number of features computed for the default order.
+     */
+    public int getFeatureCount() {
+        return getFeatureCount(_order);
+    }
+
     /**
      * Set the moment order (appears as 'n' in the equations [1])
      */
@@ -88,6 +148,13 @@ public class ZernikeFE implements FeatureExtractor {
         return "Zernike Moments";
     }
 
+    /**
+     * Return the class name and the moment order.
+     */
+    public String getConfiguration() {
+        return getClass().getName()+" order="+_order;
+    }
+
     /**
      * Compute Zernike moments of the stroke.
      */
@@ -100,30 +167,166 @@ public class ZernikeFE implements FeatureExtractor {
      * magnitudes of the moments.
      */
     public static double[] zernikeMoments(TimedStroke[] s, int order) {
-        int nstrokes=s.length;
-        double xvector[][]=new double[nstrokes][];
-        double yvector[][]=new double[nstrokes][];
-        int npoints[]=new int[nstrokes];
-        Util.strokesToArrays(s, xvector, yvector, npoints);
+        double[] mag = new double[getFeatureCount(order)];
+        zernikeMoments(s, order, mag, 0);
+        return mag;
+    }
+
+    /**
+     * Compute Zernike moments of the specified order and write the
+     * magnitudes of the moments into 'out' starting at 'offset'.
+     * The points are packed into per-thread scratch buffers that are
+     * reused across calls, so once these have grown to the size of
+     * the largest shape seen, nothing is allocated per call (except
+     * for the small table of powers when USE_KERNELS is false, and
+     * everything when USE_FUSED_KERNEL is false).
+     */
+    public static void zernikeMoments(TimedStroke[] s, int order, double[] out, int offset) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensureMoments(ZernikeBasis.getMomentCount(order));
+        zernikeMoments(s, ZernikeBasis.getBasis(order), Kernels.getInstance(), scratch, out, offset);
+    }
+
+    /**
+     * Compute Zernike moments of the specified order for
+     * examples[from] to examples[to-1], and write the magnitudes of
+     * the moments of examples[i] into 'out' starting at
+     * offset+(i-from)*stride.  The moment tables, kernels and scratch
+     * buffers are looked up once for the whole batch.
+     */
+    public static void zernikeMoments(TimedStroke[][] examples, int from, int to, int order, double[] out, int offset, int stride) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensureMoments(ZernikeBasis.getMomentCount(order));
+        ZernikeBasis basis = ZernikeBasis.getBasis(order);
+        Kernels kernels = Kernels.getInstance();
+        for(int i=from; i<to; i++){
+            zernikeMoments(examples[i], basis, kernels, scratch, out, offset+(i-from)*stride);
+        }
+    }
+
+    /**
+     * Compute the Zernike moments of one example up to the order of
+     * the basis, using the given scratch buffers, which must hold the
+     * moments.
+     */
+    private static void zernikeMoments(TimedStroke[] s, ZernikeBasis basis, Kernels kernels, Scratch scratch, double[] out, int offset) {
         int numOrigPoints=0;
-        for(int i=0; i<nstrokes; i++){
-            numOrigPoints+=npoints[i];
+        for(int i=0; i<s.length; i++){
+            numOrigPoints+=s[i].getVertexCount();
         }
-        double[] origx = new double[numOrigPoints];
-        double[] origy = new double[numOrigPoints];        
+        scratch.ensurePoints(numOrigPoints);
+        double[] origx = scratch.xvals;
+        double[] origy = scratch.yvals;
+        //pack the original points into one array and find the bounding box
+        double xmin = Double.POSITIVE_INFINITY;
+        double ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY;
+        double ymax = Double.NEGATIVE_INFINITY;
         int origcur=0;
-        for(int i=0; i<nstrokes; i++){
-            //pack orignal points into one array
-            System.arraycopy(xvector[i],0,origx,origcur,npoints[i]);
-            System.arraycopy(yvector[i],0,origy,origcur,npoints[i]);
-            origcur+=npoints[i];
+        for(int i=0; i<s.length; i++){
+            TimedStroke stroke = s[i];
+            for(int j=0; j<stroke.getVertexCount(); j++){
+                double x = stroke.getX(j);
+                double y = stroke.getY(j);
+                origx[origcur] = x;
+                origy[origcur] = y;
+                origcur++;
+                xmin = Math.min(xmin,x);
+                xmax = Math.max(xmax,x);
+                ymin = Math.min(ymin,y);
+                ymax = Math.max(ymax,y);
+            }
         }
-        ZernikeMoments.Complex[] vals = ZernikeMoments.zer_mmts(order, origx, origy, numOrigPoints);
-        //remove the first two elements, they are m00 and m11
-        double[] mag = new double[vals.length-2];
-        for(int i=0; i<vals.length-2; i++){
-            mag[i]=vals[i+2].getMagnitude();
+        zernikeMoments(origx, origy, numOrigPoints, xmax-xmin, ymax-ymin, xmin, ymin, basis, kernels, scratch, out, offset);
+    }
+
+    /**
+     * Compute the Zernike moments of the packed points of one
+     * example, whose bounding box has the given size and upper left
+     * corner.
+     */
+    private static void zernikeMoments(double[] origx, double[] origy, int numOrigPoints, double ww, double hh, double xmin, double ymin, ZernikeBasis basis, Kernels kernels, Scratch scratch, double[] out, int offset) {
+        int order = basis.getOrder();
+        double cx = xmin+ww/2;
+        double cy = ymin+hh/2;
+        int ct = ZernikeBasis.getMomentCount(order);
+        if(USE_FUSED_KERNEL){
+            if(USE_KERNELS){
+                ZernikeMoments.zer_mmts_kernels(basis, origx, origy, numOrigPoints, ww, hh, cx, cy, scratch.re, scratch.im, kernels, scratch.workspace);
+            }
+            else{
+                ZernikeMoments.zer_mmts_fused(order, origx, origy, numOrigPoints, ww, hh, cx, cy, scratch.re, scratch.im);
+            }
+            //skip the first two elements, they are m00 and m11
+            ZernikeMoments.magnitudes(scratch.re, scratch.im, 2, ct, out, offset);
+        }
+        else{
+            ZernikeMoments.Complex[] vals = ZernikeMoments.zer_mmts(order, origx, origy, numOrigPoints, ww, hh, cx, cy);
+            //remove the first two elements, they are m00 and m11
+            for(int i=2; i<ct; i++){
+                out[offset+i-2]=vals[i].getMagnitude();
+            }
+        }
+    }
+
+    /**
+     * Compute Zernike moments of the specified order for the
+     * examples whose geometry is given, and write the magnitudes of
+     * the moments of examples[i] into 'out' starting at
+     * offset+(i-from)*stride.  The packed points and bounding box of
+     * the geometry are used as they are.
+     */
+    public static void zernikeMoments(SymbolGeometry[] examples, int from, int to, int order, double[] out, int offset, int stride) {
+        Scratch scratch = (Scratch)_scratch.get();
+        scratch.ensureMoments(ZernikeBasis.getMomentCount(order));
+        ZernikeBasis basis = ZernikeBasis.getBasis(order);
+        Kernels kernels = Kernels.getInstance();
+        for(int i=from; i<to; i++){
+            SymbolGeometry g = examples[i];
+            zernikeMoments(g.getXValues(), g.getYValues(), g.getPointCount(), g.getWidth(), g.getHeight(), g.getMinX(), g.getMinY(), basis, kernels, scratch, out, offset+(i-from)*stride);
+        }
+    }
+
+    /**
+     * Return the number of features computed for moments of the
+     * specified order, i.e. the number of moments excluding m00 and
+     * m11.
+     */
+    public static int getFeatureCount(int order) {
+        return ZernikeBasis.getMomentCount(order)-2;
+    }
+
+    /**
+     * Per-thread buffers for the packed points and the moments.
+     */
+    private static final ThreadLocal _scratch = new ThreadLocal() {
+            protected Object initialValue() {
+                return new Scratch();
+            }
+        };
+
+    /**
+     * Growable scratch buffers used by zernikeMoments.
+     */
+    private static class Scratch {
+        double[] xvals = new double[0];
+        double[] yvals = new double[0];
+        double[] re = new double[0];
+        double[] im = new double[0];
+        ZernikeMoments.Workspace workspace = new ZernikeMoments.Workspace();
+
+        void ensurePoints(int n){
+            if(xvals.length < n){
+                xvals = new double[n];
+                yvals = new double[n];
+            }
+        }
+
+        void ensureMoments(int n){
+            if(re.length < n){
+                re = new double[n];
+                im = new double[n];
+            }
         }
-        return mag;
     }
 }
@@ -6,6 +6,7 @@
  */
 package hhreco.recognition;
 
+import hhreco.util.Kernels;
 import java.util.ArrayList;
 
 /**
@@ -27,59 +28,33 @@ public class ZernikeMoments {
 
     /**
      * zer_pol_R() computes the radial polynomial, Rnm(p), in the
-     * definition of V(n,m,x,y). [1]
+     * definition of V(n,m,x,y). [1]  The polynomial coefficients are
+     * taken from the cached ZernikeBasis table of order n.
      *
      * @return the value of Rnm(p)
      */
     public static double zer_pol_R(int n, int m_in, double x, double y){
-        int i;
-        int m;
-        int s;
-        int a; // (n-s)! 
-        int b; //   s!   
-        int c; // [(n+|m|)/2-s]! 
-        int d; // [(n-|m|)/2-s]! 
-        int sign;
+        return zer_pol_R(ZernikeBasis.getBasis(n),n,m_in,x,y);
+    }
 
-        m = Math.abs(m_in);
+    /**
+     * Same as zer_pol_R(int, int, double, double), with the
+     * coefficients taken from the given basis, whose order must be at
+     * least n.  Callers that evaluate many points should look the
+     * basis up once and use this method.
+     */
+    public static double zer_pol_R(ZernikeBasis basis, int n, int m_in, double x, double y){
+        int m = Math.abs(m_in);
 
         if ((n-m)%2!=0){
             throw new IllegalArgumentException("zer_pol_R: n-|m| is odd");
         }
 
-        double res = 0;
-        if ((x*x + y*y) <= 1.0) {
-            sign = 1;
-            a = 1;
-            for (i=2; i<=n; i++){
-                a*=i;
-            }
-            b=1;
-            c = 1;
-            for (i=2; i <= (n+m)/2; i++){
-                c*=i;
-            }
-            d = 1;
-            for (i=2; i <= (n-m)/2; i++){
-                d*=i;
-            }
-            // Before the loop is entered, all the integer variables
-            // (sign, a, b, c, d) have their correct values for the
-            // s=0 case.
-            for(s=0; s<=(n-m)/2; s++){
-                res += sign*(a*1.0/(b*c*d))*Math.pow((x*x + y*y),(n/2.0)-s);
-                // Now update the integer variables before the next
-                // iteration of the loop.
-                if (s<(n-m)/2){
-                    sign = -sign;
-                    a = a/(n-s);
-                    b = b*(s+1);
-                    c = c / ((n+m)/2 - s);
-                    d = d / ((n-m)/2 - s);
-                }
-            }
+        double rho2 = x*x + y*y;
+        if (rho2 <= 1.0) {
+            return basis.radial(n,m,rho2);
         }
-        return res;
+        return 0;
     }
 
 
@@ -88,11 +63,20 @@ public class ZernikeMoments {
      * @return res[1] is the dcomplex for V(n,m,x,y)
      */
     public static Complex zer_pol(int n, int m, double x, double y) {
+        return zer_pol(ZernikeBasis.getBasis(n),n,m,x,y);
+    }
+
+    /**
+     * Same as zer_pol(int, int, double, double), with the
+     * coefficients taken from the given basis, whose order must be at
+     * least n.
+     */
+    public static Complex zer_pol(ZernikeBasis basis, int n, int m, double x, double y) {
         if ((x*x + y*y) > 1.0) {
             return new Complex(0.0, 0.0);
         }
         else {
-            double r = zer_pol_R(n,m,x,y);
+            double r = zer_pol_R(basis,n,m,x,y);
             double arg = m*Math.atan2(y,x);
             double real = r*Math.cos(arg);
             double imag = r*Math.sin(arg);
@@ -209,7 +193,6 @@ public class ZernikeMoments {
         double i_0, j_0;
         double i_scale, j_scale;
         double x,y;
-        Complex v;
         double isize, jsize;
 
         int diff = n-Math.abs(m);
@@ -224,14 +207,20 @@ public class ZernikeMoments {
         i_scale=Math.sqrt(2)*radius;
         radius=hh/2;
         j_scale=Math.sqrt(2)*radius; //note we want to construct a circle to contain the rectangle
+        ZernikeBasis basis = ZernikeBasis.getBasis(n);
+        double[] pows = new double[(n-Math.abs(m))/2+1];
+        double rho2, r, arg;
         Complex res = new Complex();
         for(int i=0; i<npoints; i++){
             x = (xvals[i]-i_0)/i_scale;
             y = (yvals[i]-j_0)/j_scale;
-            if (((x*x + y*y) <= 1.0)){// we ignore (x,y) not in the unit circle
-                v = zer_pol(n,m,x,y);
-                res.setRE(res.getRE()+v.getRE());
-                res.setIM(res.getIM()+v.getIM());
+            rho2 = x*x + y*y;
+            if (rho2 <= 1.0){// we ignore (x,y) not in the unit circle
+                ZernikeBasis.powers(rho2,pows);
+                r = basis.radial(n,m,ZernikeBasis.rhoPower(rho2,m),pows);
+                arg = m*Math.atan2(y,x);
+                res.setRE(res.getRE()+r*Math.cos(arg));
+                res.setIM(res.getIM()+r*Math.sin(arg));
             }
         }
         res.setRE(res.getRE()*(n+1)/Math.PI);
@@ -290,6 +279,216 @@ public class ZernikeMoments {
     }
 
 
+    /**
+     * Return the same set of moments as zer_mmts, in the same order,
+     * but compute all of them in a single pass over the points. <p>
+     *
+     * Since Rnm(p) = p^|m| * P(p^2) for a polynomial P (see
+     * ZernikeBasis), the basis function can be written as
+     * <pre>
+     *   V(n,m,x,y) = Rnm(p) e^(i m theta) = (x+iy)^m P(p^2)
+     * </pre>
+     * so for each point inside the unit circle the kernel obtains
+     * (x+iy)^m for m = 0...order by repeated complex multiplication
+     * and the powers of p^2 by recurrence, and then accumulates every
+     * A(n,m) from those.  No trigonometric functions or Math.pow are
+     * called.  The results agree with zer_mmts up to floating point
+     * rounding.
+     */
+    public static Complex[] zer_mmts_fused(int order, double[] xvals, double[] yvals, int npoints, double ww, double hh, double cx, double cy){
+        int ct = ZernikeBasis.getMomentCount(order);
+        double[] re = new double[ct];
+        double[] im = new double[ct];
+        zer_mmts_fused(order,xvals,yvals,npoints,ww,hh,cx,cy,re,im);
+        Complex[] mmts = new Complex[ct];
+        for(int i=0; i<ct; i++){
+            mmts[i] = new Complex(re[i],im[i]);
+        }
+        return mmts;
+    }
+
+    /**
+     * Same as zer_mmts_fused, except that the real and imaginary
+     * parts of the moments are written into the caller-supplied
+     * arrays 're' and 'im', which must hold at least
+     * ZernikeBasis.getMomentCount(order) values.  No objects are
+     * allocated per point or per moment.
+     */
+    public static void zer_mmts_fused(int order, double[] xvals, double[] yvals, int npoints, double ww, double hh, double cx, double cy, double[] re, double[] im){
+        ZernikeBasis basis = ZernikeBasis.getBasis(order);
+        int ct = ZernikeBasis.getMomentCount(order);
+        for(int i=0; i<ct; i++){
+            re[i] = 0;
+            im[i] = 0;
+        }
+        double[] pows = new double[order/2+1];
+        double i_scale = Math.sqrt(2)*(ww/2);
+        double j_scale = Math.sqrt(2)*(hh/2);
+        double x, y, rho2, zr, zi, tmp, p;
+        for(int i=0; i<npoints; i++){
+            x = (xvals[i]-cx)/i_scale;
+            y = (yvals[i]-cy)/j_scale;
+            rho2 = x*x + y*y;
+            if (rho2 > 1.0){// we ignore (x,y) not in the unit circle
+                continue;
+            }
+            ZernikeBasis.powers(rho2,pows);
+            zr = 1;//(x+iy)^m
+            zi = 0;
+            for(int m=0; m<=order; m++){
+                for(int n=m; n<=order; n+=2){
+                    double[] c = basis.getCoefficients(n,m);
+                    p = 0;
+                    for(int k=0; k<c.length; k++){
+                        p += c[k]*pows[k];
+                    }
+                    int idx = basis.getMomentIndex(n,m);
+                    re[idx] += zr*p;
+                    im[idx] += zi*p;
+                }
+                tmp = zr*x - zi*y;
+                zi = zr*y + zi*x;
+                zr = tmp;
+            }
+        }
+        for(int n=0; n<=order; n++){
+            for(int m=n%2; m<=n; m+=2){
+                int idx = basis.getMomentIndex(n,m);
+                re[idx] = re[idx]*(n+1)/Math.PI;
+                im[idx] = im[idx]*(n+1)/Math.PI;
+            }
+        }
+    }
+
+    /**
+     * Same as zer_mmts_fused, but laid out as a few long loops over
+     * arrays of points that are run by the given Kernels, so that they
+     * can use SIMD instructions.  The points inside the unit circle
+     * are first normalized into the workspace.  Then for each m the
+     * kernel keeps w = (x+iy)^m for every point and computes the power
+     * sums S(m,k) = Sum w*(p^2)^k, from which
+     * <pre>
+     *   A(n,m) = (n+1)/pi Sum c[k] S(m,k)
+     * </pre>
+     * where c[k] are the coefficients of Rnm in ZernikeBasis.  The
+     * results agree with zer_mmts_fused up to floating point
+     * rounding.  The workspace can be reused across calls; no objects
+     * are allocated once it has grown to the number of points.
+     */
+    public static void zer_mmts_kernels(int order, double[] xvals, double[] yvals, int npoints, double ww, double hh, double cx, double cy, double[] re, double[] im, Kernels kernels, Workspace ws){
+        zer_mmts_kernels(ZernikeBasis.getBasis(order),xvals,yvals,npoints,ww,hh,cx,cy,re,im,kernels,ws);
+    }
+
+    /**
+     * Same as zer_mmts_kernels, with the moments up to the order of
+     * the given basis.  Callers that compute the moments of many
+     * shapes can look up the basis once.
+     */
+    public static void zer_mmts_kernels(ZernikeBasis basis, double[] xvals, double[] yvals, int npoints, double ww, double hh, double cx, double cy, double[] re, double[] im, Kernels kernels, Workspace ws){
+        int order = basis.getOrder();
+        ws.ensure(npoints, order);
+        double i_scale = Math.sqrt(2)*(ww/2);
+        double j_scale = Math.sqrt(2)*(hh/2);
+        int num = 0;
+        for(int i=0; i<npoints; i++){
+            double x = (xvals[i]-cx)/i_scale;
+            double y = (yvals[i]-cy)/j_scale;
+            double rho2 = x*x + y*y;
+            if (rho2 > 1.0){// we ignore (x,y) not in the unit circle
+                continue;
+            }
+            ws.x[num] = x;
+            ws.y[num] = y;
+            ws.rho2[num] = rho2;
+            ws.wre[num] = 1;
+            ws.wim[num] = 0;
+            num++;
+        }
+        for(int m=0; m<=order; m++){
+            if(m > 0){
+                kernels.complexMultiply(ws.wre, ws.wim, ws.x, ws.y, num);
+            }
+            int count = (order-m)/2+1;
+            kernels.powerSums(ws.wre, ws.rho2, num, ws.sre, 0, count);
+            kernels.powerSums(ws.wim, ws.rho2, num, ws.sim, 0, count);
+            for(int n=m; n<=order; n+=2){
+                double[] c = basis.getCoefficients(n,m);
+                double sr = 0;
+                double si = 0;
+                for(int k=0; k<c.length; k++){
+                    sr += c[k]*ws.sre[k];
+                    si += c[k]*ws.sim[k];
+                }
+                int idx = basis.getMomentIndex(n,m);
+                re[idx] = sr*(n+1)/Math.PI;
+                im[idx] = si*(n+1)/Math.PI;
+            }
+        }
+    }
+
+    /**
+     * Write the magnitudes of the moments 'from' (inclusive) to 'to'
+     * (exclusive), whose real and imaginary parts are given in 're'
+     * and 'im', into 'out' starting at 'offset'.
+     */
+    public static void magnitudes(double[] re, double[] im, int from, int to, double[] out, int offset){
+        for(int i=from; i<to; i++){
+            out[offset++] = Math.sqrt(re[i]*re[i]+im[i]*im[i]);
+        }
+    }
+
+    /**
+     * Compute the width, height, and center of the bounding box of
+     * the shape, and call zer_mmts_fused.
+     */
+    public static Complex[] zer_mmts_fused(int order, double[] xvals, double[] yvals, int npoints){
+        double xmin = Double.MAX_VALUE;
+        double ymin = Double.MAX_VALUE;
+        double xmax = Double.MIN_VALUE;
+        double ymax = Double.MIN_VALUE;
+        for(int i=0; i<npoints; i++){
+            xmin=Math.min(xmin,xvals[i]);
+            xmax=Math.max(xmax,xvals[i]);
+            ymin=Math.min(ymin,yvals[i]);
+            ymax=Math.max(ymax,yvals[i]);
+        }
+        double ww  = xmax-xmin;//width
+        double hh = ymax-ymin;//height
+        double cx = xmin+ww/2;
+        double cy = ymin+hh/2;
+        return zer_mmts_fused(order,xvals,yvals,npoints,ww,hh,cx,cy);
+    }
+
+
+    /**
+     * Growable per-point and per-order buffers used by
+     * zer_mmts_kernels.  A workspace must not be shared between
+     * threads.
+     */
+    public static class Workspace {
+        double[] x = new double[0];
+        double[] y = new double[0];
+        double[] rho2 = new double[0];
+        double[] wre = new double[0];
+        double[] wim = new double[0];
+        double[] sre = new double[0];
+        double[] sim = new double[0];
+
+        void ensure(int npoints, int order){
+            if(x.length < npoints){
+                x = new double[npoints];
+                y = new double[npoints];
+                rho2 = new double[npoints];
+                wre = new double[npoints];
+                wim = new double[npoints];
+            }
+            if(sre.length < order/2+1){
+                sre = new double[order/2+1];
+                sim = new double[order/2+1];
+            }
+        }
+    }
+
     /**
      * Data structure for a complex number with real and imaginary parts.
      */
@@ -0,0 +1,326 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.simd;
+
+import hhreco.util.Kernels;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the kernels using the JDK Vector API.  Each
+ * kernel processes as many elements per instruction as the preferred
+ * vector species of the platform holds, and finishes the remaining
+ * elements with scalar code.  <p>
+ *
+ * This class requires JDK 16 or later and must be compiled and run
+ * with "--add-modules jdk.incubator.vector".  Do not use it directly;
+ * Kernels.getInstance() loads it when it is available and falls back
+ * to the scalar kernels otherwise.
+ */
+public class VectorKernels extends Kernels {
+    /**
+     * The vector shape used by all kernels.
+     */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * The float shape with as many lanes as SPECIES, used to load the
+     * rows of a float block and widen them to double.
+     */
+    private static final VectorSpecies<Float> FLOATS =
+        VectorSpecies.of(float.class, VectorShape.forBitSize(SPECIES.vectorBitSize()/2));
+
+    /**
+     * Return the name of this implementation.
+     */
+    public String getName() {
+        return "vector(" + SPECIES.length() + " x double)";
+    }
+
+    /**
+     * Return true.
+     */
+    public boolean isVectorized() {
+        return true;
+    }
+
+    public double squaredDistance(double[] a, double[] b, int n) {
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector diff = DoubleVector.fromArray(SPECIES,a,i).sub(DoubleVector.fromArray(SPECIES,b,i));
+            acc = diff.fma(diff,acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for(; i<n; i++){
+            double diff = a[i]-b[i];
+            sum += diff*diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Four rows are processed at once, as in the scalar kernel, with
+     * the floats of each row widened to double before the difference.
+     */
+    public void squaredDistances(float[] block, int offset, int count, int n, double[] query, double[] out, int outOffset) {
+        int bound = SPECIES.loopBound(n);
+        int r = 0;
+        for(; r+4<=count; r+=4){
+            int b0 = offset+r*n;
+            int b1 = b0+n;
+            int b2 = b1+n;
+            int b3 = b2+n;
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            DoubleVector acc2 = DoubleVector.zero(SPECIES);
+            DoubleVector acc3 = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for(; i<bound; i+=SPECIES.length()){
+                DoubleVector q = DoubleVector.fromArray(SPECIES,query,i);
+                DoubleVector d0 = q.sub(widen(block,b0+i));
+                DoubleVector d1 = q.sub(widen(block,b1+i));
+                DoubleVector d2 = q.sub(widen(block,b2+i));
+                DoubleVector d3 = q.sub(widen(block,b3+i));
+                acc0 = d0.fma(d0,acc0);
+                acc1 = d1.fma(d1,acc1);
+                acc2 = d2.fma(d2,acc2);
+                acc3 = d3.fma(d3,acc3);
+            }
+            double s0 = acc0.reduceLanes(VectorOperators.ADD);
+            double s1 = acc1.reduceLanes(VectorOperators.ADD);
+            double s2 = acc2.reduceLanes(VectorOperators.ADD);
+            double s3 = acc3.reduceLanes(VectorOperators.ADD);
+            for(; i<n; i++){
+                double q = query[i];
+                double d0 = q-block[b0+i];
+                double d1 = q-block[b1+i];
+                double d2 = q-block[b2+i];
+                double d3 = q-block[b3+i];
+                s0 += d0*d0;
+                s1 += d1*d1;
+                s2 += d2*d2;
+                s3 += d3*d3;
+            }
+            out[outOffset+r] = s0;
+            out[outOffset+r+1] = s1;
+            out[outOffset+r+2] = s2;
+            out[outOffset+r+3] = s3;
+        }
+        for(; r<count; r++){
+            int b = offset+r*n;
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for(; i<bound; i+=SPECIES.length()){
+                DoubleVector d = DoubleVector.fromArray(SPECIES,query,i).sub(widen(block,b+i));
+                acc = d.fma(d,acc);
+            }
+            double sum = acc.reduceLanes(VectorOperators.ADD);
+            for(; i<n; i++){
+                double d = query[i]-block[b+i];
+                sum += d*d;
+            }
+            out[outOffset+r] = sum;
+        }
+    }
+
+    public double weightedSquaredDistance(double[] a, double[] b, double[] w, int n) {
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector diff = DoubleVector.fromArray(SPECIES,a,i).sub(DoubleVector.fromArray(SPECIES,b,i));
+            acc = diff.mul(DoubleVector.fromArray(SPECIES,w,i)).fma(diff,acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for(; i<n; i++){
+            double diff = a[i]-b[i];
+            sum += w[i]*diff*diff;
+        }
+        return sum;
+    }
+
+    public void weightedSquaredDistances(float[] block, int offset, int count, int n, double[] query, double[] w, double[] out, int outOffset) {
+        int bound = SPECIES.loopBound(n);
+        int r = 0;
+        for(; r+4<=count; r+=4){
+            int b0 = offset+r*n;
+            int b1 = b0+n;
+            int b2 = b1+n;
+            int b3 = b2+n;
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            DoubleVector acc2 = DoubleVector.zero(SPECIES);
+            DoubleVector acc3 = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for(; i<bound; i+=SPECIES.length()){
+                DoubleVector q = DoubleVector.fromArray(SPECIES,query,i);
+                DoubleVector wi = DoubleVector.fromArray(SPECIES,w,i);
+                DoubleVector d0 = q.sub(widen(block,b0+i));
+                DoubleVector d1 = q.sub(widen(block,b1+i));
+                DoubleVector d2 = q.sub(widen(block,b2+i));
+                DoubleVector d3 = q.sub(widen(block,b3+i));
+                acc0 = wi.mul(d0).fma(d0,acc0);
+                acc1 = wi.mul(d1).fma(d1,acc1);
+                acc2 = wi.mul(d2).fma(d2,acc2);
+                acc3 = wi.mul(d3).fma(d3,acc3);
+            }
+            double s0 = acc0.reduceLanes(VectorOperators.ADD);
+            double s1 = acc1.reduceLanes(VectorOperators.ADD);
+            double s2 = acc2.reduceLanes(VectorOperators.ADD);
+            double s3 = acc3.reduceLanes(VectorOperators.ADD);
+            for(; i<n; i++){
+                double q = query[i];
+                double wi = w[i];
+                double d0 = q-block[b0+i];
+                double d1 = q-block[b1+i];
+                double d2 = q-block[b2+i];
+                double d3 = q-block[b3+i];
+                s0 += wi*d0*d0;
+                s1 += wi*d1*d1;
+                s2 += wi*d2*d2;
+                s3 += wi*d3*d3;
+            }
+            out[outOffset+r] = s0;
+            out[outOffset+r+1] = s1;
+            out[outOffset+r+2] = s2;
+            out[outOffset+r+3] = s3;
+        }
+        for(; r<count; r++){
+            int b = offset+r*n;
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for(; i<bound; i+=SPECIES.length()){
+                DoubleVector d = DoubleVector.fromArray(SPECIES,query,i).sub(widen(block,b+i));
+                acc = DoubleVector.fromArray(SPECIES,w,i).mul(d).fma(d,acc);
+            }
+            double sum = acc.reduceLanes(VectorOperators.ADD);
+            for(; i<n; i++){
+                double d = query[i]-block[b+i];
+                sum += w[i]*d*d;
+            }
+            out[outOffset+r] = sum;
+        }
+    }
+
+    public double normalizedSquaredDistance(double[] a, double[] means, double[] vars, int n) {
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector diff = DoubleVector.fromArray(SPECIES,a,i).sub(DoubleVector.fromArray(SPECIES,means,i));
+            acc = acc.add(diff.mul(diff).div(DoubleVector.fromArray(SPECIES,vars,i)));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for(; i<n; i++){
+            double diff = a[i]-means[i];
+            sum += (diff*diff)/vars[i];
+        }
+        return sum;
+    }
+
+    public void add(double[] acc, double[] v, int n) {
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector.fromArray(SPECIES,acc,i).add(DoubleVector.fromArray(SPECIES,v,i)).intoArray(acc,i);
+        }
+        for(; i<n; i++){
+            acc[i] += v[i];
+        }
+    }
+
+    public void addSquaredDifference(double[] acc, double[] v, double[] means, int n) {
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector diff = DoubleVector.fromArray(SPECIES,v,i).sub(DoubleVector.fromArray(SPECIES,means,i));
+            diff.fma(diff,DoubleVector.fromArray(SPECIES,acc,i)).intoArray(acc,i);
+        }
+        for(; i<n; i++){
+            double diff = v[i]-means[i];
+            acc[i] += diff*diff;
+        }
+    }
+
+    /**
+     * The powers are summed four at a time, in registers, so that the
+     * accumulators are not spilled to memory.
+     */
+    public void powerSums(double[] w, double[] r, int n, double[] out, int offset, int count) {
+        int bound = SPECIES.loopBound(n);
+        for(int k0=0; k0<count; k0+=4){
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            DoubleVector acc2 = DoubleVector.zero(SPECIES);
+            DoubleVector acc3 = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for(; i<bound; i+=SPECIES.length()){
+                DoubleVector ri = DoubleVector.fromArray(SPECIES,r,i);
+                DoubleVector t = DoubleVector.fromArray(SPECIES,w,i);
+                for(int k=0; k<k0; k++){
+                    t = t.mul(ri);
+                }
+                acc0 = acc0.add(t);
+                t = t.mul(ri);
+                acc1 = acc1.add(t);
+                t = t.mul(ri);
+                acc2 = acc2.add(t);
+                t = t.mul(ri);
+                acc3 = acc3.add(t);
+            }
+            double[] sums = {acc0.reduceLanes(VectorOperators.ADD),
+                             acc1.reduceLanes(VectorOperators.ADD),
+                             acc2.reduceLanes(VectorOperators.ADD),
+                             acc3.reduceLanes(VectorOperators.ADD)};
+            int kmax = Math.min(4, count-k0);
+            for(int k=0; k<kmax; k++){
+                out[offset+k0+k] = sums[k];
+            }
+            for(; i<n; i++){
+                double t = w[i];
+                for(int k=0; k<k0; k++){
+                    t *= r[i];
+                }
+                for(int k=0; k<kmax; k++){
+                    out[offset+k0+k] += t;
+                    t *= r[i];
+                }
+            }
+        }
+    }
+
+    public void complexMultiply(double[] re, double[] im, double[] x, double[] y, int n) {
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        for(; i<bound; i+=SPECIES.length()){
+            DoubleVector vr = DoubleVector.fromArray(SPECIES,re,i);
+            DoubleVector vi = DoubleVector.fromArray(SPECIES,im,i);
+            DoubleVector vx = DoubleVector.fromArray(SPECIES,x,i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES,y,i);
+            vr.mul(vx).sub(vi.mul(vy)).intoArray(re,i);
+            vr.mul(vy).add(vi.mul(vx)).intoArray(im,i);
+        }
+        for(; i<n; i++){
+            double tmp = re[i]*x[i] - im[i]*y[i];
+            im[i] = re[i]*y[i] + im[i]*x[i];
+            re[i] = tmp;
+        }
+    }
+
+    /**
+     * Load SPECIES.length() floats of the block from index i on, as
+     * doubles.
+     */
+    private static DoubleVector widen(float[] block, int i) {
+        return (DoubleVector)FloatVector.fromArray(FLOATS,block,i).convertShape(VectorOperators.F2D,SPECIES,0);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2003 The Regents of the University of California.
+ * All rights reserved. See the file COPYRIGHT for details.
+ */
+package hhreco.util;
+
+/**
+ * The inner loops of the moment computation and of the distance and
+ * statistics computations of the classifiers, written as kernels over
+ * arrays of doubles.  This class is the plain scalar implementation.
+ * <p>
+ *
+ * getInstance() returns the SIMD implementation in the optional
+ * hhreco.simd package instead when it has been compiled and the JDK
+ * Vector API is available at run time (i.e. java is run with
+ * "--add-modules jdk.incubator.vector").  Otherwise, or if the system
+ * property "hhreco.kernels" is set to "scalar", it falls back to this
+ * class.  The SIMD implementation adds up the terms in a different
+ * order, so its results may differ from these in the last bits.
+ */
+public class Kernels {
+    /**
+     * The name of the SIMD implementation class.
+     */
+    public static final String VECTOR_KERNELS = "hhreco.simd.VectorKernels";
+
+    /**
+     * Holds the shared instance, which the JVM creates when the
+     * holder is first used, so that getInstance takes no lock.
+     */
+    private static class Holder {
+        static final Kernels INSTANCE = load();
+    }
+
+    /**
+     * Return the SIMD kernels if they are available, or the scalar
+     * kernels otherwise.  Callers that compute many distances should
+     * still keep the instance rather than call this in their inner
+     * loops.
+     */
+    public static Kernels getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Create the SIMD kernels, or the scalar ones if the SIMD kernels
+     * are not compiled, the Vector API is not available, or the
+     * system property hhreco.kernels is "scalar".
+     */
+    private static Kernels load() {
+        if(!"scalar".equals(System.getProperty("hhreco.kernels"))){
+            try {
+                return (Kernels)Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+            }
+            catch(ReflectiveOperationException e) {
+                //not compiled
+            }
+            catch(LinkageError e) {
+                //the Vector API is not available
+            }
+        }
+        return new Kernels();
+    }
+
+    /**
+     * Return the name of this implementation.
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Return whether this implementation uses SIMD instructions.
+     */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Return the squared Euclidean distance between the first n
+     * elements of a and b.
+     */
+    public double squaredDistance(double[] a, double[] b, int n) {
+        double sum = 0;
+        for(int i=0; i<n; i++){
+            double diff = a[i]-b[i];
+            sum += diff*diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Compute the squared Euclidean distances between the query and
+     * 'count' rows of n floats stored one after the other in 'block'
+     * from 'offset' on, into out[outOffset] to out[outOffset+count-1].
+     * The differences are taken and summed in double.  Four rows are
+     * processed at once, so each element of the query is loaded once
+     * for all four and the four sums are independent.
+     */
+    public void squaredDistances(float[] block, int offset, int count, int n, double[] query, double[] out, int outOffset) {
+        int r = 0;
+        for(; r+4<=count; r+=4){
+            int b0 = offset+r*n;
+            int b1 = b0+n;
+            int b2 = b1+n;
+            int b3 = b2+n;
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            for(int i=0; i<n; i++){
+                double q = query[i];
+                double d0 = q-block[b0+i];
+                double d1 = q-block[b1+i];
+                double d2 = q-block[b2+i];
+                double d3 = q-block[b3+i];
+                s0 += d0*d0;
+                s1 += d1*d1;
+                s2 += d2*d2;
+                s3 += d3*d3;
+            }
+            out[outOffset+r] = s0;
+            out[outOffset+r+1] = s1;
+            out[outOffset+r+2] = s2;
+            out[outOffset+r+3] = s3;
+        }
+        for(; r<count; r++){
+            int b = offset+r*n;
+            double sum = 0;
+            for(int i=0; i<n; i++){
+                double d = query[i]-block[b+i];
+                sum += d*d;
+            }
+            out[outOffset+r] = sum;
+        }
+    }
+
+    /**
+     * Return Sum w[i]*(a[i]-b[i])^2 over the first n elements.
+     */
+    public double weightedSquaredDistance(double[] a, double[] b, double[] w, int n) {
+        double sum = 0;
+        for(int i=0; i<n; i++){
+            double diff = a[i]-b[i];
+            sum += w[i]*diff*diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Same as squaredDistances, but with the squared difference of
+     * element i multiplied by w[i].
+     */
+    public void weightedSquaredDistances(float[] block, int offset, int count, int n, double[] query, double[] w, double[] out, int outOffset) {
+        int r = 0;
+        for(; r+4<=count; r+=4){
+            int b0 = offset+r*n;
+            int b1 = b0+n;
+            int b2 = b1+n;
+            int b3 = b2+n;
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            for(int i=0; i<n; i++){
+                double q = query[i];
+                double wi = w[i];
+                double d0 = q-block[b0+i];
+                double d1 = q-block[b1+i];
+                double d2 = q-block[b2+i];
+                double d3 = q-block[b3+i];
+                s0 += wi*d0*d0;
+                s1 += wi*d1*d1;
+                s2 += wi*d2*d2;
+                s3 += wi*d3*d3;
+            }
+            out[outOffset+r] = s0;
+            out[outOffset+r+1] = s1;
+            out[outOffset+r+2] = s2;
+            out[outOffset+r+3] = s3;
+        }
+        for(; r<count; r++){
+            int b = offset+r*n;
+            double sum = 0;
+            for(int i=0; i<n; i++){
+                double d = query[i]-block[b+i];
+                sum += w[i]*d*d;
+            }
+            out[outOffset+r] = sum;
+        }
+    }
+
+    /**
+     * Return Sum (a[i]-means[i])^2/vars[i] over the first n elements.
+     */
+    public double normalizedSquaredDistance(double[] a, double[] means, double[] vars, int n) {
+        double sum = 0;
+        for(int i=0; i<n; i++){
+            double diff = a[i]-means[i];
+            sum += (diff*diff)/vars[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Add the first n elements of v to acc.
+     */
+    public void add(double[] acc, double[] v, int n) {
+        for(int i=0; i<n; i++){
+            acc[i] += v[i];
+        }
+    }
+
+    /**
+     * Add (v[i]-means[i])^2 to acc[i] for the first n elements.
+     */
+    public void addSquaredDifference(double[] acc, double[] v, double[] means, int n) {
+        for(int i=0; i<n; i++){
+            double diff = v[i]-means[i];
+            acc[i] += diff*diff;
+        }
+    }
+
+    /**
+     * Compute out[offset+k] = Sum w[i]*r[i]^k over the first n
+     * elements, for k = 0...count-1.
+     */
+    public void powerSums(double[] w, double[] r, int n, double[] out, int offset, int count) {
+        for(int k=0; k<count; k++){
+            out[offset+k] = 0;
+        }
+        for(int i=0; i<n; i++){
+            double t = w[i];
+            double ri = r[i];
+            for(int k=0; k<count; k++){
+                out[offset+k] += t;
+                t *= ri;
+            }
+        }
+    }
+
+    /**
+     * Multiply the complex numbers (re[i], im[i]) by (x[i], y[i]) in
+     * place, for the first n elements.
+     */
+    public void complexMultiply(double[] re, double[] im, double[] x, double[] y, int n) {
+        for(int i=0; i<n; i++){
+            double tmp = re[i]*x[i] - im[i]*y[i];
+            im[i] = re[i]*y[i] + im[i]*x[i];
+            re[i] = tmp;
+        }
+    }
+}